@@ -0,0 +1,165 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.protocol.HttpHeaders;
+
+import org.mockito.AdditionalAnswers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link JSoupParserBolt#execute(Tuple)} end to end, with a stubbed topology context and an
+ * output collector which only counts what it gets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoltBenchmark {
+
+    /** Counts what the bolt sends */
+    private static final class CountingOutputCollector implements IOutputCollector {
+        long emitted;
+        long acked;
+        long failed;
+
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            emitted++;
+            return null;
+        }
+
+        @Override
+        public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors,
+                List<Object> tuple) {
+            emitted++;
+        }
+
+        @Override
+        public void ack(Tuple input) {
+            acked++;
+        }
+
+        @Override
+        public void fail(Tuple input) {
+            failed++;
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+            failed++;
+        }
+    }
+
+    @Param({ "small", "macy", "dillards", "large", "deep" })
+    public String page;
+
+    /** whether the MicrodataFilter is run */
+    @Param({ "false", "true" })
+    public boolean microdata;
+
+    /** whether the filters get the read-only view instead of a copy of the DOM */
+    @Param({ "false", "true" })
+    public boolean view;
+
+    private JSoupParserBolt bolt;
+
+    private CountingOutputCollector output;
+
+    private Tuple tuple;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put("parsefilters.config.file", microdata ? "benchmark-parsefilters.json"
+                : "benchmark-noparsefilters.json");
+        conf.put("urlfilters.config.file", "benchmark-urlfilters.json");
+        conf.put("parser.dom.view", view);
+
+        TopologyContext context = mock(TopologyContext.class);
+        when(context.registerMetric(anyString(), any(IMetric.class), anyInt())).thenAnswer(
+                AdditionalAnswers.returnsArgAt(1));
+
+        // not a mock as Mockito would keep track of every call
+        final byte[] content = Corpus.get(page);
+        final String url = Corpus.url(page);
+        tuple = (Tuple) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Tuple.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getBinaryByField")) {
+                            return content;
+                        }
+                        if (name.equals("getStringByField")) {
+                            return url;
+                        }
+                        if (name.equals("getValueByField")) {
+                            // the bolt modifies the metadata
+                            Metadata metadata = new Metadata();
+                            metadata.setValue(HttpHeaders.CONTENT_TYPE, "text/html");
+                            return metadata;
+                        }
+                        if (name.equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        if (name.equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+
+        output = new CountingOutputCollector();
+        bolt = new JSoupParserBolt();
+        bolt.prepare(conf, context, new OutputCollector(output));
+    }
+
+    @TearDown
+    public void tearDown() {
+        bolt.cleanup();
+        if (output.failed > 0) {
+            throw new IllegalStateException(output.failed + " tuples failed");
+        }
+    }
+
+    @Benchmark
+    public long execute() {
+        bolt.execute(tuple);
+        return output.emitted;
+    }
+}
@@ -0,0 +1,77 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import backtype.storm.metric.api.MultiCountMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.protocol.HttpHeaders;
+import com.ibm.icu.text.CharsetDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Charset detection of {@link ContentCharsetDetector} compared with running ICU over the whole
+ * page, which is what the bolt used to do. The pages are tried with their meta tag and without it
+ * so that ICU has to be used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharsetBenchmark {
+
+    @Param({ "small", "macy", "dillards", "large", "deep" })
+    public String page;
+
+    /** whether the charset is declared in the page */
+    @Param({ "true", "false" })
+    public boolean declared;
+
+    private byte[] content;
+
+    private Metadata metadata;
+
+    private ContentCharsetDetector detector;
+
+    @Setup
+    public void setUp() throws IOException {
+        content = Corpus.get(page);
+        if (!declared) {
+            String html = new String(content, StandardCharsets.ISO_8859_1);
+            html = html.replaceAll("(?i)charset=", "encoding=");
+            content = html.getBytes(StandardCharsets.ISO_8859_1);
+        }
+        metadata = new Metadata();
+        metadata.setValue(HttpHeaders.CONTENT_TYPE, "text/html");
+        detector = new ContentCharsetDetector(new HashMap(), new MultiCountMetric());
+    }
+
+    @Benchmark
+    public String detector() {
+        return detector.getCharset(content, metadata);
+    }
+
+    @Benchmark
+    public String icuWholePage() {
+        CharsetDetector icu = new CharsetDetector();
+        icu.enableInputFilter(true);
+        icu.setText(content);
+        return icu.detect().getName();
+    }
+}
@@ -0,0 +1,156 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The pages used by the benchmarks:
+ * <ul>
+ * <li><tt>plain</tt>: a page of text and links without microdata</li>
+ * <li><tt>small</tt>: a short product page</li>
+ * <li><tt>macy</tt>, <tt>dillards</tt>: the product pages used by the tests of the
+ * microdata-parser</li>
+ * <li><tt>large</tt>: a category page with thousands of products and links</li>
+ * <li><tt>deep</tt>: a page with deeply nested elements and item scopes</li>
+ * </ul>
+ * The generated pages are the same on every run.
+ */
+public final class Corpus {
+
+    public static final String BASE_URL = "http://www.example.com/";
+
+    private Corpus() {
+    }
+
+    /**
+     * @return the URL the page pretends to come from
+     */
+    public static String url(String page) {
+        return BASE_URL + page + ".html";
+    }
+
+    public static byte[] get(String page) throws IOException {
+        switch (page) {
+        case "plain":
+            return plain();
+        case "small":
+            return small();
+        case "macy":
+            return resource("macy.com_1668293.html");
+        case "dillards":
+            return resource("dillards.com_503911007.html");
+        case "large":
+            return large();
+        case "deep":
+            return deep();
+        default:
+            throw new IllegalArgumentException("Unknown page " + page);
+        }
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Corpus.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + name);
+            }
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void header(StringBuilder html, String title) {
+        html.append("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\">");
+        html.append("<title>").append(title).append("</title></head><body>\n");
+        html.append("<div id=\"header\"><ul>");
+        for (int i = 0; i < 50; i++) {
+            html.append("<li><a href=\"/category/").append(i).append("\">Category ").append(i)
+                    .append("</a></li>");
+        }
+        html.append("</ul></div>\n");
+    }
+
+    private static void footer(StringBuilder html) {
+        html.append("<div id=\"footer\">");
+        for (int i = 0; i < 30; i++) {
+            html.append("<a href=\"/help/").append(i).append("\">Help ").append(i).append("</a> ");
+        }
+        html.append("</div>\n</body></html>");
+    }
+
+    private static void product(StringBuilder html, int i) {
+        html.append("<div class=\"product\" itemscope itemtype=\"http://schema.org/Product\">");
+        html.append("<a href=\"/product/").append(i).append("?ref=list\" itemprop=\"url\">");
+        html.append("<img src=\"/img/").append(i).append(".jpg\" itemprop=\"image\" alt=\"\">");
+        html.append("<span itemprop=\"name\">Product caf\u00e9 ").append(i).append("</span></a>");
+        html.append("<div itemprop=\"offers\" itemscope itemtype=\"http://schema.org/Offer\">");
+        html.append("<span itemprop=\"price\">").append(10 + i % 90).append(".99</span>");
+        html.append("<meta itemprop=\"priceCurrency\" content=\"USD\"></div>");
+        html.append("<p itemprop=\"description\">Some text about product ").append(i)
+                .append(", with <b>bold</b> and <i>italic</i> words.</p>");
+        html.append("</div>\n");
+    }
+
+    private static byte[] plain() {
+        StringBuilder html = new StringBuilder();
+        header(html, "Plain");
+        for (int i = 0; i < 200; i++) {
+            html.append("<p class=\"text\">Paragraph ").append(i)
+                    .append(" with <a href=\"/article/").append(i)
+                    .append("\">a link</a> and <b>some</b> text.</p>\n");
+        }
+        footer(html);
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] small() {
+        StringBuilder html = new StringBuilder();
+        header(html, "Small");
+        product(html, 0);
+        footer(html);
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] large() {
+        StringBuilder html = new StringBuilder();
+        header(html, "Large");
+        html.append("<div id=\"products\">\n");
+        for (int i = 0; i < 3000; i++) {
+            product(html, i);
+            // a second link to the product, as often seen
+            html.append("<a href=\"/product/").append(i).append("\">more</a>\n");
+        }
+        html.append("</div>\n");
+        footer(html);
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deep() {
+        StringBuilder html = new StringBuilder();
+        header(html, "Deep");
+        for (int i = 0; i < 1000; i++) {
+            html.append("<div class=\"level").append(i).append("\">");
+        }
+        // nested item scopes
+        for (int i = 0; i < 20; i++) {
+            html.append("<div itemprop=\"isRelatedTo\" itemscope");
+            html.append(" itemtype=\"http://schema.org/Product\">");
+            html.append("<span itemprop=\"name\">Level ").append(i).append("</span>");
+        }
+        for (int i = 0; i < 20; i++) {
+            html.append("</div>");
+        }
+        html.append("<a href=\"/bottom\">bottom</a>");
+        for (int i = 0; i < 1000; i++) {
+            html.append("</div>");
+        }
+        footer(html);
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Node;
+
+/**
+ * Copying the jsoup tree with {@link DOMBuilder#jsoup2HTML} compared with the read-only view of
+ * {@link DOMBuilder#jsoup2View}. The view is built lazily so both walk the whole tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DOMBuilderBenchmark {
+
+    @Param({ "small", "macy", "dillards", "large", "deep" })
+    public String page;
+
+    private Document jsoupDoc;
+
+    @Setup
+    public void setUp() throws IOException {
+        jsoupDoc = Jsoup.parse(new ByteArrayInputStream(Corpus.get(page)), null, Corpus.url(page));
+    }
+
+    @Benchmark
+    public int jsoup2HTML() {
+        return countNodes(DOMBuilder.jsoup2HTML(jsoupDoc));
+    }
+
+    @Benchmark
+    public int jsoup2View() {
+        return countNodes(DOMBuilder.jsoup2View(jsoupDoc));
+    }
+
+    private static int countNodes(Node root) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            count++;
+            Node next = node.getFirstChild();
+            while (next == null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+        return count;
+    }
+}
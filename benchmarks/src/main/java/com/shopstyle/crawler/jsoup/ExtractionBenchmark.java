@@ -0,0 +1,102 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the single traversal of {@link ContentExtractor} with the separate DOM copy, link
+ * selection and text extraction previously done by {@link JSoupParserBolt}, and a new extractor
+ * per page with the one kept by the {@link ParseContext} of the bolt, see the allocation rates
+ * with <tt>-prof gc</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    @Param({ "small", "macy", "dillards", "large", "deep" })
+    public String page;
+
+    private Document jsoupDoc;
+
+    private ParseContext context;
+
+    @Setup
+    public void setUp() throws IOException {
+        jsoupDoc = Jsoup.parse(new ByteArrayInputStream(Corpus.get(page)), null, Corpus.url(page));
+        context = new ParseContext(-1);
+    }
+
+    @Benchmark
+    public void separateTraversals(Blackhole bh) {
+        bh.consume(DOMBuilder.jsoup2HTML(jsoupDoc));
+        Map<String, List<String>> slinks = new HashMap<String, List<String>>();
+        for (Element link : jsoupDoc.select("a[href]")) {
+            String targetURL = link.attr("abs:href");
+            String anchor = link.text();
+            if (StringUtils.isNotBlank(targetURL)) {
+                List<String> anchors = slinks.get(targetURL);
+                if (anchors == null) {
+                    anchors = new LinkedList<String>();
+                    slinks.put(targetURL, anchors);
+                }
+                if (StringUtils.isNotBlank(anchor)) {
+                    anchors.add(anchor);
+                }
+            }
+        }
+        bh.consume(slinks);
+        bh.consume(jsoupDoc.body().text());
+    }
+
+    @Benchmark
+    public void singleTraversal(Blackhole bh) {
+        ContentExtractor extractor = new ContentExtractor(true, -1).extract(jsoupDoc);
+        bh.consume(extractor.getFragment());
+        bh.consume(extractor.getLinks());
+        bh.consume(extractor.getText());
+    }
+
+    @Benchmark
+    public void singleTraversalWithoutDOM(Blackhole bh) {
+        ContentExtractor extractor = new ContentExtractor(false, -1).extract(jsoupDoc);
+        bh.consume(extractor.getLinks());
+        bh.consume(extractor.getText());
+    }
+
+    @Benchmark
+    public void singleTraversalReused(Blackhole bh) {
+        ContentExtractor extractor =
+                context.getExtractor(true, false, ParseBudget.UNLIMITED, System.nanoTime()).extract(
+                        jsoupDoc);
+        bh.consume(extractor.getFragment());
+        bh.consume(extractor.getLinks());
+        bh.consume(extractor.getText());
+        context.release();
+    }
+}
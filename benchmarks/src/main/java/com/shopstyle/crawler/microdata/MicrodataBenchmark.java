@@ -0,0 +1,82 @@
+package com.shopstyle.crawler.microdata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.shopstyle.crawler.jsoup.Corpus;
+import com.shopstyle.crawler.jsoup.DOMBuilder;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.DocumentFragment;
+
+/**
+ * {@link MicrodataFilter#filter} with and without unique prefixes for the nested values, on a copy
+ * of the DOM and on the read-only view, with Any23 or with the jsoup parser which is only used
+ * with the view. The DOM is built once, only the filter is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MicrodataBenchmark {
+
+    @Param({ "plain", "small", "macy", "dillards", "large", "deep" })
+    public String page;
+
+    @Param({ "false", "true" })
+    public boolean useUniquePrefixForNestedValues;
+
+    @Param({ "false", "true" })
+    public boolean view;
+
+    @Param({ "false", "true" })
+    public boolean useJsoup;
+
+    private MicrodataFilter filter;
+
+    private String url;
+
+    private byte[] content;
+
+    private DocumentFragment fragment;
+
+    @Setup
+    public void setUp() throws IOException {
+        url = Corpus.url(page);
+        content = Corpus.get(page);
+        Document jsoupDoc = Jsoup.parse(new ByteArrayInputStream(content), null, url);
+        fragment = view ? DOMBuilder.jsoup2View(jsoupDoc) : DOMBuilder.jsoup2HTML(jsoupDoc);
+
+        ObjectNode params = JsonNodeFactory.instance.objectNode();
+        params.put("useUniquePrefixForNestedValues", useUniquePrefixForNestedValues);
+        params.put("useJsoup", useJsoup);
+        filter = new MicrodataFilter();
+        filter.configure(new HashMap(), params);
+    }
+
+    @Benchmark
+    public Metadata filter() {
+        Metadata metadata = new Metadata();
+        filter.filter(url, content, fragment, metadata, null);
+        return metadata;
+    }
+}
@@ -0,0 +1,123 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Records what a parse worker emits and acks so that it can be replayed on the executor thread,
+ * as the {@link OutputCollector} must not be used from other threads. The task ids returned by the
+ * emit methods are not known at that point, an empty list is returned instead.
+ */
+class BufferedOutputCollector implements IOutputCollector {
+
+    private static final class Emit {
+        final String streamId;
+        final Collection<Tuple> anchors;
+        final List<Object> tuple;
+
+        Emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            this.streamId = streamId;
+            this.anchors = anchors;
+            this.tuple = tuple;
+        }
+    }
+
+    private static final class EmitDirect {
+        final int taskId;
+        final Emit emit;
+
+        EmitDirect(int taskId, Emit emit) {
+            this.taskId = taskId;
+            this.emit = emit;
+        }
+    }
+
+    private static final class Ack {
+        final Tuple input;
+        final boolean failed;
+
+        Ack(Tuple input, boolean failed) {
+            this.input = input;
+            this.failed = failed;
+        }
+    }
+
+    /** the calls, in order */
+    private final List<Object> calls = new ArrayList<Object>();
+
+    /** the inputs acked or failed since the last replay */
+    private final Set<Tuple> done = Collections
+            .newSetFromMap(new IdentityHashMap<Tuple, Boolean>());
+
+    @Override
+    public synchronized List<Integer> emit(String streamId, Collection<Tuple> anchors,
+            List<Object> tuple) {
+        calls.add(new Emit(streamId, anchors, tuple));
+        return new ArrayList<Integer>(0);
+    }
+
+    @Override
+    public synchronized void emitDirect(int taskId, String streamId, Collection<Tuple> anchors,
+            List<Object> tuple) {
+        calls.add(new EmitDirect(taskId, new Emit(streamId, anchors, tuple)));
+    }
+
+    @Override
+    public synchronized void ack(Tuple input) {
+        calls.add(new Ack(input, false));
+        done.add(input);
+    }
+
+    @Override
+    public synchronized void fail(Tuple input) {
+        calls.add(new Ack(input, true));
+        done.add(input);
+    }
+
+    /**
+     * @return whether the input was acked or failed since the last replay
+     */
+    synchronized boolean isAckedOrFailed(Tuple input) {
+        return done.contains(input);
+    }
+
+    @Override
+    public synchronized void reportError(Throwable error) {
+        calls.add(error);
+    }
+
+    /**
+     * Sends the recorded calls to the collector
+     */
+    synchronized void replay(OutputCollector collector) {
+        for (Object call : calls) {
+            if (call instanceof Emit) {
+                Emit emit = (Emit) call;
+                collector.emit(emit.streamId, emit.anchors, emit.tuple);
+            } else if (call instanceof EmitDirect) {
+                EmitDirect direct = (EmitDirect) call;
+                collector.emitDirect(direct.taskId, direct.emit.streamId, direct.emit.anchors,
+                        direct.emit.tuple);
+            } else if (call instanceof Ack) {
+                Ack ack = (Ack) call;
+                if (ack.failed) {
+                    collector.fail(ack.input);
+                } else {
+                    collector.ack(ack.input);
+                }
+            } else {
+                collector.reportError((Throwable) call);
+            }
+        }
+        calls.clear();
+        done.clear();
+    }
+}
@@ -0,0 +1,299 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+
+/**
+ * What the bolt emits for a page, kept by the {@link ParseCache}: the text and its {@link SimHash},
+ * the outlinks left by the ParseFilters with their anchors, the changes the ParseFilters made to
+ * the metadata and the structured data. The metadata of the outlinks isn't kept as it depends on the metadata of the
+ * page, it is built again from the anchors when the page is sent.
+ * <p>
+ * Serialized as:
+ * <ul>
+ * <li>the text, the fingerprint of its SimHash and the number of words it was computed on</li>
+ * <li>the number of metadata keys changed, then each key with the number of its values and the
+ * values, -1 for the keys removed</li>
+ * <li>the number of outlinks, then each target URL with its first anchor, the number of anchors
+ * and the anchors</li>
+ * <li>the length of the structured data and its bytes, -1 for none</li>
+ * </ul>
+ * where the strings are their length in UTF-8 followed by the bytes, -1 for null.
+ */
+final class CachedParse {
+
+    /** An outlink and its anchors */
+    static final class Link {
+        final String target;
+        final String anchor;
+        final List<String> anchors;
+
+        Link(String target, String anchor, List<String> anchors) {
+            this.target = target;
+            this.anchor = anchor;
+            this.anchors = anchors;
+        }
+    }
+
+    private final String text;
+
+    private final long fingerprint;
+
+    /** 0 if the SimHash of the text wasn't computed */
+    private final int words;
+
+    /** the values of the keys changed by the ParseFilters, null for those removed */
+    private final Map<String, String[]> changes;
+
+    private final List<Link> outlinks;
+
+    private final byte[] structured;
+
+    private CachedParse(String text, long fingerprint, int words, Map<String, String[]> changes,
+            List<Link> outlinks, byte[] structured) {
+        this.text = text;
+        this.fingerprint = fingerprint;
+        this.words = words;
+        this.changes = changes;
+        this.outlinks = outlinks;
+        this.structured = structured;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    int getWords() {
+        return words;
+    }
+
+    List<Link> getOutlinks() {
+        return outlinks;
+    }
+
+    byte[] getStructured() {
+        return structured;
+    }
+
+    /**
+     * Makes the changes the ParseFilters made to the metadata of the page
+     */
+    void applyTo(Metadata metadata) {
+        apply(changes, metadata);
+    }
+
+    /**
+     * @param changes found by {@link #changes}
+     */
+    static void apply(Map<String, String[]> changes, Metadata metadata) {
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                metadata.remove(change.getKey());
+            } else {
+                metadata.setValues(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the values of the metadata before the ParseFilters run, to find out what they changed
+     */
+    static Map<String, String[]> snapshot(Metadata metadata) {
+        Map<String, String[]> snapshot = new HashMap<String, String[]>();
+        for (String key : metadata.keySet()) {
+            String[] values = metadata.getValues(key);
+            // the filters may add to the arrays in place
+            snapshot.put(key, values == null ? null : values.clone());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the values of the keys which aren't the same in <tt>metadata</tt> as in the
+     *         {@link #snapshot} <tt>before</tt>, null for those removed
+     */
+    static Map<String, String[]> changes(Map<String, String[]> before, Metadata metadata) {
+        Map<String, String[]> changes = new LinkedHashMap<String, String[]>();
+        for (String key : metadata.keySet()) {
+            String[] values = metadata.getValues(key);
+            if (!before.containsKey(key) || !Arrays.equals(before.get(key), values)) {
+                changes.put(key, values);
+            }
+        }
+        for (String key : before.keySet()) {
+            if (!metadata.keySet().contains(key)) {
+                changes.put(key, null);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @param words the number of words of the {@link SimHash} of the text, 0 if none
+     * @param before the {@link #snapshot} of the metadata before the ParseFilters
+     * @param metadata the metadata after the ParseFilters
+     */
+    static byte[] write(String text, long fingerprint, int words, Map<String, String[]> before,
+            Metadata metadata, List<Outlink> outlinks, byte[] structured, String anchorsKey)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, text);
+        out.writeLong(fingerprint);
+        out.writeInt(words);
+
+        writeChanges(out, changes(before, metadata));
+
+        out.writeInt(outlinks.size());
+        for (Outlink outlink : outlinks) {
+            writeString(out, outlink.getTargetURL());
+            writeString(out, outlink.getAnchor());
+            Metadata linkMetadata = outlink.getMetadata();
+            String[] anchors = linkMetadata != null ? linkMetadata.getValues(anchorsKey) : null;
+            writeStrings(out, anchors != null ? anchors : new String[0]);
+        }
+
+        if (structured == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(structured.length);
+            out.write(structured);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the bytes weren't written by {@link #write}
+     */
+    static CachedParse read(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String text = readString(in);
+        if (text == null) {
+            throw new IOException("No text");
+        }
+        long fingerprint = in.readLong();
+        int words = in.readInt();
+
+        Map<String, String[]> changes = readChanges(in);
+
+        int count = readCount(in);
+        List<Link> outlinks = new ArrayList<Link>(count);
+        for (int i = 0; i < count; i++) {
+            String target = readString(in);
+            String anchor = readString(in);
+            String[] anchors = readStrings(in);
+            outlinks.add(new Link(target, anchor, anchors == null ? Collections.<String> emptyList()
+                    : Arrays.asList(anchors)));
+        }
+
+        byte[] structured = null;
+        int length = in.readInt();
+        if (length >= 0) {
+            if (length > in.available()) {
+                throw new IOException("Structured data longer than the entry: " + length);
+            }
+            structured = new byte[length];
+            in.readFully(structured);
+        }
+        if (in.available() > 0) {
+            throw new IOException(in.available() + " bytes left after the entry");
+        }
+        return new CachedParse(text, fingerprint, words, changes, outlinks, structured);
+    }
+
+    static void writeChanges(DataOutputStream out, Map<String, String[]> changes)
+            throws IOException {
+        out.writeInt(changes.size());
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            writeString(out, change.getKey());
+            writeStrings(out, change.getValue());
+        }
+    }
+
+    static Map<String, String[]> readChanges(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        Map<String, String[]> changes = new LinkedHashMap<String, String[]>(count * 2);
+        for (int i = 0; i < count; i++) {
+            changes.put(readString(in), readStrings(in));
+        }
+        return changes;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        // writeUTF is limited to 64KB
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("String longer than the entry: " + length);
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    static String[] readStrings(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        // each string takes at least 4 bytes
+        if (length > in.available() / 4) {
+            throw new IOException("More strings than the entry can hold: " + length);
+        }
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readString(in);
+        }
+        return values;
+    }
+
+    static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available() / 4) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,103 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.MultiCountMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.filtering.URLFilters;
+
+/**
+ * Memoizes the results of {@link URLFilters} per source host and target URL, in a LRU map with a
+ * maximum size and a time to live. Only valid if the filters don't look at the metadata and only
+ * depend on the host of the source URL, which is why the bolt only uses it when the configuration
+ * says so with <tt>urlfilters.metadataIndependent</tt>.
+ * <p>
+ * Not thread safe, each bolt has its own.
+ */
+class CachingURLFilters {
+
+    private static final class Key {
+        final String host;
+        final String target;
+        final int hash;
+
+        Key(String host, String target) {
+            this.host = host;
+            this.target = target;
+            this.hash = 31 * host.hashCode() + target.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && target.equals(other.target) && host.equals(other.host);
+        }
+    }
+
+    private static final class Entry {
+        /** null if the filters removed the URL */
+        final String value;
+        final long expires;
+
+        Entry(String value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final URLFilters filters;
+
+    private final long ttl;
+
+    private final Map<Key, Entry> cache;
+
+    private final MultiCountMetric eventCounter;
+
+    /**
+     * @param ttl time to live of the entries in milliseconds
+     */
+    CachingURLFilters(URLFilters filters, final int maxSize, long ttl,
+            MultiCountMetric eventCounter) {
+        this.filters = filters;
+        this.ttl = ttl;
+        this.eventCounter = eventCounter;
+        this.cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Same as {@link URLFilters#filter(URL, Metadata, String)}
+     */
+    String filter(URL sourceUrl, Metadata sourceMetadata, String urlToFilter) {
+        Key key = new Key(sourceUrl.getHost(), urlToFilter);
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(key);
+        if (entry != null && entry.expires > now) {
+            eventCounter.scope("urlfilter_cache_hit").incr();
+            return entry.value;
+        }
+        eventCounter.scope("urlfilter_cache_miss").incr();
+        String filtered = filters.filter(sourceUrl, sourceMetadata, urlToFilter);
+        cache.put(key, new Entry(filtered, now + ttl));
+        return filtered;
+    }
+
+    int size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,264 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+import backtype.storm.metric.api.MultiCountMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.protocol.HttpHeaders;
+import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.ibm.icu.text.CharsetDetector;
+import com.ibm.icu.text.CharsetMatch;
+
+import org.apache.http.entity.ContentType;
+
+/**
+ * Determines the charset of a page by trying, in order:
+ * <ol>
+ * <li>a byte order mark</li>
+ * <li>a charset declared in a <tt>meta</tt> tag within the first bytes of the page</li>
+ * <li>the charset of the <tt>Content-Type</tt> header</li>
+ * <li>ICU's {@link CharsetDetector} on a bounded prefix of the page</li>
+ * </ol>
+ * The first tier giving an answer wins, and a <tt>charset_&lt;tier&gt;</tt> counter is incremented
+ * so that the hit rate of each tier can be monitored.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li><tt>parser.charset.sniff.bytes</tt>: number of bytes searched for a meta tag (4096)</li>
+ * <li><tt>parser.charset.trustHeader</tt>: whether the header is trusted over ICU (true)</li>
+ * <li><tt>parser.charset.detect.bytes</tt>: number of bytes given to ICU (65536)</li>
+ * <li><tt>parser.charset.detect.minConfidence</tt>: confidence (0-100) an ICU match needs to be
+ * used (0)</li>
+ * <li><tt>parser.charset.default</tt>: charset used when nothing else worked (UTF-8)</li>
+ * </ul>
+ */
+class ContentCharsetDetector {
+
+    private static final byte[] CHARSET = "charset".getBytes(StandardCharsets.US_ASCII);
+
+    private final int sniffLength;
+
+    private final boolean trustHeader;
+
+    private final int detectLength;
+
+    private final int minConfidence;
+
+    private final String defaultCharset;
+
+    private final MultiCountMetric eventCounter;
+
+    ContentCharsetDetector(Map conf, MultiCountMetric eventCounter) {
+        sniffLength = ConfUtils.getInt(conf, "parser.charset.sniff.bytes", 4096);
+        trustHeader = ConfUtils.getBoolean(conf, "parser.charset.trustHeader", true);
+        detectLength = ConfUtils.getInt(conf, "parser.charset.detect.bytes", 65536);
+        minConfidence = ConfUtils.getInt(conf, "parser.charset.detect.minConfidence", 0);
+        defaultCharset = ConfUtils.getString(conf, "parser.charset.default", "UTF-8");
+        this.eventCounter = eventCounter;
+    }
+
+    String getCharset(byte[] content, Metadata metadata) {
+        return getCharset(content, metadata, new ParseContext(-1));
+    }
+
+    /**
+     * @param context where ICU's detector and its buffer are kept between pages
+     */
+    String getCharset(byte[] content, Metadata metadata, ParseContext context) {
+        String charset = getCharsetFromBOM(content);
+        if (charset != null) {
+            eventCounter.scope("charset_bom").incr();
+            return charset;
+        }
+
+        charset = getCharsetFromMeta(content, sniffLength);
+        if (charset != null) {
+            eventCounter.scope("charset_meta").incr();
+            return charset;
+        }
+
+        // check if the server specified a charset
+        String headerCharset = getCharsetFromHeader(metadata);
+        if (headerCharset != null && trustHeader) {
+            eventCounter.scope("charset_header").incr();
+            return headerCharset;
+        }
+
+        charset = detect(content, headerCharset, context);
+        if (charset != null) {
+            eventCounter.scope("charset_detected").incr();
+            return charset;
+        }
+
+        if (headerCharset != null) {
+            eventCounter.scope("charset_header").incr();
+            return headerCharset;
+        }
+
+        eventCounter.scope("charset_default").incr();
+        return defaultCharset;
+    }
+
+    static String getCharsetFromBOM(byte[] content) {
+        if (content.length >= 3 && (content[0] & 0xFF) == 0xEF && (content[1] & 0xFF) == 0xBB
+                && (content[2] & 0xFF) == 0xBF) {
+            return "UTF-8";
+        }
+        if (content.length >= 2) {
+            int first = content[0] & 0xFF;
+            int second = content[1] & 0xFF;
+            if (first == 0xFE && second == 0xFF) {
+                return "UTF-16BE";
+            }
+            if (first == 0xFF && second == 0xFE) {
+                return "UTF-16LE";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks for <tt>charset=</tt> in a <tt>meta</tt> tag of the first <tt>maxLength</tt> bytes,
+     * which covers both <tt>&lt;meta charset="..."&gt;</tt> and the <tt>http-equiv</tt> form.
+     * Only works for charsets which are a superset of ASCII, which is what the HTML5 prescan does
+     * too.
+     */
+    static String getCharsetFromMeta(byte[] content, int maxLength) {
+        int end = Math.min(content.length, maxLength);
+        int pos = 0;
+        while ((pos = indexOfIgnoreCase(content, CHARSET, pos, end)) != -1) {
+            int match = pos;
+            pos += CHARSET.length;
+            // must be within a meta tag
+            int tagStart = lastIndexOf(content, (byte) '<', match);
+            if (tagStart == -1 || !isMetaTag(content, tagStart, end)
+                    || lastIndexOf(content, (byte) '>', match) > tagStart) {
+                continue;
+            }
+            int valueStart = pos;
+            // skip to the value
+            while (valueStart < end && isSpace(content[valueStart])) {
+                valueStart++;
+            }
+            if (valueStart >= end || content[valueStart] != '=') {
+                continue;
+            }
+            valueStart++;
+            while (valueStart < end && (isSpace(content[valueStart]) || isQuote(content[valueStart]))) {
+                valueStart++;
+            }
+            int valueEnd = valueStart;
+            while (valueEnd < end && isCharsetNameChar(content[valueEnd])) {
+                valueEnd++;
+            }
+            if (valueEnd == valueStart || valueEnd == end) {
+                continue;
+            }
+            String name =
+                    new String(content, valueStart, valueEnd - valueStart,
+                            StandardCharsets.US_ASCII);
+            if (name.toUpperCase(Locale.ROOT).startsWith("UTF-16")) {
+                // the declaration could be read as ASCII so it can't be UTF-16
+                return "UTF-8";
+            }
+            if (isSupported(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    static String getCharsetFromHeader(Metadata metadata) {
+        String specifiedContentType = metadata.getFirstValue(HttpHeaders.CONTENT_TYPE);
+        if (specifiedContentType == null) {
+            return null;
+        }
+        try {
+            Charset charset = ContentType.parse(specifiedContentType).getCharset();
+            return charset == null ? null : charset.name();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private String detect(byte[] content, String declaredCharset, ParseContext context) {
+        byte[] prefix = content;
+        if (content.length > detectLength) {
+            prefix = context.getPrefix(content, detectLength);
+        }
+        // filter HTML tags
+        CharsetDetector detector = context.getCharsetDetector();
+        detector.enableInputFilter(true);
+        // give it a hint
+        detector.setDeclaredEncoding(declaredCharset);
+        detector.setText(prefix);
+        try {
+            CharsetMatch charsetMatch = detector.detect();
+            if (charsetMatch != null && charsetMatch.getConfidence() >= minConfidence) {
+                return charsetMatch.getName();
+            }
+        } catch (Exception e) {
+            // ignore and fall back to the next tier
+        }
+        return null;
+    }
+
+    private static boolean isMetaTag(byte[] content, int tagStart, int end) {
+        if (tagStart + 5 >= end) {
+            return false;
+        }
+        return (content[tagStart + 1] | 0x20) == 'm' && (content[tagStart + 2] | 0x20) == 'e'
+                && (content[tagStart + 3] | 0x20) == 't' && (content[tagStart + 4] | 0x20) == 'a'
+                && isSpace(content[tagStart + 5]);
+    }
+
+    private static boolean isSupported(String name) {
+        try {
+            return Charset.isSupported(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == '/';
+    }
+
+    private static boolean isQuote(byte b) {
+        return b == '"' || b == '\'';
+    }
+
+    private static boolean isCharsetNameChar(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '-' || b == '_' || b == '.' || b == ':';
+    }
+
+    private static int lastIndexOf(byte[] content, byte b, int from) {
+        for (int i = from; i >= 0; i--) {
+            if (content[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Case insensitive search of a lower case ASCII pattern
+     */
+    static int indexOfIgnoreCase(byte[] content, byte[] pattern, int from, int end) {
+        int last = end - pattern.length;
+        outer: for (int i = from; i <= last; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if ((content[i + j] | 0x20) != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,102 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jsoup.parser.Parser;
+
+/**
+ * Decodes the raw content of a page and hands it to the jsoup parser. Does the same as
+ * <tt>Jsoup.parse(InputStream, charset, url)</tt> with a known charset without copying the bytes
+ * into another buffer first, and decodes straight into a char array sized for the content so that
+ * it never has to grow.
+ * <p>
+ * The decoders and the char array are kept between calls, instances are therefore not thread
+ * safe and should be used by one bolt only.
+ */
+class ContentDecoder {
+
+    /** Char buffers larger than this are not kept between documents */
+    static final int MAX_RETAINED_CHARS = 1024 * 1024;
+
+    private final Map<String, CharsetDecoder> decoders = new HashMap<String, CharsetDecoder>();
+
+    private char[] buffer = new char[0];
+
+    /**
+     * Decodes the content with the given charset and parses it, skipping a byte order mark if
+     * there is one.
+     */
+    org.jsoup.nodes.Document parse(byte[] content, String charset, String url)
+            throws CharacterCodingException {
+        return parse(content, content.length, charset, url);
+    }
+
+    /**
+     * Same as {@link #parse(byte[], String, String)} with the first <tt>length</tt> bytes of the
+     * content only
+     */
+    org.jsoup.nodes.Document parse(byte[] content, int length, String charset, String url)
+            throws CharacterCodingException {
+        String html = decode(content, length, charset);
+        org.jsoup.nodes.Document doc = Parser.parse(html, url);
+        doc.outputSettings().charset(charset);
+        return doc;
+    }
+
+    String decode(byte[] content, String charset) throws CharacterCodingException {
+        return decode(content, content.length, charset);
+    }
+
+    String decode(byte[] content, int length, String charset) throws CharacterCodingException {
+        CharsetDecoder decoder = getDecoder(charset);
+        int capacity = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+        char[] chars = buffer;
+        if (chars.length < capacity) {
+            chars = new char[capacity];
+            if (capacity <= MAX_RETAINED_CHARS) {
+                buffer = chars;
+            }
+        }
+
+        CharBuffer out = CharBuffer.wrap(chars);
+        CoderResult result = decoder.decode(ByteBuffer.wrap(content, 0, length), out, true);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        result = decoder.flush(out);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+
+        int decoded = out.position();
+        int offset = 0;
+        // same as jsoup, which removes the BOM after decoding
+        if (decoded > 0 && chars[0] == '\uFEFF') {
+            offset = 1;
+        }
+        return new String(chars, offset, decoded - offset);
+    }
+
+    private CharsetDecoder getDecoder(String charset) {
+        CharsetDecoder decoder = decoders.get(charset);
+        if (decoder == null) {
+            // same error handling as Charset.decode(), which jsoup uses
+            decoder =
+                    Charset.forName(charset).newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoders.put(charset, decoder);
+        } else {
+            decoder.reset();
+        }
+        return decoder;
+    }
+}
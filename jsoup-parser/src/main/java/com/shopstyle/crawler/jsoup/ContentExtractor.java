@@ -0,0 +1,380 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import org.w3c.dom.DocumentFragment;
+
+/**
+ * Collects the outlinks, their anchors and the text of the body of a jsoup document in a single
+ * traversal, optionally building the W3C DOM of {@link DOMBuilder#jsoup2HTML} at the same time.
+ * The results are the same as with <tt>select("a[href]")</tt>, <tt>link.text()</tt> and
+ * <tt>body().text()</tt>, which each walk the tree again, unless the {@link ParseBudget} of the
+ * page runs out:
+ * <ul>
+ * <li>the traversal stops after the maximum number of nodes or once the time is up, the links
+ * and the text found so far are kept</li>
+ * <li>the links found after the maximum number of links are ignored</li>
+ * <li>the text is cut at its maximum length</li>
+ * <li>the DOM is truncated as described in {@link DOMCopier}</li>
+ * </ul>
+ * The {@link SimHash} of the text can be computed as the text is collected.
+ * <p>
+ * Not thread safe. An instance can be {@link #reset} for the next document once the results of
+ * the previous one have been used, the link arrays, the text buffer and the W3C document the DOM
+ * is built in are then kept.
+ */
+class ContentExtractor implements NodeVisitor {
+
+    /** Text being accumulated for an anchor still open in the traversal */
+    private static final class OpenAnchor {
+        final Element element;
+        final int link;
+        final StringBuilder text = new StringBuilder();
+
+        OpenAnchor(Element element, int link) {
+            this.element = element;
+            this.link = link;
+        }
+    }
+
+    private final LinkAnchors links;
+
+    private final List<OpenAnchor> openAnchors = new ArrayList<OpenAnchor>(2);
+
+    private StringBuilder text = new StringBuilder();
+
+    /** null if the text isn't fingerprinted */
+    private SimHash simHash;
+
+    private boolean fingerprinting;
+
+    /** the length of the text given to the SimHash */
+    private int hashed;
+
+    /** Thrown to stop the traversal */
+    @SuppressWarnings("serial")
+    private static final class Stop extends RuntimeException {
+        Stop() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Stop STOP = new Stop();
+
+    private ParseBudget budget;
+
+    private long start;
+
+    private final EnumSet<ParseBudget.Limit> exceeded = EnumSet.noneOf(ParseBudget.Limit.class);
+
+    private int nodes;
+
+    /** The body element while it is being traversed */
+    private Element body;
+
+    private boolean bodyDone;
+
+    // DOM building, the W3C document and the namespaces are kept between documents
+    private HTMLDocumentImpl htmlDoc;
+
+    private final Map<String, String> ns = new HashMap<String, String>();
+
+    private DocumentFragment fragment;
+
+    private DOMCopier copier;
+
+    /**
+     * @param buildDOM whether to build a W3C DOM during the traversal
+     * @param maxAnchorsPerLink maximum number of anchors kept per link, 0 to skip the anchors
+     *            altogether and a negative value for no limit
+     */
+    ContentExtractor(boolean buildDOM, int maxAnchorsPerLink) {
+        this(buildDOM, maxAnchorsPerLink, ParseBudget.UNLIMITED, System.nanoTime());
+    }
+
+    /**
+     * @param budget the limits of the work done on the page
+     * @param start the value of {@link System#nanoTime()} when the page started being parsed
+     */
+    ContentExtractor(boolean buildDOM, int maxAnchorsPerLink, ParseBudget budget, long start) {
+        this(maxAnchorsPerLink);
+        reset(buildDOM, budget, start);
+    }
+
+    /**
+     * Creates an instance to be {@link #reset} before each document
+     */
+    ContentExtractor(int maxAnchorsPerLink) {
+        links = new LinkAnchors(maxAnchorsPerLink);
+        budget = ParseBudget.UNLIMITED;
+    }
+
+    /**
+     * Clears what was found in the previous document
+     *
+     * @param buildDOM whether to build a W3C DOM during the traversal
+     * @param budget the limits of the work done on the page
+     * @param start the value of {@link System#nanoTime()} when the page started being parsed
+     */
+    ContentExtractor reset(boolean buildDOM, ParseBudget budget, long start) {
+        return reset(buildDOM, false, budget, start);
+    }
+
+    /**
+     * Clears what was found in the previous document
+     *
+     * @param fingerprint whether to compute the {@link SimHash} of the text
+     */
+    ContentExtractor reset(boolean buildDOM, boolean fingerprint, ParseBudget budget, long start) {
+        this.budget = budget;
+        this.start = start;
+        links.clear();
+        openAnchors.clear();
+        if (text.capacity() > ContentDecoder.MAX_RETAINED_CHARS) {
+            text = new StringBuilder();
+        } else {
+            text.setLength(0);
+        }
+        if (fingerprint) {
+            if (simHash == null) {
+                simHash = new SimHash();
+            } else {
+                simHash.reset();
+            }
+        }
+        fingerprinting = fingerprint;
+        hashed = 0;
+        exceeded.clear();
+        nodes = 0;
+        body = null;
+        bodyDone = false;
+        if (buildDOM) {
+            if (htmlDoc == null) {
+                htmlDoc = new HTMLDocumentImpl();
+                htmlDoc.setErrorChecking(false);
+            }
+            // the fragments of the previous documents are never attached to it
+            fragment = htmlDoc.createDocumentFragment();
+            ns.clear();
+            copier = new DOMCopier(fragment, htmlDoc, ns, budget.maxDOMDepth, budget.maxDOMNodes);
+        } else {
+            fragment = null;
+            copier = null;
+        }
+        return this;
+    }
+
+    /**
+     * Traverses the document
+     */
+    ContentExtractor extract(org.jsoup.nodes.Document document) {
+        try {
+            new NodeTraversor(this).traverse(document);
+        } catch (Stop e) {
+            // the anchors still open get the text found so far
+            for (int i = openAnchors.size() - 1; i >= 0; i--) {
+                closeAnchor(openAnchors.get(i));
+            }
+            openAnchors.clear();
+        }
+        return this;
+    }
+
+    /**
+     * @return the limits of the budget which were reached
+     */
+    Set<ParseBudget.Limit> getExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * @return the absolute URLs of the links found in the document with their non-blank anchors
+     */
+    LinkAnchors getLinks() {
+        return links;
+    }
+
+    /**
+     * @return the same as <tt>document.body().text()</tt>
+     */
+    String getText() {
+        return text.toString().trim();
+    }
+
+    /**
+     * @return the fingerprint of the text, only if requested in {@link #reset}
+     */
+    long getFingerprint() {
+        hashText();
+        return simHash.fingerprint();
+    }
+
+    /**
+     * @return the number of words in the fingerprint of the text
+     */
+    int getFingerprintWords() {
+        hashText();
+        return simHash.getWords();
+    }
+
+    /**
+     * @return the DOM built during the traversal or null if it was not requested
+     */
+    DocumentFragment getFragment() {
+        return fragment;
+    }
+
+    /**
+     * @return whether the DOM had to be truncated to stay within its budget
+     */
+    boolean isDOMTruncated() {
+        return copier != null && copier.isTruncated();
+    }
+
+    @Override
+    public void head(Node node, int depth) {
+        nodes++;
+        if (budget.maxNodes >= 0 && nodes > budget.maxNodes) {
+            exceeded.add(ParseBudget.Limit.NODES);
+            throw STOP;
+        }
+        if ((nodes & 1023) == 0 && budget.isOverTime(start)) {
+            exceeded.add(ParseBudget.Limit.TIME);
+            throw STOP;
+        }
+        if (node instanceof TextNode) {
+            TextNode textNode = (TextNode) node;
+            boolean preserve = preserveWhitespace(textNode.parent());
+            if (body != null && !exceeded.contains(ParseBudget.Limit.TEXT)) {
+                appendText(text, textNode, preserve);
+                if (budget.maxTextLength >= 0 && text.length() > budget.maxTextLength) {
+                    text.setLength(budget.maxTextLength);
+                    exceeded.add(ParseBudget.Limit.TEXT);
+                }
+                if (fingerprinting) {
+                    hashText();
+                }
+            }
+            for (int i = 0; i < openAnchors.size(); i++) {
+                appendText(openAnchors.get(i).text, textNode, preserve);
+            }
+        } else if (node instanceof Element && !(node instanceof org.jsoup.nodes.Document)) {
+            Element element = (Element) node;
+            if (body == null && !bodyDone && "body".equals(element.tagName())) {
+                body = element;
+            }
+            if (element.isBlock() || element.tagName().equals("br")) {
+                if (body != null) {
+                    appendSpace(text);
+                }
+                for (int i = 0; i < openAnchors.size(); i++) {
+                    appendSpace(openAnchors.get(i).text);
+                }
+            }
+            if ("a".equals(element.tagName()) && element.hasAttr("href")) {
+                // abs:href tells jsoup to return fully qualified domains for relative urls.
+                // e.g.: /foo will resolve to http://shopstyle.com/foo
+                String targetURL = element.absUrl("href");
+                if (StringUtils.isNotBlank(targetURL) && !isOverOutlinks(targetURL)) {
+                    int link = links.add(targetURL);
+                    // no need to collect the text if it won't be kept
+                    if (links.acceptsAnchor(link)) {
+                        openAnchors.add(new OpenAnchor(element, link));
+                    }
+                }
+            }
+        }
+        if (copier != null) {
+            copier.head(node, depth);
+        }
+    }
+
+    @Override
+    public void tail(Node node, int depth) {
+        if (copier != null) {
+            copier.tail(node, depth);
+        }
+        if (!(node instanceof Element) || node instanceof org.jsoup.nodes.Document) {
+            return;
+        }
+        if (node == body) {
+            // only the first body counts, stop collecting text
+            body = null;
+            bodyDone = true;
+        }
+        int last = openAnchors.size() - 1;
+        if (last >= 0 && openAnchors.get(last).element == node) {
+            closeAnchor(openAnchors.remove(last));
+        }
+    }
+
+    /**
+     * Gives the text appended since the last call to the SimHash
+     */
+    private void hashText() {
+        simHash.update(text, hashed, text.length());
+        hashed = text.length();
+    }
+
+    private void closeAnchor(OpenAnchor anchor) {
+        String anchorText = anchor.text.toString().trim();
+        if (StringUtils.isNotBlank(anchorText)) {
+            links.addAnchor(anchor.link, anchorText);
+        }
+    }
+
+    /**
+     * @return whether the link would be one too many, the links already found are still accepted
+     */
+    private boolean isOverOutlinks(String targetURL) {
+        if (budget.maxOutlinks < 0 || links.size() < budget.maxOutlinks
+                || links.indexOf(targetURL) != -1) {
+            return false;
+        }
+        exceeded.add(ParseBudget.Limit.OUTLINKS);
+        return true;
+    }
+
+    // same as Element.text()
+
+    private static void appendText(StringBuilder accum, TextNode textNode, boolean preserve) {
+        String wholeText = textNode.getWholeText();
+        if (preserve) {
+            accum.append(wholeText);
+        } else {
+            StringUtil.appendNormalisedWhitespace(accum, wholeText, lastCharIsWhitespace(accum));
+        }
+    }
+
+    private static void appendSpace(StringBuilder accum) {
+        if (accum.length() > 0 && !lastCharIsWhitespace(accum)) {
+            accum.append(' ');
+        }
+    }
+
+    private static boolean lastCharIsWhitespace(StringBuilder sb) {
+        return sb.length() != 0 && sb.charAt(sb.length() - 1) == ' ';
+    }
+
+    private static boolean preserveWhitespace(Node node) {
+        if (node instanceof Element) {
+            Element element = (Element) node;
+            return element.tag().preserveWhitespace() || element.parent() != null
+                    && element.parent().tag().preserveWhitespace();
+        }
+        return false;
+    }
+}
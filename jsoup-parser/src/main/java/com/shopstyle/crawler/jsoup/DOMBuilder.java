@@ -35,6 +35,12 @@ import org.w3c.dom.Node;
  */
 public final class DOMBuilder {
 
+    /**
+     * Key of the user data under which the nodes returned by {@link #jsoup2View} expose the jsoup
+     * node they wrap
+     */
+    public static final String JSOUP_NODE_KEY = "org.jsoup.nodes.Node";
+
     /**
      * Restrict instantiation
      */
@@ -77,6 +83,22 @@ public final class DOMBuilder {
         return fragment;
     }
 
+    /**
+     * Returns a read-only W3C DOM view of the supplied Jsoup document. Unlike
+     * {@link #jsoup2HTML(org.jsoup.nodes.Document)} nothing is copied: the nodes of the view wrap
+     * the Jsoup nodes and are created as they are accessed. The attribute names go through the
+     * same fixups as in {@link #createDOM}, except that a namespace prefix counts as declared if
+     * it is declared anywhere in the document. Calling
+     * {@link Node#getUserData(String)} with {@link #JSOUP_NODE_KEY} on any node of the view
+     * returns the Jsoup node behind it.
+     *
+     * @param jsoupDocument The Jsoup document to wrap.
+     * @return A read-only W3C DocumentFragment.
+     */
+    public static DocumentFragment jsoup2View(org.jsoup.nodes.Document jsoupDocument) {
+        return new ViewDocument(jsoupDocument).getFragment();
+    }
+
     /**
      * The internal helper that copies content from the specified Jsoup <tt>Node</tt> into a W3C
      * {@link Node}.
@@ -86,57 +108,53 @@ public final class DOMBuilder {
      */
     public static void createDOM(org.jsoup.nodes.Node node, Node out, Document doc,
             Map<String, String> ns) {
+        createDOM(node, out, doc, ns, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
 
-        if (node instanceof org.jsoup.nodes.Document) {
+    /**
+     * Same as {@link #createDOM(org.jsoup.nodes.Node, Node, Document, Map)}, within a budget: the
+     * elements nested more than <tt>maxDepth</tt> levels below <tt>out</tt> are left out with
+     * their content and nothing is copied after <tt>maxNodes</tt> elements and text nodes. The
+     * tree is walked without recursing whatever its depth.
+     *
+     * @return false if the copy was truncated
+     */
+    public static boolean createDOM(org.jsoup.nodes.Node node, Node out, Document doc,
+            Map<String, String> ns, int maxDepth, int maxNodes) {
+        return new DOMCopier(out, doc, ns, maxDepth, maxNodes).copy(node);
+    }
 
-            org.jsoup.nodes.Document d = ((org.jsoup.nodes.Document) node);
-            for (org.jsoup.nodes.Node n : d.childNodes()) {
-                createDOM(n, out, doc, ns);
+    /**
+     * Copies the attributes of a Jsoup element to a W3C element, recording the namespace
+     * declarations in <tt>ns</tt> and fixing the names of the attributes which look like qnames
+     * with an undeclared prefix.
+     */
+    static void copyAttributes(org.jsoup.nodes.Element e, org.w3c.dom.Element _e,
+            Map<String, String> ns) {
+        for (org.jsoup.nodes.Attribute a : e.attributes()) {
+            String attName = a.getKey();
+            // omit xhtml namespace
+            if (attName.equals("xmlns")) {
+                continue;
             }
-
-        } else if (node instanceof org.jsoup.nodes.Element) {
-
-            org.jsoup.nodes.Element e = ((org.jsoup.nodes.Element) node);
-            org.w3c.dom.Element _e = doc.createElement(e.tagName());
-            out.appendChild(_e);
-            org.jsoup.nodes.Attributes atts = e.attributes();
-
-            for (org.jsoup.nodes.Attribute a : atts) {
-                String attName = a.getKey();
-                // omit xhtml namespace
-                if (attName.equals("xmlns")) {
-                    continue;
-                }
-                String attPrefix = getNSPrefix(attName);
-                if (attPrefix != null) {
-                    if (attPrefix.equals("xmlns")) {
-                        ns.put(getLocalName(attName), a.getValue());
-                    } else if (!attPrefix.equals("xml")) {
-                        String namespace = ns.get(attPrefix);
-                        if (namespace == null) {
-                            // fix attribute names looking like qnames
-                            attName = attName.replace(':', '_');
-                        }
+            String attPrefix = getNSPrefix(attName);
+            if (attPrefix != null) {
+                if (attPrefix.equals("xmlns")) {
+                    ns.put(getLocalName(attName), a.getValue());
+                } else if (!attPrefix.equals("xml")) {
+                    String namespace = ns.get(attPrefix);
+                    if (namespace == null) {
+                        // fix attribute names looking like qnames
+                        attName = attName.replace(':', '_');
                     }
                 }
-                _e.setAttribute(attName, a.getValue());
-            }
-
-            for (org.jsoup.nodes.Node n : e.childNodes()) {
-                createDOM(n, _e, doc, ns);
-            }
-
-        } else if (node instanceof org.jsoup.nodes.TextNode) {
-
-            org.jsoup.nodes.TextNode t = ((org.jsoup.nodes.TextNode) node);
-            if (!(out instanceof Document)) {
-                out.appendChild(doc.createTextNode(t.text()));
             }
+            _e.setAttribute(attName, a.getValue());
         }
     }
 
     // some hacks for handling namespace in jsoup2DOM conversion
-    private static String getNSPrefix(String name) {
+    static String getNSPrefix(String name) {
         if (name != null) {
             int pos = name.indexOf(':');
             if (pos > 0) {
@@ -146,7 +164,7 @@ public final class DOMBuilder {
         return null;
     }
 
-    private static String getLocalName(String name) {
+    static String getLocalName(String name) {
         if (name != null) {
             int pos = name.lastIndexOf(':');
             if (pos > 0) {
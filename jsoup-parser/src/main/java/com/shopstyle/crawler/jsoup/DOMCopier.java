@@ -0,0 +1,118 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.Map;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import org.w3c.dom.Document;
+
+/**
+ * Copies the elements and the text of a jsoup tree into a W3C node as the traversal goes, without
+ * recursing, so that deeply nested pages can't overflow the stack. The copy is truncated:
+ * <ul>
+ * <li>the elements more than <tt>maxDepth</tt> levels below the W3C node are left out with their
+ * content, and the copy goes on with the nodes which follow them</li>
+ * <li>nothing is copied after <tt>maxNodes</tt> elements and text nodes</li>
+ * </ul>
+ * Used by {@link DOMBuilder#createDOM} and by the {@link ContentExtractor}, which feeds it the
+ * nodes of its own traversal.
+ */
+final class DOMCopier implements NodeVisitor {
+
+    private final Document doc;
+
+    private final Map<String, String> ns;
+
+    private final int maxDepth;
+
+    private final int maxNodes;
+
+    /** where the next nodes go, null once the budget is exhausted */
+    private org.w3c.dom.Node out;
+
+    private int depth;
+
+    private int nodes;
+
+    /** the element left out of the copy while its content is traversed */
+    private Node skipped;
+
+    private boolean truncated;
+
+    DOMCopier(org.w3c.dom.Node out, Document doc, Map<String, String> ns, int maxDepth,
+            int maxNodes) {
+        this.out = out;
+        this.doc = doc;
+        this.ns = ns;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Copies the node and its content
+     *
+     * @return false if the copy was truncated
+     */
+    boolean copy(Node node) {
+        new NodeTraversor(this).traverse(node);
+        return !truncated;
+    }
+
+    /**
+     * @return whether some nodes were left out
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public void head(Node node, int nodeDepth) {
+        if (out == null || skipped != null || node instanceof org.jsoup.nodes.Document) {
+            return;
+        }
+        boolean isElement = node instanceof Element;
+        if (!isElement && !(node instanceof TextNode)) {
+            return;
+        }
+        if (nodes >= maxNodes) {
+            truncated = true;
+            out = null;
+            return;
+        }
+        if (isElement) {
+            if (depth >= maxDepth) {
+                truncated = true;
+                skipped = node;
+                return;
+            }
+            Element element = (Element) node;
+            org.w3c.dom.Element _e = doc.createElement(element.tagName());
+            out.appendChild(_e);
+            DOMBuilder.copyAttributes(element, _e, ns);
+            out = _e;
+            depth++;
+            nodes++;
+        } else if (!(out instanceof Document)) {
+            out.appendChild(doc.createTextNode(((TextNode) node).text()));
+            nodes++;
+        }
+    }
+
+    @Override
+    public void tail(Node node, int nodeDepth) {
+        if (skipped != null) {
+            if (node == skipped) {
+                skipped = null;
+            }
+            return;
+        }
+        if (out != null && node instanceof Element
+                && !(node instanceof org.jsoup.nodes.Document)) {
+            out = out.getParentNode();
+            depth--;
+        }
+    }
+}
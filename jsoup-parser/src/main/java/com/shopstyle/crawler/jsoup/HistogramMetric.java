@@ -0,0 +1,71 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Distribution of positive values such as durations or sizes, in buckets whose upper bounds are
+ * powers of two. Each report gives the number of values, their mean and maximum and an upper bound
+ * of the 50th, 95th and 99th percentiles, then resets. Thread safe.
+ */
+class HistogramMetric implements IMetric {
+
+    /** the last bucket holds anything above 2^(BUCKETS - 2) */
+    private static final int BUCKETS = 40;
+
+    private final long[] buckets = new long[BUCKETS];
+
+    private long count;
+
+    private long sum;
+
+    private long max;
+
+    synchronized void update(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        // bucket i holds the values up to 2^i
+        int bucket = value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+        buckets[Math.min(bucket, BUCKETS - 1)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    @Override
+    public synchronized Object getValueAndReset() {
+        Map<String, Object> value = new LinkedHashMap<String, Object>();
+        value.put("count", count);
+        if (count > 0) {
+            value.put("mean", sum / (double) count);
+            value.put("max", max);
+            value.put("p50", percentile(0.50));
+            value.put("p95", percentile(0.95));
+            value.put("p99", percentile(0.99));
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+        return value;
+    }
+
+    private long percentile(double p) {
+        long rank = (long) Math.ceil(count * p);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, max);
+            }
+        }
+        return max;
+    }
+}
@@ -1,14 +1,28 @@
 package com.shopstyle.crawler.jsoup;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
 import backtype.storm.metric.api.MultiCountMetric;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
@@ -25,17 +39,9 @@ import com.digitalpebble.storm.crawler.parse.Outlink;
 import com.digitalpebble.storm.crawler.parse.ParseFilter;
 import com.digitalpebble.storm.crawler.parse.ParseFilters;
 import com.digitalpebble.storm.crawler.persistence.Status;
-import com.digitalpebble.storm.crawler.protocol.HttpHeaders;
 import com.digitalpebble.storm.crawler.util.ConfUtils;
 import com.digitalpebble.storm.crawler.util.MetadataTransfer;
-import com.ibm.icu.text.CharsetDetector;
-import com.ibm.icu.text.CharsetMatch;
-
-import org.apache.commons.lang3.StringUtils;
-import org.apache.http.entity.ContentType;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.DocumentFragment;
@@ -43,8 +49,10 @@ import org.w3c.dom.DocumentFragment;
 import static com.digitalpebble.storm.crawler.Constants.StatusStreamName;
 
 /**
- * Simple parser for HTML documents which calls ParseFilters to add metadata. Does not handle
- * outlinks for now.
+ * Simple parser for HTML documents which calls ParseFilters to add metadata and sends the outlinks
+ * to the status stream. Parses the tuples in sequence, or with a pool of workers when built as
+ * <tt>asynchronous</tt> and <tt>parser.async.threads</tt> is set. The configuration keys are
+ * described in the README of the project.
  * 
  * Please use com.digitalpebble.storm.crawler.bolt.JSoupParserBolt instead
  */
@@ -55,8 +63,38 @@ public class JSoupParserBolt extends BaseRichBolt {
     /** Metadata key name for tracking the anchors */
     public static final String ANCHORS_KEY_NAME = "anchors";
 
+    /**
+     * User data key of the DOM under which the ParseFilters can leave a binary record of what they
+     * found, for the <tt>structured</tt> field
+     */
+    public static final String STRUCTURED_DATA_KEY = "com.shopstyle.crawler.structured";
+
+    /**
+     * Metadata key set to <tt>deflate</tt> when the content is sent compressed, see
+     * {@link #getContent(Tuple)}
+     */
+    public static final String CONTENT_ENCODING_KEY = "parse.content.encoding";
+
+    /** Metadata key of the {@link SimHash} of the text, in hexadecimal */
+    public static final String SIMHASH_KEY_NAME = "parse.simhash";
+
+    /** Metadata key of the URL of the page a near duplicate was found to be like */
+    public static final String NEAR_DUPLICATE_KEY_NAME = "parse.nearDuplicateOf";
+
+    /** Stream of the {@link OutlinkBatch} tuples */
+    public static final String OUTLINKS_STREAM_NAME = "outlinks";
+
     private static final Logger LOG = LoggerFactory.getLogger(JSoupParserBolt.class);
 
+    /** What is sent in the <tt>content</tt> field */
+    private enum ContentOutput {
+        RAW, NONE, DEFLATE
+    }
+
+    private final boolean emitStructuredData;
+
+    private final boolean asynchronous;
+
     private OutputCollector collector;
 
     private MultiCountMetric eventCounter;
@@ -65,18 +103,130 @@ public class JSoupParserBolt extends BaseRichBolt {
 
     private URLFilters urlFilters = null;
 
+    /** Only set if the results of the URL filters can be cached */
+    private ThreadLocal<CachingURLFilters> cachingURLFilters = null;
+
     private MetadataTransfer metadataTransfer;
 
+    private ContentCharsetDetector charsetDetector;
+
+    /** what is kept between pages by each thread */
+    private ThreadLocal<ParseContext> contexts;
+
     private boolean trackAnchors = true;
 
+    private int maxAnchorsPerLink = -1;
+
     private boolean emitOutlinks = true;
 
+    private boolean batchOutlinks = false;
+
+    /** null if disabled */
+    private RecentOutlinks recentOutlinks;
+
+    private ContentOutput contentOutput = ContentOutput.RAW;
+
+    private int deflateLevel = Deflater.BEST_SPEED;
+
+    private boolean fingerprintText = false;
+
+    /** null if disabled */
+    private NearDuplicates nearDuplicates;
+
+    private int nearDuplicateMinWords;
+
+    private boolean skipNearDuplicates = false;
+
+    private boolean useDOMView = false;
+
+    private ParseBudget budget;
+
+    /** null if disabled */
+    private ParseCache parseCache;
+
+    private HistogramMetric parseTime;
+
+    private HistogramMetric charsetTime;
+
+    private HistogramMetric jsoupTime;
+
+    private HistogramMetric extractTime;
+
+    private HistogramMetric domTime;
+
+    private HistogramMetric urlFiltersTime;
+
+    private HistogramMetric parseFiltersTime;
+
+    private HistogramMetric emitTime;
+
+    private HistogramMetric pageBytes;
+
+    private HistogramMetric outlinkCount;
+
+    private HistogramMetric tupleCount;
+
+    private HistogramMetric outputBytes;
+
+    // asynchronous mode, null otherwise
+
+    private ExecutorService workers;
+
+    private Semaphore inFlight;
+
+    private Queue<BufferedOutputCollector> completed;
+
+    public JSoupParserBolt() {
+        this(false);
+    }
+
+    /**
+     * @param emitStructuredData whether the tuples have the <tt>structured</tt> field
+     */
+    public JSoupParserBolt(boolean emitStructuredData) {
+        this(emitStructuredData, false);
+    }
+
+    /**
+     * @param asynchronous whether the bolt gets the tick tuples which send the results of the
+     *            workers when no new tuples come in, needed with <tt>parser.async.threads</tt>
+     */
+    public JSoupParserBolt(boolean emitStructuredData, boolean asynchronous) {
+        this.emitStructuredData = emitStructuredData;
+        this.asynchronous = asynchronous;
+    }
+
     @Override
     public void prepare(Map conf, TopologyContext context, OutputCollector collector) {
         this.collector = collector;
 
+        int threads = ConfUtils.getInt(conf, "parser.async.threads", 0);
+
+        // the counters get incremented by the workers in asynchronous mode
         eventCounter =
-                context.registerMetric(this.getClass().getSimpleName(), new MultiCountMetric(), 10);
+                context.registerMetric(this.getClass().getSimpleName(),
+                        threads > 0 ? new SynchronizedMultiCountMetric() : new MultiCountMetric(),
+                        10);
+
+        parseTime = context.registerMetric("parse_time", new HistogramMetric(), 10);
+
+        // durations in microseconds
+        MultiHistogramMetric stages =
+                context.registerMetric("parse_stages", new MultiHistogramMetric(), 10);
+        charsetTime = stages.scope("charset");
+        jsoupTime = stages.scope("jsoup");
+        extractTime = stages.scope("extract");
+        domTime = stages.scope("dom");
+        urlFiltersTime = stages.scope("urlfilters");
+        parseFiltersTime = stages.scope("parsefilters");
+        emitTime = stages.scope("emit");
+
+        MultiHistogramMetric sizes =
+                context.registerMetric("parse_sizes", new MultiHistogramMetric(), 10);
+        pageBytes = sizes.scope("page_bytes");
+        outlinkCount = sizes.scope("outlinks");
+        tupleCount = sizes.scope("tuples");
+        outputBytes = sizes.scope("output_bytes");
 
         parseFilters = ParseFilters.emptyParseFilter;
 
@@ -84,7 +234,12 @@ public class JSoupParserBolt extends BaseRichBolt {
                 ConfUtils.getString(conf, "parsefilters.config.file", "parsefilters.json");
         if (parseconfigfile != null) {
             try {
-                parseFilters = new ParseFilters(conf, parseconfigfile);
+                // same as ParseFilters but times each filter
+                ParseFilterChain chain = new ParseFilterChain(conf, parseconfigfile, stages);
+                for (Map.Entry<String, IMetric> metric : chain.getMetrics().entrySet()) {
+                    context.registerMetric(metric.getKey(), metric.getValue(), 10);
+                }
+                parseFilters = chain;
             } catch (IOException e) {
                 LOG.error("Exception caught while loading the ParseFilters");
                 throw new RuntimeException("Exception caught while loading the ParseFilters", e);
@@ -93,6 +248,18 @@ public class JSoupParserBolt extends BaseRichBolt {
 
         urlFilters = URLFilters.emptyURLFilters;
         emitOutlinks = ConfUtils.getBoolean(conf, "parser.emitOutlinks", true);
+        batchOutlinks = ConfUtils.getBoolean(conf, "parser.outlinks.batch", false);
+
+        long dedupBytes = ConfUtils.getLong(conf, "parser.outlinks.dedup.maxBytes", 0);
+        if (emitOutlinks && dedupBytes > 0) {
+            double falsePositiveRate =
+                    ConfUtils.getFloat(conf, "parser.outlinks.dedup.falsePositiveRate", 0.01f);
+            long ttl = ConfUtils.getLong(conf, "parser.outlinks.dedup.ttl.sec", 3600) * 1000;
+            recentOutlinks =
+                    new RecentOutlinks(dedupBytes, falsePositiveRate, ttl, eventCounter);
+            LOG.info("Remembering up to {} recent outlinks in {} bytes",
+                    recentOutlinks.getCapacity() * 2, dedupBytes);
+        }
 
         if (emitOutlinks) {
             String urlconfigfile =
@@ -106,51 +273,291 @@ public class JSoupParserBolt extends BaseRichBolt {
                     throw new RuntimeException("Exception caught while loading the URLFilters", e);
                 }
             }
+
+            // the results of the filters can only be reused if they depend
+            // on nothing else than the host of the source and the target
+            int cacheSize = ConfUtils.getInt(conf, "urlfilters.cache.size", 0);
+            if (cacheSize > 0) {
+                if (ConfUtils.getBoolean(conf, "urlfilters.metadataIndependent", false)) {
+                    final int size = cacheSize;
+                    final long ttl =
+                            ConfUtils.getLong(conf, "urlfilters.cache.ttl.sec", 3600) * 1000;
+                    // one cache per thread
+                    cachingURLFilters = new ThreadLocal<CachingURLFilters>() {
+                        @Override
+                        protected CachingURLFilters initialValue() {
+                            return new CachingURLFilters(urlFilters, size, ttl, eventCounter);
+                        }
+                    };
+                } else {
+                    LOG.warn("urlfilters.cache.size ignored, "
+                            + "urlfilters.metadataIndependent is not set");
+                }
+            }
         }
 
         trackAnchors = ConfUtils.getBoolean(conf, "track.anchors", true);
+        // negative values mean no limit
+        maxAnchorsPerLink =
+                trackAnchors ? ConfUtils.getInt(conf, "track.anchors.maxPerLink", -1) : 0;
+
+        useDOMView = ConfUtils.getBoolean(conf, "parser.dom.view", false);
+        if (parseFilters instanceof ParseFilterChain
+                && ((ParseFilterChain) parseFilters).isConcurrent() && parseFilters.needsDOM()
+                && !useDOMView) {
+            LOG.warn("The concurrent ParseFilters run in sequence unless parser.dom.view is set");
+        }
+        budget = ParseBudget.fromConf(conf);
+
+        String output = ConfUtils.getString(conf, "parser.content.output", "raw");
+        try {
+            contentOutput = ContentOutput.valueOf(output.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid parser.content.output: " + output, e);
+        }
+        deflateLevel = ConfUtils.getInt(conf, "parser.content.deflate.level", Deflater.BEST_SPEED);
+
+        int nearDuplicateHosts = ConfUtils.getInt(conf, "parser.nearDuplicates.hosts", 0);
+        if (nearDuplicateHosts > 0) {
+            nearDuplicates =
+                    new NearDuplicates(nearDuplicateHosts, ConfUtils.getInt(conf,
+                            "parser.nearDuplicates.perHost", 64), ConfUtils.getInt(conf,
+                            "parser.nearDuplicates.maxDistance", 3));
+            nearDuplicateMinWords = ConfUtils.getInt(conf, "parser.nearDuplicates.minWords", 32);
+            skipNearDuplicates = ConfUtils.getBoolean(conf, "parser.nearDuplicates.skip", false);
+        }
+        fingerprintText =
+                nearDuplicates != null || ConfUtils.getBoolean(conf, "parser.simhash", false);
 
         metadataTransfer = MetadataTransfer.getInstance(conf);
+
+        long cacheBytes = ConfUtils.getLong(conf, "parser.cache.maxBytes", 0);
+        if (cacheBytes > 0) {
+            parseCache = context.registerMetric("parse_cache", new ParseCache(cacheBytes), 10);
+        }
+
+        charsetDetector = new ContentCharsetDetector(conf, eventCounter);
+
+        final int anchorsPerLink = maxAnchorsPerLink;
+        contexts = new ThreadLocal<ParseContext>() {
+            @Override
+            protected ParseContext initialValue() {
+                return new ParseContext(anchorsPerLink);
+            }
+        };
+
+        if (threads > 0) {
+            if (!asynchronous) {
+                LOG.warn("The bolt isn't built as asynchronous, without tick tuples the results "
+                        + "of the workers are only sent when new tuples come in");
+            }
+            int maxInFlight = ConfUtils.getInt(conf, "parser.async.maxInFlight", threads * 2);
+            inFlight = new Semaphore(maxInFlight);
+            completed = new ConcurrentLinkedQueue<BufferedOutputCollector>();
+            workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread =
+                            new Thread(runnable, "JSoupParserBolt-worker-"
+                                    + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            LOG.info("Parsing asynchronously with {} threads and at most {} tuples in flight",
+                    threads, maxInFlight);
+        }
     }
 
     @Override
-    public void execute(Tuple tuple) {
+    public Map<String, Object> getComponentConfiguration() {
+        if (!asynchronous) {
+            return null;
+        }
+        // ticks make sure that the asynchronous results get sent
+        // even when no new tuples come in
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+        return conf;
+    }
+
+    @Override
+    public void cleanup() {
+        if (workers == null) {
+            return;
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sendCompleted();
+    }
+
+    @Override
+    public void execute(final Tuple tuple) {
+        if (isTickTuple(tuple)) {
+            if (workers != null) {
+                sendCompleted();
+            }
+            return;
+        }
+
+        if (workers == null) {
+            process(tuple, collector);
+            return;
+        }
+
+        sendCompleted();
+
+        // backpressure: wait until there is room for another tuple,
+        // sending the results which come in meanwhile
+        try {
+            while (!inFlight.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                sendCompleted();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            collector.fail(tuple);
+            return;
+        }
+
+        final BufferedOutputCollector buffer = new BufferedOutputCollector();
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                OutputCollector bufferedCollector = new OutputCollector(buffer);
+                try {
+                    process(tuple, bufferedCollector);
+                } catch (Throwable e) {
+                    LOG.error("Exception while processing " + tuple, e);
+                    bufferedCollector.reportError(e);
+                    // acking or failing it twice would confuse the acker
+                    if (!buffer.isAckedOrFailed(tuple)) {
+                        bufferedCollector.fail(tuple);
+                    }
+                } finally {
+                    completed.add(buffer);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replays the emits and acks of the tuples processed by the workers, on the executor thread
+     */
+    private void sendCompleted() {
+        BufferedOutputCollector buffer;
+        while ((buffer = completed.poll()) != null) {
+            buffer.replay(collector);
+            inFlight.release();
+        }
+    }
+
+    private static boolean isTickTuple(Tuple tuple) {
+        return backtype.storm.Constants.SYSTEM_COMPONENT_ID.equals(tuple.getSourceComponent())
+                && backtype.storm.Constants.SYSTEM_TICK_STREAM_ID.equals(tuple
+                        .getSourceStreamId());
+    }
+
+    private void process(Tuple tuple, OutputCollector collector) {
+        ParseContext context = contexts.get();
+        try {
+            process(tuple, collector, context);
+        } finally {
+            context.release();
+        }
+    }
+
+    private void process(Tuple tuple, OutputCollector collector, ParseContext context) {
 
         byte[] content = tuple.getBinaryByField("content");
         String url = tuple.getStringByField("url");
         Metadata metadata = (Metadata) tuple.getValueByField("metadata");
 
-        long start = System.currentTimeMillis();
+        pageBytes.update(content.length);
+
+        ParseCache.Key cacheKey = null;
+        if (parseCache != null) {
+            cacheKey = ParseCache.key(url, content);
+            CachedParse cached = parseCache.get(cacheKey);
+            if (cached != null) {
+                emitCached(tuple, collector, context, url, content, metadata, cached);
+                return;
+            }
+        }
 
-        String charset = getContentCharset(content, metadata);
+        long start = System.nanoTime();
 
-        Map<String, List<String>> slinks;
+        String charset = charsetDetector.getCharset(content, metadata, context);
+        long mark = timeStage(charsetTime, start);
+
+        LinkAnchors links;
         String text;
-        DocumentFragment fragment;
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(content)) {
-            org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(bais, charset, url);
-            fragment = DOMBuilder.jsoup2HTML(jsoupDoc);
-
-            Elements links = jsoupDoc.select("a[href]");
-            slinks = new HashMap<String, List<String>>(links.size());
-            for (Element link : links) {
-                // abs:href tells jsoup to return fully qualified domains for relative urls.
-                // e.g.: /foo will resolve to http://shopstyle.com/foo
-                String targetURL = link.attr("abs:href");
-                String anchor = link.text();
-                if (StringUtils.isNotBlank(targetURL)) {
-                    List<String> anchors = slinks.get(targetURL);
-                    if (anchors == null) {
-                        anchors = new LinkedList<String>();
-                        slinks.put(targetURL, anchors);
-                    }
-                    if (StringUtils.isNotBlank(anchor)) {
-                        anchors.add(anchor);
+        long fingerprint = 0;
+        int fingerprintWords = 0;
+        DocumentFragment fragment = null;
+        try {
+            int length = content.length;
+            if (budget.maxContentBytes >= 0 && length > budget.maxContentBytes) {
+                length = budget.maxContentBytes;
+                eventCounter.scope(ParseBudget.Limit.CONTENT_BYTES.counterName()).incr();
+            }
+            org.jsoup.nodes.Document jsoupDoc =
+                    context.getDecoder().parse(content, length, charset, url);
+            mark = timeStage(jsoupTime, mark);
+
+            if (budget.isOverTime(start)) {
+                failOverTime(tuple, collector, url, metadata);
+                return;
+            }
+
+            // only copy the jsoup tree into a W3C DOM if one of the
+            // filters is going to look at it
+            boolean needsDOM = parseFilters.needsDOM();
+
+            // collect the links, their anchors and the text in a single
+            // pass, copying the DOM at the same time if needed
+            ContentExtractor extractor =
+                    context.getExtractor(needsDOM && !useDOMView, fingerprintText, budget, start)
+                            .extract(jsoupDoc);
+            mark = timeStage(extractTime, mark);
+
+            for (ParseBudget.Limit limit : extractor.getExceeded()) {
+                if (limit != ParseBudget.Limit.TIME) {
+                    eventCounter.scope(limit.counterName()).incr();
+                }
+            }
+            if (extractor.getExceeded().contains(ParseBudget.Limit.TIME)) {
+                failOverTime(tuple, collector, url, metadata);
+                return;
+            }
+
+            if (needsDOM) {
+                if (useDOMView) {
+                    // read-only view, nothing gets copied
+                    fragment = DOMBuilder.jsoup2View(jsoupDoc);
+                    mark = timeStage(domTime, mark);
+                } else {
+                    fragment = extractor.getFragment();
+                    if (extractor.isDOMTruncated()) {
+                        eventCounter.scope("dom_truncated").incr();
                     }
                 }
+                eventCounter.scope("dom_built").incr();
+            } else {
+                eventCounter.scope("dom_skipped").incr();
             }
 
-            text = jsoupDoc.body().text();
+            links = extractor.getLinks();
+            text = extractor.getText();
+            if (fingerprintText) {
+                fingerprint = extractor.getFingerprint();
+                fingerprintWords = extractor.getFingerprintWords();
+            }
 
         } catch (Throwable e) {
             String errorMessage = "Exception while parsing " + url + ": " + e;
@@ -168,15 +575,36 @@ public class JSoupParserBolt extends BaseRichBolt {
             return;
         }
 
-        long duration = System.currentTimeMillis() - start;
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        parseTime.update(duration);
 
-        LOG.info("Parsed {} in {} msec", url, duration);
+        LOG.debug("Parsed {} in {} msec", url, duration);
 
-        List<Outlink> outlinks = toOutlinks(url, metadata, slinks);
+        mark = System.nanoTime();
+        List<Outlink> outlinks = toOutlinks(url, metadata, links);
+        mark = timeStage(urlFiltersTime, mark);
+        outlinkCount.update(outlinks.size());
+
+        // what the filters change is kept with the cached page
+        Map<String, String[]> unfiltered =
+                cacheKey != null ? CachedParse.snapshot(metadata) : null;
+
+        if (fingerprintText) {
+            metadata.setValue(SIMHASH_KEY_NAME, String.format("%016x", fingerprint));
+            if (skipNearDuplicate(tuple, collector, url, metadata, fingerprint, fingerprintWords)) {
+                return;
+            }
+            String[] original = metadata.getValues(NEAR_DUPLICATE_KEY_NAME);
+            if (unfiltered != null && original != null) {
+                // depends on the other pages, checked again when the page is found in the cache
+                unfiltered.put(NEAR_DUPLICATE_KEY_NAME, original.clone());
+            }
+        }
 
         // apply the parse filters if any
         try {
             parseFilters.filter(url, content, fragment, metadata, outlinks);
+            mark = timeStage(parseFiltersTime, mark);
         } catch (RuntimeException e) {
             String errorMessage = "Exception while running parse filters on " + url + ": " + e;
             LOG.error(errorMessage);
@@ -191,63 +619,310 @@ public class JSoupParserBolt extends BaseRichBolt {
             return;
         }
 
-        if (emitOutlinks) {
+        Object structured = null;
+        if (emitStructuredData && fragment != null) {
+            structured = fragment.getUserData(STRUCTURED_DATA_KEY);
+        }
+        text = text.trim();
+
+        if (cacheKey != null && (structured == null || structured instanceof byte[])) {
+            try {
+                parseCache.put(cacheKey, CachedParse.write(text, fingerprint, fingerprintWords,
+                        unfiltered, metadata, outlinks, (byte[]) structured, ANCHORS_KEY_NAME));
+            } catch (IOException e) {
+                LOG.warn("Could not cache the parse of {}: {}", url, e.getMessage());
+            }
+        }
+
+        emit(tuple, collector, context, url, content, metadata, text, outlinks, structured);
+        timeStage(emitTime, mark);
+    }
+
+    /**
+     * Sends a page found in the cache, as it was sent when it got parsed
+     */
+    private void emitCached(Tuple tuple, OutputCollector collector, ParseContext context,
+            String url, byte[] content, Metadata metadata, CachedParse cached) {
+        long mark = System.nanoTime();
+
+        // the outlinks get the metadata of the page before the filters
+        List<Outlink> outlinks = new ArrayList<Outlink>(cached.getOutlinks().size());
+        for (CachedParse.Link link : cached.getOutlinks()) {
+            Metadata linkMetadata = metadataTransfer.getMetaForOutlink(link.target, url, metadata);
+            Outlink ol = new Outlink(link.target);
+            if (!link.anchors.isEmpty()) {
+                linkMetadata.addValues(ANCHORS_KEY_NAME, link.anchors);
+            }
+            ol.setAnchor(link.anchor);
+            ol.setMetadata(linkMetadata);
+            outlinks.add(ol);
+        }
+        outlinkCount.update(outlinks.size());
+
+        // not cached as it depends on the pages seen since
+        if (fingerprintText) {
+            metadata.setValue(SIMHASH_KEY_NAME, String.format("%016x", cached.getFingerprint()));
+            if (skipNearDuplicate(tuple, collector, url, metadata, cached.getFingerprint(),
+                    cached.getWords())) {
+                return;
+            }
+        }
+        cached.applyTo(metadata);
+
+        emit(tuple, collector, context, url, content, metadata, cached.getText(), outlinks,
+                cached.getStructured());
+        timeStage(emitTime, mark);
+    }
+
+    private void emit(Tuple tuple, OutputCollector collector, ParseContext context, String url,
+            byte[] content, Metadata metadata, String text, List<Outlink> outlinks,
+            Object structured) {
+        if (emitOutlinks && recentOutlinks != null) {
+            outlinks = dropRecent(outlinks);
+        }
+
+        int tuples = 1;
+        if (emitOutlinks && batchOutlinks) {
+            if (emitBatch(tuple, collector, url, metadata, outlinks)) {
+                tuples++;
+            }
+        } else if (emitOutlinks) {
             for (Outlink outlink : outlinks) {
                 collector
                         .emit(StatusStreamName, tuple,
                                 new Values(outlink.getTargetURL(), outlink.getMetadata(),
                                         Status.DISCOVERED));
             }
+            tuples += outlinks.size();
         }
 
-        collector.emit(tuple, new Values(url, content, metadata, text.trim()));
+        byte[] output = encodeContent(context, content, metadata);
+        if (emitStructuredData) {
+            collector.emit(tuple, new Values(url, output, metadata, text, structured));
+        } else {
+            collector.emit(tuple, new Values(url, output, metadata, text));
+        }
         collector.ack(tuple);
+        tupleCount.update(tuples);
+        outputBytes.update(utf8Length(url) + (output != null ? output.length : 0)
+                + metadataLength(metadata) + utf8Length(text)
+                + (structured instanceof byte[] ? ((byte[]) structured).length : 0));
         eventCounter.scope("tuple_success").incr();
     }
 
+    /**
+     * Flags the page if it is a near duplicate of a recent page of the same host, and sends it to
+     * the status stream when <tt>parser.nearDuplicates.skip</tt> is set
+     * 
+     * @return whether the page was sent
+     */
+    private boolean skipNearDuplicate(Tuple tuple, OutputCollector collector, String url,
+            Metadata metadata, long fingerprint, int words) {
+        if (nearDuplicates == null || words < nearDuplicateMinWords) {
+            return false;
+        }
+        String original = findNearDuplicate(url, fingerprint);
+        if (original == null) {
+            return false;
+        }
+        metadata.setValue(NEAR_DUPLICATE_KEY_NAME, original);
+        eventCounter.scope("near_duplicate").incr();
+        if (!skipNearDuplicates) {
+            return false;
+        }
+        // fetched, but neither filtered nor indexed
+        collector.emit(StatusStreamName, tuple, new Values(url, metadata, Status.FETCHED));
+        collector.ack(tuple);
+        eventCounter.scope("near_duplicate_skipped").incr();
+        return true;
+    }
 
-    @Override
-    public void declareOutputFields(OutputFieldsDeclarer declarer) {
-        // output of this module is the list of fields to index
-        // with at least the URL, text content
-        declarer.declare(new Fields("url", "content", "metadata", "text"));
-        declarer.declareStream(StatusStreamName, new Fields("url", "metadata", "status"));
+    /**
+     * @return the URL of a recent page of the same host with nearly the same text, null if none
+     */
+    private String findNearDuplicate(String url, long fingerprint) {
+        String host;
+        try {
+            host = new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        return nearDuplicates.find(host, url, fingerprint);
     }
 
-    private String getContentCharset(byte[] content, Metadata metadata) {
-        String charset = null;
+    /**
+     * @return the content as configured with <tt>parser.content.output</tt>
+     */
+    private byte[] encodeContent(ParseContext context, byte[] content, Metadata metadata) {
+        byte[] output;
+        switch (contentOutput) {
+        case NONE:
+            output = null;
+            break;
+        case DEFLATE:
+            output = context.deflate(content, deflateLevel);
+            metadata.setValue(CONTENT_ENCODING_KEY, "deflate");
+            break;
+        default:
+            return content;
+        }
+        eventCounter.scope("content_bytes_saved").incrBy(
+                content.length - (output != null ? output.length : 0));
+        return output;
+    }
+
+    /**
+     * @param tuple from the default stream of the bolt
+     * @return the content of the page as fetched, null if it isn't sent
+     * @throws IOException if the compressed content is invalid
+     */
+    public static byte[] getContent(Tuple tuple) throws IOException {
+        byte[] content = tuple.getBinaryByField("content");
+        Metadata metadata = (Metadata) tuple.getValueByField("metadata");
+        if (content == null || !"deflate".equals(metadata.getFirstValue(CONTENT_ENCODING_KEY))) {
+            return content;
+        }
+        return inflate(content);
+    }
 
-        // check if the server specified a charset
-        String specifiedContentType = metadata.getFirstValue(HttpHeaders.CONTENT_TYPE);
+    static byte[] inflate(byte[] content) throws IOException {
+        Inflater inflater = new Inflater();
         try {
-            if (specifiedContentType != null) {
-                ContentType parsedContentType = ContentType.parse(specifiedContentType);
-                charset = parsedContentType.getCharset().name();
+            inflater.setInput(content);
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream(content.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && !inflater.finished()
+                        && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated content");
+                }
+                inflated.write(buffer, 0, length);
             }
-        } catch (Exception e) {
-            charset = null;
+            return inflated.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid content", e);
+        } finally {
+            inflater.end();
         }
+    }
 
-        // filter HTML tags
-        CharsetDetector detector = new CharsetDetector();
-        detector.enableInputFilter(true);
-        // give it a hint
-        detector.setDeclaredEncoding(charset);
-        detector.setText(content);
-        try {
-            CharsetMatch charsetMatch = detector.detect();
-            if (charsetMatch != null) {
-                charset = charsetMatch.getName();
+    /**
+     * @return about the number of bytes the metadata takes in a tuple
+     */
+    private static int metadataLength(Metadata metadata) {
+        int length = 0;
+        for (String key : metadata.keySet()) {
+            length += utf8Length(key);
+            String[] values = metadata.getValues(key);
+            if (values != null) {
+                for (String value : values) {
+                    length += utf8Length(value);
+                }
+            }
+        }
+        return length;
+    }
+
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                // 3 bytes, or 4 for the surrogate pairs which are 2 chars
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the outlinks which haven't been sent recently
+     */
+    private List<Outlink> dropRecent(List<Outlink> outlinks) {
+        List<Outlink> kept = new ArrayList<Outlink>(outlinks.size());
+        for (Outlink outlink : outlinks) {
+            if (recentOutlinks.seen(outlink.getTargetURL())) {
+                eventCounter.scope("outlink_suppressed").incr();
+            } else {
+                kept.add(outlink);
             }
-        } catch (Exception e) {
-            // ignore and leave the charset as-is
         }
-        return charset;
+        return kept;
     }
 
-    private List<Outlink> toOutlinks(String url, Metadata metadata, Map<String, List<String>> slinks) {
-        List<Outlink> outlinks = new LinkedList<Outlink>();
-        URL sourceUrl;
+    /**
+     * Sends the outlinks in a single tuple, if there are any
+     * 
+     * @return whether a tuple was sent
+     */
+    private boolean emitBatch(Tuple tuple, OutputCollector collector, String url,
+            Metadata metadata, List<Outlink> outlinks) {
+        if (outlinks.isEmpty()) {
+            return false;
+        }
+        // what the standard transfer gives to every outlink, whatever the target
+        Metadata inherited = metadataTransfer.getMetaForOutlink(url, url, metadata);
+        byte[] batch;
+        try {
+            batch = OutlinkBatch.write(inherited, outlinks);
+        } catch (IOException e) {
+            // written in memory, can't happen
+            throw new IllegalStateException(e);
+        }
+        collector.emit(OUTLINKS_STREAM_NAME, tuple, new Values(url, inherited, batch));
+        eventCounter.scope("outlink_batches").incr();
+        return true;
+    }
+
+    /**
+     * Sends a page which took longer than its budget to the status stream
+     */
+    private void failOverTime(Tuple tuple, OutputCollector collector, String url,
+            Metadata metadata) {
+        String errorMessage =
+                "Parsing " + url + " took more than "
+                        + TimeUnit.NANOSECONDS.toMillis(budget.maxTimeNanos) + " msec";
+        LOG.error(errorMessage);
+        metadata.setValue(Constants.STATUS_ERROR_SOURCE, "parse budget");
+        metadata.setValue(Constants.STATUS_ERROR_MESSAGE, errorMessage);
+        collector.emit(StatusStreamName, tuple, new Values(url, metadata, Status.ERROR));
+        collector.ack(tuple);
+        eventCounter.scope(ParseBudget.Limit.TIME.counterName()).incr();
+    }
+
+    /**
+     * Records the microseconds elapsed since <tt>start</tt>
+     * 
+     * @return the current value of {@link System#nanoTime()}
+     */
+    private static long timeStage(HistogramMetric histogram, long start) {
+        long now = System.nanoTime();
+        histogram.update((now - start) / 1000);
+        return now;
+    }
+
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        // output of this module is the list of fields to index
+        // with at least the URL, text content
+        if (emitStructuredData) {
+            declarer.declare(new Fields("url", "content", "metadata", "text", "structured"));
+        } else {
+            declarer.declare(new Fields("url", "content", "metadata", "text"));
+        }
+        declarer.declareStream(StatusStreamName, new Fields("url", "metadata", "status"));
+        declarer.declareStream(OUTLINKS_STREAM_NAME, new Fields("url", "metadata", "outlinks"));
+    }
+
+    private List<Outlink> toOutlinks(String url, final Metadata metadata, LinkAnchors links) {
+        final URL sourceUrl;
         try {
             sourceUrl = new URL(url);
         } catch (MalformedURLException e) {
@@ -255,41 +930,47 @@ public class JSoupParserBolt extends BaseRichBolt {
             // the URL is valid
             LOG.error("MalformedURLException on {}", url);
             eventCounter.scope("error_invalid_source_url").incrBy(1);
-            return outlinks;
+            return new ArrayList<Outlink>(0);
         }
 
-        Map<String, List<String>> linksKept = new HashMap<String, List<String>>();
-
-        for (Map.Entry<String, List<String>> linkEntry : slinks.entrySet()) {
-            String targetURL = linkEntry.getKey();
-            // filter the urls
-            if (urlFilters != null) {
-                targetURL = urlFilters.filter(sourceUrl, metadata, targetURL);
-                if (targetURL == null) {
-                    eventCounter.scope("outlink_filtered").incr();
-                    continue;
+        // filter the urls, links normalised to the same target are merged
+        if (urlFilters != null) {
+            links.filter(new LinkAnchors.TargetFilter() {
+                @Override
+                public String filter(String targetURL) {
+                    String filtered;
+                    if (cachingURLFilters != null) {
+                        filtered = cachingURLFilters.get().filter(sourceUrl, metadata, targetURL);
+                    } else {
+                        filtered = urlFilters.filter(sourceUrl, metadata, targetURL);
+                    }
+                    if (filtered == null) {
+                        eventCounter.scope("outlink_filtered").incr();
+                    } else {
+                        eventCounter.scope("outlink_kept").incr();
+                    }
+                    return filtered;
                 }
-            }
-            // the link has survived the various filters
-            if (targetURL != null) {
-                List<String> anchors = linkEntry.getValue();
-                linksKept.put(targetURL, anchors);
-                eventCounter.scope("outlink_kept").incr();
-            }
+            });
+        } else {
+            eventCounter.scope("outlink_kept").incrBy(links.count());
         }
 
-        for (String outlink : linksKept.keySet()) {
+        // only the links which have survived the filters get their metadata
+        List<Outlink> outlinks = new ArrayList<Outlink>(links.count());
+        for (int link = 0; link < links.size(); link++) {
+            String outlink = links.getTarget(link);
+            if (outlink == null) {
+                continue;
+            }
             // configure which metadata gets inherited from parent
             Metadata linkMetadata = metadataTransfer.getMetaForOutlink(outlink, url, metadata);
             Outlink ol = new Outlink(outlink);
             // add the anchors to the metadata?
-            if (trackAnchors) {
-                List<String> anchors = linksKept.get(outlink);
-                if (anchors.size() > 0) {
-                    linkMetadata.addValues(ANCHORS_KEY_NAME, anchors);
-                    // sets the first anchor
-                    ol.setAnchor(anchors.get(0));
-                }
+            if (trackAnchors && links.getAnchorCount(link) > 0) {
+                linkMetadata.addValues(ANCHORS_KEY_NAME, links.getAnchors(link));
+                // sets the first anchor
+                ol.setAnchor(links.getFirstAnchor(link));
             }
             ol.setMetadata(linkMetadata);
             outlinks.add(ol);
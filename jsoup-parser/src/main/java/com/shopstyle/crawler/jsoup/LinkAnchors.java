@@ -0,0 +1,320 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outlinks of a page and their anchors, in the order in which they were first found. Targets
+ * are deduplicated with an open addressing table over the link indices and the anchors of all the
+ * links share one array, chained per link, so that a page with thousands of links only allocates a
+ * handful of arrays instead of a map entry and a list per link.
+ * <p>
+ * Links are identified by their index, which is stable. Removed links keep their index and have a
+ * null target. The arrays are kept by {@link #clear()} unless they grew too large, so that an
+ * instance can be reused for the next page.
+ */
+final class LinkAnchors {
+
+    /** Rewrites the target of a link, returns null to remove the link */
+    interface TargetFilter {
+        String filter(String target);
+    }
+
+    private static final int FREE = 0;
+
+    private static final int DELETED = -1;
+
+    /** Arrays with more links or anchors than this are not kept by {@link #clear()} */
+    static final int MAX_RETAINED_LINKS = 4096;
+
+    private final int maxAnchorsPerLink;
+
+    // links
+    private String[] targets = new String[16];
+
+    private int[] anchorHead = new int[16];
+
+    private int[] anchorTail = new int[16];
+
+    private int[] anchorCount = new int[16];
+
+    private int size;
+
+    private int live;
+
+    // table of link index + 1, or FREE or DELETED
+    private int[] slots = new int[32];
+
+    private int usedSlots;
+
+    // anchors
+    private String[] anchors = new String[16];
+
+    private int[] anchorNext = new int[16];
+
+    private int anchorsSize;
+
+    /**
+     * @param maxAnchorsPerLink maximum number of anchors kept per link, a negative value means no
+     *            limit
+     */
+    LinkAnchors(int maxAnchorsPerLink) {
+        this.maxAnchorsPerLink = maxAnchorsPerLink;
+    }
+
+    /**
+     * Removes all the links
+     */
+    void clear() {
+        if (targets.length > MAX_RETAINED_LINKS) {
+            targets = new String[16];
+            anchorHead = new int[16];
+            anchorTail = new int[16];
+            anchorCount = new int[16];
+            slots = new int[32];
+        } else {
+            Arrays.fill(targets, 0, size, null);
+            Arrays.fill(slots, FREE);
+        }
+        if (anchors.length > MAX_RETAINED_LINKS) {
+            anchors = new String[16];
+            anchorNext = new int[16];
+        } else {
+            Arrays.fill(anchors, 0, anchorsSize, null);
+        }
+        size = 0;
+        live = 0;
+        usedSlots = 0;
+        anchorsSize = 0;
+    }
+
+    /**
+     * @return the index of the link for this target, -1 if it is not known
+     */
+    int indexOf(String target) {
+        return find(target);
+    }
+
+    /**
+     * @return the index of the link for this target, added if it is not already known
+     */
+    int add(String target) {
+        int link = find(target);
+        if (link != -1) {
+            return link;
+        }
+        if (size == targets.length) {
+            int capacity = size * 2;
+            targets = Arrays.copyOf(targets, capacity);
+            anchorHead = Arrays.copyOf(anchorHead, capacity);
+            anchorTail = Arrays.copyOf(anchorTail, capacity);
+            anchorCount = Arrays.copyOf(anchorCount, capacity);
+        }
+        link = size++;
+        live++;
+        targets[link] = target;
+        anchorHead[link] = -1;
+        anchorTail[link] = -1;
+        anchorCount[link] = 0;
+        index(link);
+        return link;
+    }
+
+    /**
+     * Adds an anchor to a link unless it already has the maximum number of anchors
+     */
+    void addAnchor(int link, String anchor) {
+        if (!acceptsAnchor(link)) {
+            return;
+        }
+        if (anchorsSize == anchors.length) {
+            anchors = Arrays.copyOf(anchors, anchorsSize * 2);
+            anchorNext = Arrays.copyOf(anchorNext, anchorsSize * 2);
+        }
+        int a = anchorsSize++;
+        anchors[a] = anchor;
+        anchorNext[a] = -1;
+        appendAnchor(link, a);
+    }
+
+    /**
+     * @return whether an anchor added to the link would be kept
+     */
+    boolean acceptsAnchor(int link) {
+        return maxAnchorsPerLink < 0 || anchorCount[link] < maxAnchorsPerLink;
+    }
+
+    /**
+     * @return the number of link indices, including the removed links
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of links which have not been removed
+     */
+    int count() {
+        return live;
+    }
+
+    /**
+     * @return the target of the link or null if it has been removed
+     */
+    String getTarget(int link) {
+        return targets[link];
+    }
+
+    int getAnchorCount(int link) {
+        return anchorCount[link];
+    }
+
+    /**
+     * @return the first anchor of the link or null if it has none
+     */
+    String getFirstAnchor(int link) {
+        int head = anchorHead[link];
+        return head == -1 ? null : anchors[head];
+    }
+
+    List<String> getAnchors(int link) {
+        if (anchorCount[link] == 0) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<String>(anchorCount[link]);
+        for (int a = anchorHead[link]; a != -1; a = anchorNext[a]) {
+            list.add(anchors[a]);
+        }
+        return list;
+    }
+
+    /**
+     * Passes the targets through the filter in order, removing the links for which it returns
+     * null. Links which end up with the same target are merged into the first one, its anchors
+     * followed by those of the others up to the maximum per link.
+     */
+    void filter(TargetFilter filter) {
+        for (int i = 0; i < size; i++) {
+            String target = targets[i];
+            if (target == null) {
+                continue;
+            }
+            String filtered = filter.filter(target);
+            // unchanged, unless a previous link took the same target
+            if (target.equals(filtered) && find(target) == i) {
+                continue;
+            }
+            unindex(i);
+            if (filtered == null) {
+                remove(i);
+                continue;
+            }
+            int other = find(filtered);
+            if (other == -1) {
+                targets[i] = filtered;
+                index(i);
+            } else if (other < i) {
+                // already filtered, merge into it
+                for (int a = anchorHead[i]; a != -1 && acceptsAnchor(other);) {
+                    int next = anchorNext[a];
+                    anchorNext[a] = -1;
+                    appendAnchor(other, a);
+                    a = next;
+                }
+                remove(i);
+            } else {
+                // not filtered yet, it doesn't need to be found by its target anymore
+                unindex(other);
+                targets[i] = filtered;
+                index(i);
+            }
+        }
+    }
+
+    private void remove(int link) {
+        targets[link] = null;
+        anchorHead[link] = -1;
+        anchorTail[link] = -1;
+        anchorCount[link] = 0;
+        live--;
+    }
+
+    private void appendAnchor(int link, int anchor) {
+        if (anchorTail[link] == -1) {
+            anchorHead[link] = anchor;
+        } else {
+            anchorNext[anchorTail[link]] = anchor;
+        }
+        anchorTail[link] = anchor;
+        anchorCount[link]++;
+    }
+
+    // open addressing with linear probing
+
+    private static int hash(String target) {
+        int h = target.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int find(String target) {
+        int mask = slots.length - 1;
+        for (int s = hash(target) & mask;; s = (s + 1) & mask) {
+            int slot = slots[s];
+            if (slot == FREE) {
+                return -1;
+            }
+            if (slot != DELETED && target.equals(targets[slot - 1])) {
+                return slot - 1;
+            }
+        }
+    }
+
+    private void index(int link) {
+        if ((usedSlots + 1) * 2 > slots.length) {
+            rehash();
+        }
+        int mask = slots.length - 1;
+        int s = hash(targets[link]) & mask;
+        while (slots[s] != FREE && slots[s] != DELETED) {
+            s = (s + 1) & mask;
+        }
+        if (slots[s] == FREE) {
+            usedSlots++;
+        }
+        slots[s] = link + 1;
+    }
+
+    private void unindex(int link) {
+        int mask = slots.length - 1;
+        for (int s = hash(targets[link]) & mask; slots[s] != FREE; s = (s + 1) & mask) {
+            if (slots[s] == link + 1) {
+                slots[s] = DELETED;
+                return;
+            }
+        }
+    }
+
+    private void rehash() {
+        int[] old = slots;
+        int capacity = old.length;
+        // only grow if the deleted slots don't make enough room
+        if (live * 4 > capacity) {
+            capacity *= 2;
+        }
+        slots = new int[capacity];
+        usedSlots = 0;
+        int mask = capacity - 1;
+        for (int slot : old) {
+            if (slot != FREE && slot != DELETED) {
+                int s = hash(targets[slot - 1]) & mask;
+                while (slots[s] != FREE) {
+                    s = (s + 1) & mask;
+                }
+                slots[s] = slot;
+                usedSlots++;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Set of {@link HistogramMetric} by key, the histogram equivalent of
+ * {@link backtype.storm.metric.api.MultiCountMetric}. Thread safe.
+ */
+class MultiHistogramMetric implements IMetric {
+
+    private final Map<String, HistogramMetric> histograms = new HashMap<String, HistogramMetric>();
+
+    synchronized HistogramMetric scope(String key) {
+        HistogramMetric histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new HistogramMetric();
+            histograms.put(key, histogram);
+        }
+        return histogram;
+    }
+
+    @Override
+    public synchronized Object getValueAndReset() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (Map.Entry<String, HistogramMetric> entry : histograms.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValueAndReset());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,85 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@link SimHash} fingerprints of the last pages of each host, to find the pages which
+ * nearly have the same text as one of them: the colour and size variants of a product, the same
+ * page with a session in its URL... The hosts are kept in a LRU map with a maximum size, and for
+ * each of them the last <tt>perHost</tt> fingerprints which weren't near duplicates.
+ * <p>
+ * Thread safe.
+ */
+class NearDuplicates {
+
+    /** The fingerprints of a host, in a ring */
+    private static final class Host {
+        final long[] fingerprints;
+        final String[] urls;
+        int next;
+
+        Host(int size) {
+            fingerprints = new long[size];
+            urls = new String[size];
+        }
+    }
+
+    private final int perHost;
+
+    private final int maxDistance;
+
+    private final Map<String, Host> hosts;
+
+    /**
+     * @param maxHosts the number of hosts kept
+     * @param perHost the number of fingerprints kept per host
+     * @param maxDistance the number of bits by which the fingerprints of near duplicates can
+     *            differ
+     */
+    NearDuplicates(final int maxHosts, int perHost, int maxDistance) {
+        this.perHost = perHost;
+        this.maxDistance = maxDistance;
+        this.hosts = new LinkedHashMap<String, Host>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Host> eldest) {
+                return size() > maxHosts;
+            }
+        };
+    }
+
+    /**
+     * Remembers the fingerprint of the page unless it is a near duplicate. The fingerprint of a
+     * page already known is replaced, even if it changed a lot.
+     *
+     * @return the URL of another page of the same host it is a near duplicate of, null if none
+     */
+    synchronized String find(String host, String url, long fingerprint) {
+        Host known = hosts.get(host);
+        if (known == null) {
+            known = new Host(perHost);
+            hosts.put(host, known);
+        }
+        // the same page fetched again
+        int self = -1;
+        for (int i = 0; i < perHost && known.urls[i] != null; i++) {
+            if (known.urls[i].equals(url)) {
+                known.fingerprints[i] = fingerprint;
+                self = i;
+                break;
+            }
+        }
+        for (int i = 0; i < perHost && known.urls[i] != null; i++) {
+            if (i != self && SimHash.distance(fingerprint, known.fingerprints[i]) <= maxDistance) {
+                return known.urls[i];
+            }
+        }
+        if (self == -1) {
+            // replaces the oldest, the ring is filled in order
+            known.fingerprints[known.next] = fingerprint;
+            known.urls[known.next] = url;
+            known.next = (known.next + 1) % perHost;
+        }
+        return null;
+    }
+}
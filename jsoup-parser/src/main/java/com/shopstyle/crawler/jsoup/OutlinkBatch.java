@@ -0,0 +1,88 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.tuple.Tuple;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+
+/**
+ * The outlinks of a page in a single tuple, as sent by the {@link JSoupParserBolt} on the
+ * {@link JSoupParserBolt#OUTLINKS_STREAM_NAME} stream when <tt>parser.outlinks.batch</tt> is set.
+ * The tuples have the URL of the page, the metadata its outlinks inherit from it, once for all of
+ * them, and the outlinks serialized as:
+ * <ul>
+ * <li>the number of outlinks</li>
+ * <li>for each of them the target URL, the first anchor and the keys of its metadata which aren't
+ * the same as in the inherited metadata, usually only the anchors, as in {@link CachedParse}</li>
+ * </ul>
+ * {@link OutlinkBatchSplitterBolt} sends them to the status stream one by one, a status updater
+ * can also read them with {@link #read(Tuple)}.
+ */
+public final class OutlinkBatch {
+
+    private OutlinkBatch() {
+    }
+
+    /**
+     * @param inherited the metadata the outlinks get from the page
+     * @return the bytes of the <tt>outlinks</tt> field
+     */
+    static byte[] write(Metadata inherited, List<Outlink> outlinks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(outlinks.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<String, String[]> shared = CachedParse.snapshot(inherited);
+        out.writeInt(outlinks.size());
+        for (Outlink outlink : outlinks) {
+            CachedParse.writeString(out, outlink.getTargetURL());
+            CachedParse.writeString(out, outlink.getAnchor());
+            Metadata metadata = outlink.getMetadata();
+            CachedParse.writeChanges(out,
+                    CachedParse.changes(shared, metadata != null ? metadata : new Metadata()));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param tuple from the {@link JSoupParserBolt#OUTLINKS_STREAM_NAME} stream
+     * @return the outlinks with their own metadata
+     * @throws IOException if the <tt>outlinks</tt> field wasn't written by the parser
+     */
+    public static List<Outlink> read(Tuple tuple) throws IOException {
+        return read((Metadata) tuple.getValueByField("metadata"),
+                tuple.getBinaryByField("outlinks"));
+    }
+
+    static List<Outlink> read(Metadata inherited, byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int count = CachedParse.readCount(in);
+        List<Outlink> outlinks = new ArrayList<Outlink>(count);
+        for (int i = 0; i < count; i++) {
+            String target = CachedParse.readString(in);
+            if (target == null) {
+                throw new IOException("No target for outlink " + i);
+            }
+            Outlink outlink = new Outlink(target);
+            outlink.setAnchor(CachedParse.readString(in));
+            // the inherited values are shared, the changes replace them
+            Metadata metadata = new Metadata();
+            metadata.putAll(inherited);
+            CachedParse.apply(CachedParse.readChanges(in), metadata);
+            outlink.setMetadata(metadata);
+            outlinks.add(outlink);
+        }
+        if (in.available() > 0) {
+            throw new IOException(in.available() + " bytes left after the outlinks");
+        }
+        return outlinks;
+    }
+}
@@ -0,0 +1,77 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.metric.api.MultiCountMetric;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichBolt;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import com.digitalpebble.storm.crawler.parse.Outlink;
+import com.digitalpebble.storm.crawler.persistence.Status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.digitalpebble.storm.crawler.Constants.StatusStreamName;
+
+/**
+ * Sends the outlinks of the {@link OutlinkBatch} tuples of the {@link JSoupParserBolt} to the
+ * status stream as <tt>DISCOVERED</tt>, one tuple per outlink as the parser does without
+ * <tt>parser.outlinks.batch</tt>. Goes between the
+ * {@link JSoupParserBolt#OUTLINKS_STREAM_NAME} stream of the parser, preferably with a local or
+ * shuffle grouping so that the batches don't leave the worker, and the status updater, which keeps
+ * getting the errors directly from the status stream of the parser.
+ * <p>
+ * The batches which can't be read are acked and counted as <tt>invalid_batch</tt>, replaying them
+ * wouldn't help.
+ */
+@SuppressWarnings("serial")
+public class OutlinkBatchSplitterBolt extends BaseRichBolt {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutlinkBatchSplitterBolt.class);
+
+    private OutputCollector collector;
+
+    private MultiCountMetric eventCounter;
+
+    @Override
+    public void prepare(Map conf, TopologyContext context, OutputCollector collector) {
+        this.collector = collector;
+        eventCounter =
+                context.registerMetric(this.getClass().getSimpleName(), new MultiCountMetric(),
+                        10);
+    }
+
+    @Override
+    public void execute(Tuple tuple) {
+        List<Outlink> outlinks;
+        try {
+            outlinks = OutlinkBatch.read(tuple);
+        } catch (IOException e) {
+            LOG.error("Invalid outlinks from {}: {}", tuple.getStringByField("url"),
+                    e.getMessage());
+            eventCounter.scope("invalid_batch").incr();
+            collector.ack(tuple);
+            return;
+        }
+        for (Outlink outlink : outlinks) {
+            collector.emit(StatusStreamName, tuple, new Values(outlink.getTargetURL(),
+                    outlink.getMetadata(), Status.DISCOVERED));
+        }
+        collector.ack(tuple);
+        eventCounter.scope("batches").incr();
+        eventCounter.scope("outlinks").incrBy(outlinks.size());
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        declarer.declareStream(StatusStreamName, new Fields("url", "metadata", "status"));
+    }
+}
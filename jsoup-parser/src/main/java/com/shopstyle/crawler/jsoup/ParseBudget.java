@@ -0,0 +1,81 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpebble.storm.crawler.util.ConfUtils;
+
+/**
+ * How much work the bolt does on a single page, so that a few pathological pages can't stall it.
+ * Negative values mean no limit:
+ * <ul>
+ * <li><tt>parser.budget.contentBytes</tt>: only the first bytes of the content are parsed</li>
+ * <li><tt>parser.budget.nodes</tt>: the traversal of the document stops after that many nodes,
+ * the links and the text found so far are kept</li>
+ * <li><tt>parser.budget.outlinks</tt>: the links found after that many are ignored</li>
+ * <li><tt>parser.budget.textLength</tt>: the text is cut to that many chars</li>
+ * <li><tt>parser.budget.timeMs</tt>: milliseconds the parsing and the traversal can take, checked
+ * after parsing and during the traversal, the page is sent to the status stream as an error when
+ * it takes longer</li>
+ * <li><tt>parser.dom.maxDepth</tt> (256) and <tt>parser.dom.maxNodes</tt> (500000): see
+ * {@link DOMCopier}</li>
+ * </ul>
+ * Immutable, the state of a page is kept by the {@link ContentExtractor}.
+ */
+final class ParseBudget {
+
+    /** What can run out, counted as <tt>budget_&lt;name&gt;</tt> by the bolt */
+    enum Limit {
+        CONTENT_BYTES, NODES, OUTLINKS, TEXT, TIME;
+
+        String counterName() {
+            return "budget_" + name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    static final ParseBudget UNLIMITED = new ParseBudget(-1, -1, -1, -1, -1, Integer.MAX_VALUE,
+            Integer.MAX_VALUE);
+
+    final int maxContentBytes;
+
+    final int maxNodes;
+
+    final int maxOutlinks;
+
+    final int maxTextLength;
+
+    final long maxTimeNanos;
+
+    final int maxDOMDepth;
+
+    final int maxDOMNodes;
+
+    ParseBudget(int maxContentBytes, int maxNodes, int maxOutlinks, int maxTextLength,
+            long maxTimeMillis, int maxDOMDepth, int maxDOMNodes) {
+        this.maxContentBytes = maxContentBytes;
+        this.maxNodes = maxNodes;
+        this.maxOutlinks = maxOutlinks;
+        this.maxTextLength = maxTextLength;
+        this.maxTimeNanos = maxTimeMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(maxTimeMillis);
+        this.maxDOMDepth = maxDOMDepth;
+        this.maxDOMNodes = maxDOMNodes;
+    }
+
+    static ParseBudget fromConf(Map conf) {
+        return new ParseBudget(ConfUtils.getInt(conf, "parser.budget.contentBytes", -1),
+                ConfUtils.getInt(conf, "parser.budget.nodes", -1), ConfUtils.getInt(conf,
+                        "parser.budget.outlinks", -1), ConfUtils.getInt(conf,
+                        "parser.budget.textLength", -1), ConfUtils.getLong(conf,
+                        "parser.budget.timeMs", -1), ConfUtils.getInt(conf,
+                        "parser.dom.maxDepth", 256), ConfUtils.getInt(conf,
+                        "parser.dom.maxNodes", 500000));
+    }
+
+    /**
+     * @param start the value of {@link System#nanoTime()} when the page started being parsed
+     */
+    boolean isOverTime(long start) {
+        return maxTimeNanos >= 0 && System.nanoTime() - start > maxTimeNanos;
+    }
+}
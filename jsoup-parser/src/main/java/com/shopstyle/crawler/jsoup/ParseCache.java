@@ -0,0 +1,275 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps what the bolt emitted for the pages it parsed, so that a page fetched again with the same
+ * content is sent without being parsed and filtered again. The entries are found by URL and by a
+ * 128 bits MurmurHash3 of the content, the URL and the length of the content are compared as well.
+ * <p>
+ * The entries are serialized by {@link CachedParse} into direct buffers, outside of the heap, and
+ * the least recently used are evicted when their total size goes over <tt>maxBytes</tt>. The
+ * direct buffers are only released by the garbage collector, <tt>-XX:MaxDirectMemorySize</tt> has
+ * to leave room for a few collections worth of evicted entries.
+ * <p>
+ * Reports the hits and misses, the hit ratio, the bytes of content which didn't have to be parsed
+ * and the size of the cache. Thread safe.
+ */
+class ParseCache implements IMetric {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParseCache.class);
+
+    static final class Key {
+        final String url;
+        final int length;
+        final long hash1;
+        final long hash2;
+
+        Key(String url, int length, long hash1, long hash2) {
+            this.url = url;
+            this.length = length;
+            this.hash1 = hash1;
+            this.hash2 = hash2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash1 ^ (hash1 >>> 32)) ^ url.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash1 == other.hash1 && hash2 == other.hash2 && length == other.length
+                    && url.equals(other.url);
+        }
+    }
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<Key, ByteBuffer> cache = new LinkedHashMap<Key, ByteBuffer>(16,
+            0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long bytesSaved;
+
+    private long evictions;
+
+    /**
+     * @param maxBytes the total size of the entries
+     */
+    ParseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static Key key(String url, byte[] content) {
+        long[] hash = murmur3(content, 0);
+        return new Key(url, content.length, hash[0], hash[1]);
+    }
+
+    /**
+     * @return what was emitted for the same URL and content, null if not cached
+     */
+    CachedParse get(Key key) {
+        byte[] entry;
+        synchronized (this) {
+            ByteBuffer buffer = cache.get(key);
+            if (buffer == null) {
+                misses++;
+                return null;
+            }
+            entry = new byte[buffer.capacity()];
+            buffer.duplicate().get(entry);
+        }
+        try {
+            CachedParse parse = CachedParse.read(entry);
+            synchronized (this) {
+                hits++;
+                bytesSaved += key.length;
+            }
+            return parse;
+        } catch (IOException e) {
+            LOG.warn("Invalid entry for {}, removed: {}", key.url, e.getMessage());
+            synchronized (this) {
+                ByteBuffer removed = cache.remove(key);
+                if (removed != null) {
+                    bytes -= removed.capacity();
+                }
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param entry written by {@link CachedParse#write}, not kept if larger than the cache
+     */
+    void put(Key key, byte[] entry) {
+        if (entry.length > maxBytes) {
+            return;
+        }
+        // copied outside of the lock
+        ByteBuffer buffer = ByteBuffer.allocateDirect(entry.length);
+        buffer.put(entry).flip();
+        synchronized (this) {
+            ByteBuffer previous = cache.put(key, buffer);
+            if (previous != null) {
+                bytes -= previous.capacity();
+            }
+            bytes += entry.length;
+            Iterator<ByteBuffer> eldest = cache.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().capacity();
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+
+    @Override
+    public synchronized Object getValueAndReset() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("hits", hits);
+        values.put("misses", misses);
+        values.put("hit_ratio", hits + misses == 0 ? 0d : (double) hits / (hits + misses));
+        values.put("bytes_saved", bytesSaved);
+        values.put("evictions", evictions);
+        values.put("entries", cache.size());
+        values.put("bytes", bytes);
+        hits = 0;
+        misses = 0;
+        bytesSaved = 0;
+        evictions = 0;
+        return values;
+    }
+
+    /**
+     * MurmurHash3 x64 128 bits
+     */
+    // the bytes of the tail are read by falling through the cases
+    @SuppressWarnings("fallthrough")
+    static long[] murmur3(byte[] data, long seed) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        int length = data.length;
+        long h1 = seed;
+        long h2 = seed;
+
+        int blocks = length >>> 4;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i << 4);
+            long k2 = getLong(data, (i << 4) + 8);
+
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = blocks << 4;
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+        case 15:
+            k2 ^= (data[tail + 14] & 0xffL) << 48;
+        case 14:
+            k2 ^= (data[tail + 13] & 0xffL) << 40;
+        case 13:
+            k2 ^= (data[tail + 12] & 0xffL) << 32;
+        case 12:
+            k2 ^= (data[tail + 11] & 0xffL) << 24;
+        case 11:
+            k2 ^= (data[tail + 10] & 0xffL) << 16;
+        case 10:
+            k2 ^= (data[tail + 9] & 0xffL) << 8;
+        case 9:
+            k2 ^= data[tail + 8] & 0xffL;
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+        case 8:
+            k1 ^= (data[tail + 7] & 0xffL) << 56;
+        case 7:
+            k1 ^= (data[tail + 6] & 0xffL) << 48;
+        case 6:
+            k1 ^= (data[tail + 5] & 0xffL) << 40;
+        case 5:
+            k1 ^= (data[tail + 4] & 0xffL) << 32;
+        case 4:
+            k1 ^= (data[tail + 3] & 0xffL) << 24;
+        case 3:
+            k1 ^= (data[tail + 2] & 0xffL) << 16;
+        case 2:
+            k1 ^= (data[tail + 1] & 0xffL) << 8;
+        case 1:
+            k1 ^= data[tail] & 0xffL;
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+        default:
+            break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[] { h1, h2 };
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return (data[offset] & 0xffL) | (data[offset + 1] & 0xffL) << 8
+                | (data[offset + 2] & 0xffL) << 16 | (data[offset + 3] & 0xffL) << 24
+                | (data[offset + 4] & 0xffL) << 32 | (data[offset + 5] & 0xffL) << 40
+                | (data[offset + 6] & 0xffL) << 48 | (data[offset + 7] & 0xffL) << 56;
+    }
+
+    /** finalization of MurmurHash3, mixes all the bits */
+    static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,132 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import com.ibm.icu.text.CharsetDetector;
+
+/**
+ * What the bolt keeps from one page to the next on a thread instead of allocating it again: the
+ * {@link ContentDecoder}, ICU's {@link CharsetDetector} with the buffer of the bytes it looks at
+ * and the {@link ContentExtractor}, with its link arrays, its text buffer and the W3C document the
+ * DOM is built in, and the {@link Deflater} which compresses the content sent. The jsoup parser
+ * isn't kept as its tree builder doesn't clear all of its state between documents.
+ * <p>
+ * Not thread safe, the bolt has one per thread. Everything it hands out is only valid until
+ * {@link #release()}, which the bolt calls once the page has been sent, so that the context
+ * doesn't hold on to the last page.
+ */
+final class ParseContext {
+
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /** larger compression buffers aren't kept for the next page */
+    private static final int MAX_RETAINED_BYTES = 1 << 22;
+
+    private final int maxAnchorsPerLink;
+
+    private final ContentDecoder decoder = new ContentDecoder();
+
+    private CharsetDetector charsetDetector;
+
+    private byte[] detectBuffer = NO_BYTES;
+
+    private ContentExtractor extractor;
+
+    private Deflater deflater;
+
+    private int deflaterLevel;
+
+    private byte[] deflateBuffer = NO_BYTES;
+
+    /**
+     * @param maxAnchorsPerLink see {@link ContentExtractor}
+     */
+    ParseContext(int maxAnchorsPerLink) {
+        this.maxAnchorsPerLink = maxAnchorsPerLink;
+    }
+
+    ContentDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @return ICU's detector, to be given its text again
+     */
+    CharsetDetector getCharsetDetector() {
+        if (charsetDetector == null) {
+            charsetDetector = new CharsetDetector();
+        }
+        return charsetDetector;
+    }
+
+    /**
+     * @return the first <tt>length</tt> bytes of the content, in a buffer of exactly that length
+     *         which is overwritten by the next call
+     */
+    byte[] getPrefix(byte[] content, int length) {
+        if (detectBuffer.length != length) {
+            detectBuffer = new byte[length];
+        }
+        System.arraycopy(content, 0, detectBuffer, 0, length);
+        return detectBuffer;
+    }
+
+    /**
+     * @return the extractor, reset for a new document
+     */
+    ContentExtractor getExtractor(boolean buildDOM, boolean fingerprint, ParseBudget budget,
+            long start) {
+        if (extractor == null) {
+            extractor = new ContentExtractor(maxAnchorsPerLink);
+        }
+        return extractor.reset(buildDOM, fingerprint, budget, start);
+    }
+
+    /**
+     * @return the content compressed with zlib at that level, in a new array
+     */
+    byte[] deflate(byte[] content, int level) {
+        if (deflater == null || deflaterLevel != level) {
+            if (deflater != null) {
+                deflater.end();
+            }
+            deflater = new Deflater(level);
+            deflaterLevel = level;
+        } else {
+            deflater.reset();
+        }
+        deflater.setInput(content);
+        deflater.finish();
+        if (deflateBuffer.length < 4096) {
+            deflateBuffer = new byte[Math.max(4096, content.length / 2)];
+        }
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflateBuffer.length) {
+                deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+            }
+            length += deflater.deflate(deflateBuffer, length, deflateBuffer.length - length);
+        }
+        return Arrays.copyOf(deflateBuffer, length);
+    }
+
+    /**
+     * Drops the references to the last page, the buffers are kept
+     */
+    void release() {
+        if (extractor != null) {
+            extractor.reset(false, ParseBudget.UNLIMITED, 0);
+        }
+        if (charsetDetector != null) {
+            charsetDetector.setText(NO_BYTES);
+            charsetDetector.setDeclaredEncoding(null);
+        }
+        if (deflater != null) {
+            deflater.reset();
+        }
+        if (deflateBuffer.length > MAX_RETAINED_BYTES) {
+            deflateBuffer = NO_BYTES;
+        }
+    }
+}
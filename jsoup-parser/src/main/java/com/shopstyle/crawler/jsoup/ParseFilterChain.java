@@ -0,0 +1,303 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import backtype.storm.metric.api.IMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+import com.digitalpebble.storm.crawler.parse.ParseFilter;
+import com.digitalpebble.storm.crawler.parse.ParseFilters;
+import com.digitalpebble.storm.crawler.util.ConfUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.DocumentFragment;
+
+/**
+ * Same as {@link ParseFilters}, reading the same configuration file, but records how long each
+ * filter takes in microseconds under <tt>parsefilter.&lt;name&gt;</tt>. The filters which
+ * implement {@link IMetric} are made available to the bolt, which registers them under the same
+ * name.
+ * <p>
+ * The filters declared with <tt>"concurrent": true</tt> must have no side effects other than on
+ * the metadata: consecutive ones run at the same time on a {@link ForkJoinPool} shared by the
+ * chains of the worker, with <tt>parsefilters.concurrent.threads</tt> threads (the number of
+ * processors by default, 0 to run everything in sequence). Each of them gets a copy of the
+ * metadata and a read-only list of the outlinks, which are shared: they must not modify the
+ * outlinks themselves either. Once they are all done, their changes are applied in the order of
+ * the configuration: the values they added to a key are appended, the keys they removed are
+ * removed and the other changes replace the values. As the W3C DOM copied by Xerces can't be read
+ * by several threads, they only run concurrently on the view of the jsoup document or without a
+ * DOM, and in sequence otherwise.
+ */
+class ParseFilterChain implements ParseFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParseFilterChain.class);
+
+    /** the filters are listed under the name of the storm-crawler class */
+    private static final String CONFIG_KEY = ParseFilters.class.getCanonicalName();
+
+    private final List<ParseFilter> filters = new ArrayList<ParseFilter>();
+
+    private final List<HistogramMetric> timings = new ArrayList<HistogramMetric>();
+
+    /** whether each filter can run at the same time as its concurrent neighbours */
+    private final List<Boolean> concurrent = new ArrayList<Boolean>();
+
+    /** null if the filters run in sequence */
+    private ForkJoinPool pool;
+
+    private static ForkJoinPool sharedPool;
+
+    private final Map<String, IMetric> metrics = new LinkedHashMap<String, IMetric>();
+
+    private final MultiHistogramMetric histograms;
+
+    ParseFilterChain(Map stormConf, String configFile, MultiHistogramMetric histograms)
+            throws IOException {
+        this.histograms = histograms;
+        JsonNode confNode;
+        InputStream confStream = getClass().getClassLoader().getResourceAsStream(configFile);
+        try {
+            confNode = new ObjectMapper().readValue(confStream, JsonNode.class);
+        } catch (Exception e) {
+            throw new IOException("Unable to build JSON object from file", e);
+        } finally {
+            if (confStream != null) {
+                confStream.close();
+            }
+        }
+        configure(stormConf, confNode);
+    }
+
+    @Override
+    public void configure(Map stormConf, JsonNode filtersConf) {
+        JsonNode node = filtersConf.get(CONFIG_KEY);
+        if (node == null) {
+            LOG.info("No field {} in JSON config. Skipping", CONFIG_KEY);
+            return;
+        }
+        Iterator<JsonNode> filterIter = node.elements();
+        while (filterIter.hasNext()) {
+            JsonNode filterConf = filterIter.next();
+            String className = filterConf.has("class") ? filterConf.get("class").textValue() : null;
+            if (className == null) {
+                LOG.error("Filter {} doesn't specify a 'class' attribute", filterConf);
+                continue;
+            }
+            className = className.trim();
+            String name =
+                    filterConf.has("name") ? filterConf.get("name").textValue() : className
+                            .substring(className.lastIndexOf('.') + 1);
+            try {
+                Class<?> filterClass = Class.forName(className);
+                if (!ParseFilter.class.isAssignableFrom(filterClass)) {
+                    LOG.error("Filter {} does not implement ParseFilter", className);
+                    continue;
+                }
+                ParseFilter filter = (ParseFilter) filterClass.newInstance();
+                JsonNode params = filterConf.get("params");
+                filter.configure(stormConf, params != null ? params : NullNode.getInstance());
+                filters.add(filter);
+                timings.add(histograms.scope("parsefilter." + name));
+                concurrent.add(filterConf.has("concurrent")
+                        && filterConf.get("concurrent").asBoolean());
+                if (filter instanceof IMetric) {
+                    metrics.put("parsefilter." + name, (IMetric) filter);
+                }
+                LOG.info("Setup {}", name);
+            } catch (Exception e) {
+                LOG.error("Can't setup {}: {}", name, e);
+                throw new RuntimeException("Can't setup " + name, e);
+            }
+        }
+        if (concurrent.contains(Boolean.TRUE)) {
+            int threads =
+                    ConfUtils.getInt(stormConf, "parsefilters.concurrent.threads", Runtime
+                            .getRuntime().availableProcessors());
+            if (threads > 0) {
+                pool = getPool(threads);
+            }
+        }
+    }
+
+    /**
+     * @return the pool of the worker, created with the number of threads of the first chain
+     */
+    private static synchronized ForkJoinPool getPool(int threads) {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(threads);
+        }
+        return sharedPool;
+    }
+
+    /**
+     * @return whether some filters can run concurrently
+     */
+    boolean isConcurrent() {
+        return pool != null;
+    }
+
+    /**
+     * @return the filters which are metrics, by metric name
+     */
+    Map<String, IMetric> getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void filter(String URL, byte[] content, DocumentFragment doc, Metadata metadata,
+            List<Outlink> outlinks) {
+        // the view is the only DOM which can be shared
+        boolean shared =
+                pool != null && (doc == null || doc.getUserData(DOMBuilder.JSOUP_NODE_KEY) != null);
+        int i = 0;
+        while (i < filters.size()) {
+            int end = i + 1;
+            if (shared && concurrent.get(i)) {
+                while (end < filters.size() && concurrent.get(end)) {
+                    end++;
+                }
+            }
+            if (end - i > 1) {
+                filterConcurrently(i, end, URL, content, doc, metadata, outlinks);
+            } else {
+                long start = System.nanoTime();
+                filters.get(i).filter(URL, content, doc, metadata, outlinks);
+                timings.get(i).update((System.nanoTime() - start) / 1000);
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * Runs a filter on its own copy of the metadata, the outlinks are shared
+     */
+    private final class FilterTask implements Callable<Void> {
+        final int index;
+        final String url;
+        final byte[] content;
+        final DocumentFragment doc;
+        final Metadata metadata = new Metadata();
+        final List<Outlink> outlinks;
+
+        FilterTask(int index, String url, byte[] content, DocumentFragment doc, Metadata source,
+                List<Outlink> outlinks) {
+            this.index = index;
+            this.url = url;
+            this.content = content;
+            this.doc = doc;
+            this.outlinks = outlinks;
+            // the arrays too, the filters could change their values in place
+            for (String key : source.keySet()) {
+                metadata.setValues(key, source.getValues(key).clone());
+            }
+        }
+
+        @Override
+        public Void call() {
+            long start = System.nanoTime();
+            filters.get(index).filter(url, content, doc, metadata, outlinks);
+            timings.get(index).update((System.nanoTime() - start) / 1000);
+            return null;
+        }
+    }
+
+    private void filterConcurrently(int from, int to, String url, byte[] content,
+            DocumentFragment doc, Metadata metadata, List<Outlink> outlinks) {
+        List<Outlink> readOnly = outlinks != null ? Collections.unmodifiableList(outlinks) : null;
+        // the changes of each filter are relative to the metadata before all of them
+        Map<String, String[]> before = new HashMap<String, String[]>();
+        for (String key : metadata.keySet()) {
+            before.put(key, metadata.getValues(key));
+        }
+        List<FilterTask> tasks = new ArrayList<FilterTask>(to - from);
+        for (int i = from; i < to; i++) {
+            tasks.add(new FilterTask(i, url, content, doc, metadata, readOnly));
+        }
+        List<ForkJoinTask<Void>> submitted = new ArrayList<ForkJoinTask<Void>>(tasks.size());
+        for (int i = 1; i < tasks.size(); i++) {
+            submitted.add(pool.submit(tasks.get(i)));
+        }
+        // the calling thread takes the first one
+        RuntimeException failure = null;
+        try {
+            tasks.get(0).call();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // waits for all of them so that none is still reading the page
+        for (ForkJoinTask<Void> task : submitted) {
+            try {
+                task.join();
+            } catch (RuntimeException e) {
+                // the pool rethrows a copy of the exception with the original as its cause
+                if (e.getCause() != null && e.getCause().getClass() == e.getClass()) {
+                    e = (RuntimeException) e.getCause();
+                }
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        for (FilterTask task : tasks) {
+            merge(before, task.metadata, metadata);
+        }
+    }
+
+    /**
+     * Applies the changes a filter made to its copy of the metadata
+     */
+    private static void merge(Map<String, String[]> before, Metadata copy, Metadata metadata) {
+        for (String key : copy.keySet()) {
+            String[] values = copy.getValues(key);
+            String[] previous = before.get(key);
+            if (values == null || values == previous || Arrays.equals(values, previous)) {
+                continue;
+            }
+            if (previous == null) {
+                metadata.addValues(key, Arrays.asList(values));
+            } else if (values.length > previous.length
+                    && Arrays.equals(previous, Arrays.copyOf(values, previous.length))) {
+                metadata.addValues(key,
+                        Arrays.asList(values).subList(previous.length, values.length));
+            } else {
+                metadata.setValues(key, values);
+            }
+        }
+        for (String key : before.keySet()) {
+            if (copy.getValues(key) == null) {
+                metadata.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public boolean needsDOM() {
+        for (ParseFilter filter : filters) {
+            if (filter.needsDOM()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import backtype.storm.metric.api.MultiCountMetric;
+
+/**
+ * Remembers the outlinks sent recently, so that the bolt doesn't send the links found on every
+ * page of a site (navigation, footer, facets) to the status stream again and again. Two Bloom
+ * filters of <tt>maxBytes / 2</tt> each: the URLs are added to the current one and looked up in
+ * both, and the current one becomes the previous one after <tt>ttl</tt> milliseconds or once it
+ * holds as many URLs as it can for the false positive rate, in which case
+ * <tt>outlink_dedup_full</tt> is incremented and the memory should be increased. A URL is
+ * therefore sent again after one to two <tt>ttl</tt>, less if the filters fill up, which makes up
+ * for the tuples lost on the way.
+ * <p>
+ * A false positive drops a new URL, each filter is sized for half of the rate so that the two
+ * together don't go over it. Thread safe.
+ */
+class RecentOutlinks {
+
+    private static final double LN2 = Math.log(2);
+
+    private final long ttl;
+
+    private final int hashes;
+
+    /** the number of URLs a filter can hold */
+    private final long capacity;
+
+    private final MultiCountMetric eventCounter;
+
+    private long[] current;
+
+    private long[] previous;
+
+    private long count;
+
+    private long rotated;
+
+    /**
+     * @param maxBytes the size of the two filters together
+     * @param falsePositiveRate the probability of dropping a URL which hasn't been seen
+     * @param ttl milliseconds after which the filters rotate
+     */
+    RecentOutlinks(long maxBytes, double falsePositiveRate, long ttl,
+            MultiCountMetric eventCounter) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid false positive rate: "
+                    + falsePositiveRate);
+        }
+        this.ttl = ttl;
+        this.eventCounter = eventCounter;
+        // in longs, at least one per filter
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, maxBytes / 16));
+        long bits = words * 64L;
+        double rate = falsePositiveRate / 2;
+        this.hashes = Math.max(1, (int) Math.round(-Math.log(rate) / LN2));
+        this.capacity = Math.max(1, (long) (bits * LN2 * LN2 / -Math.log(rate)));
+        this.current = new long[words];
+        this.previous = new long[words];
+        this.rotated = System.currentTimeMillis();
+    }
+
+    /**
+     * Remembers the URL if it hasn't been seen recently
+     *
+     * @return true if the URL has been seen recently, or is a false positive
+     */
+    boolean seen(String url) {
+        return seen(url, System.currentTimeMillis());
+    }
+
+    synchronized boolean seen(String url, long now) {
+        if (count >= capacity) {
+            eventCounter.scope("outlink_dedup_full").incr();
+            rotate(now);
+        } else if (now - rotated >= ttl) {
+            rotate(now);
+        }
+
+        long[] hash = ParseCache.murmur3(url.getBytes(StandardCharsets.UTF_8), 0);
+        long bits = current.length * 64L;
+        boolean inCurrent = true;
+        boolean inPrevious = true;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % bits;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            inCurrent &= (current[word] & mask) != 0;
+            inPrevious &= (previous[word] & mask) != 0;
+        }
+        if (inCurrent || inPrevious) {
+            return true;
+        }
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % bits;
+            current[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+        return false;
+    }
+
+    private void rotate(long now) {
+        long[] cleared = previous;
+        Arrays.fill(cleared, 0);
+        previous = current;
+        current = cleared;
+        count = 0;
+        rotated = now;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,100 @@
+package com.shopstyle.crawler.jsoup;
+
+/**
+ * 64 bits SimHash of a text fed as it is being built, to find the pages which have nearly the same
+ * text: the fingerprints of two such pages only differ by a few bits, see {@link #distance}. The
+ * features are the pairs of consecutive words, the words being the runs of letters and digits,
+ * without case.
+ * <p>
+ * Not thread safe. Can be {@link #reset} for another text.
+ */
+final class SimHash {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** sum of +1 for each feature which has the bit set, -1 for the others */
+    private final int[] weights = new int[64];
+
+    private long word = FNV_OFFSET;
+
+    private boolean inWord;
+
+    private long previousWord;
+
+    private int words;
+
+    /**
+     * Adds the characters of the text between <tt>from</tt> and <tt>to</tt>, a word can go on in
+     * the next call
+     */
+    void update(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                endWord();
+            }
+        }
+    }
+
+    private void endWord() {
+        // the FNV hashes of short words don't have all their bits mixed
+        add(ParseCache.fmix(previousWord * 31 + word));
+        previousWord = word;
+        word = FNV_OFFSET;
+        inWord = false;
+        words++;
+    }
+
+    private void add(long feature) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += (int) ((feature >>> bit) & 1) * 2 - 1;
+        }
+    }
+
+    /**
+     * Ends the last word
+     *
+     * @return the fingerprint of the text so far
+     */
+    long fingerprint() {
+        if (inWord) {
+            endWord();
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the number of words so far
+     */
+    int getWords() {
+        return words;
+    }
+
+    void reset() {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] = 0;
+        }
+        word = FNV_OFFSET;
+        inWord = false;
+        previousWord = 0;
+        words = 0;
+    }
+
+    /**
+     * @return the number of bits which differ between two fingerprints
+     */
+    static int distance(long fingerprint1, long fingerprint2) {
+        return Long.bitCount(fingerprint1 ^ fingerprint2);
+    }
+}
@@ -0,0 +1,53 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.MultiCountMetric;
+
+/**
+ * {@link MultiCountMetric} which can be incremented from several threads, for the parse workers of
+ * the bolt.
+ */
+class SynchronizedMultiCountMetric extends MultiCountMetric {
+
+    private static final class SynchronizedCountMetric extends CountMetric {
+
+        @Override
+        public synchronized void incr() {
+            super.incr();
+        }
+
+        @Override
+        public synchronized void incrBy(long incrementBy) {
+            super.incrBy(incrementBy);
+        }
+
+        @Override
+        public synchronized Object getValueAndReset() {
+            return super.getValueAndReset();
+        }
+    }
+
+    private final Map<String, CountMetric> counts = new HashMap<String, CountMetric>();
+
+    @Override
+    public synchronized CountMetric scope(String key) {
+        CountMetric count = counts.get(key);
+        if (count == null) {
+            count = new SynchronizedCountMetric();
+            counts.put(key, count);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized Object getValueAndReset() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (Map.Entry<String, CountMetric> entry : counts.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValueAndReset());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,85 @@
+package com.shopstyle.crawler.jsoup;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.TypeInfo;
+
+/**
+ * Read-only {@link Attr} view of a jsoup attribute. The name is the one {@link DOMBuilder} would
+ * have used, i.e. with the qname fixup applied.
+ */
+final class ViewAttr extends ViewNode implements Attr {
+
+    private final ViewElement ownerElement;
+
+    private final String name;
+
+    private final String value;
+
+    ViewAttr(ViewDocument owner, ViewElement ownerElement, String name, String value) {
+        super(owner);
+        this.ownerElement = ownerElement;
+        this.name = name;
+        this.value = value;
+    }
+
+    @Override
+    org.jsoup.nodes.Node jsoupNode() {
+        return null;
+    }
+
+    @Override
+    public String getNodeName() {
+        return name;
+    }
+
+    @Override
+    public String getNodeValue() {
+        return value;
+    }
+
+    @Override
+    public short getNodeType() {
+        return ATTRIBUTE_NODE;
+    }
+
+    @Override
+    public String getTextContent() {
+        return value;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean getSpecified() {
+        return true;
+    }
+
+    @Override
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public void setValue(String value) {
+        throw readOnly();
+    }
+
+    @Override
+    public Element getOwnerElement() {
+        return ownerElement;
+    }
+
+    @Override
+    public TypeInfo getSchemaTypeInfo() {
+        return null;
+    }
+
+    @Override
+    public boolean isId() {
+        return "id".equals(name);
+    }
+}
@@ -0,0 +1,69 @@
+package com.shopstyle.crawler.jsoup;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Read-only {@link NamedNodeMap} over the attributes of a {@link ViewElement}. Elements rarely
+ * have more than a handful of attributes so lookups are a linear scan.
+ */
+final class ViewAttributeMap implements NamedNodeMap {
+
+    private final ViewAttr[] attributes;
+
+    ViewAttributeMap(ViewAttr[] attributes) {
+        this.attributes = attributes;
+    }
+
+    ViewAttr get(String name) {
+        for (ViewAttr attribute : attributes) {
+            if (attribute.getName().equals(name)) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Node getNamedItem(String name) {
+        return get(name);
+    }
+
+    @Override
+    public Node setNamedItem(Node arg) {
+        throw ViewNode.readOnly();
+    }
+
+    @Override
+    public Node removeNamedItem(String name) {
+        throw ViewNode.readOnly();
+    }
+
+    @Override
+    public Node item(int index) {
+        if (index < 0 || index >= attributes.length) {
+            return null;
+        }
+        return attributes[index];
+    }
+
+    @Override
+    public int getLength() {
+        return attributes.length;
+    }
+
+    @Override
+    public Node getNamedItemNS(String namespaceURI, String localName) {
+        return namespaceURI == null ? get(localName) : null;
+    }
+
+    @Override
+    public Node setNamedItemNS(Node arg) {
+        throw ViewNode.readOnly();
+    }
+
+    @Override
+    public Node removeNamedItemNS(String namespaceURI, String localName) {
+        throw ViewNode.readOnly();
+    }
+}
@@ -0,0 +1,543 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.traversal.DocumentTraversal;
+import org.w3c.dom.traversal.NodeFilter;
+import org.w3c.dom.traversal.NodeIterator;
+import org.w3c.dom.traversal.TreeWalker;
+
+/**
+ * Read-only {@link Document} view of a jsoup document. It owns the mapping from jsoup nodes to
+ * their views, so that a jsoup node is always represented by the same view object, and the user
+ * data attached to the views.
+ * <p>
+ * As with {@link DOMBuilder#jsoup2HTML}, the top level elements are children of the
+ * {@link DocumentFragment} returned by {@link #getFragment()}. The document exposes the root
+ * element through {@link #getDocumentElement()} so that lookups by id work.
+ * <p>
+ * Views are created lazily as the tree is navigated; access is synchronized so that several
+ * readers can share the same view.
+ */
+final class ViewDocument extends ViewParentNode implements Document, DocumentTraversal {
+
+    final org.jsoup.nodes.Document jsoupDocument;
+
+    private final ViewFragment fragment;
+
+    private final Map<org.jsoup.nodes.Node, ViewNode> views =
+            new IdentityHashMap<org.jsoup.nodes.Node, ViewNode>();
+
+    private final Map<Node, Map<String, Object>> userData =
+            new IdentityHashMap<Node, Map<String, Object>>();
+
+    /** Namespace prefixes declared anywhere in the document, lazily computed */
+    private Set<String> declaredPrefixes;
+
+    ViewDocument(org.jsoup.nodes.Document jsoupDocument) {
+        super(null);
+        this.jsoupDocument = jsoupDocument;
+        this.fragment = new ViewFragment(this);
+    }
+
+    @Override
+    ViewDocument document() {
+        return this;
+    }
+
+    DocumentFragment getFragment() {
+        return fragment;
+    }
+
+    @Override
+    org.jsoup.nodes.Node jsoupNode() {
+        return jsoupDocument;
+    }
+
+    /**
+     * @return the view of a jsoup node or null if the node is not part of the view (comments,
+     *         scripts...)
+     */
+    synchronized ViewNode wrap(org.jsoup.nodes.Node node) {
+        if (node == null) {
+            return null;
+        }
+        ViewNode view = views.get(node);
+        if (view == null) {
+            if (node instanceof org.jsoup.nodes.Element) {
+                view = new ViewElement(this, (org.jsoup.nodes.Element) node);
+            } else if (node instanceof TextNode) {
+                view = new ViewText(this, (TextNode) node);
+            } else {
+                return null;
+            }
+            views.put(node, view);
+        }
+        return view;
+    }
+
+    Node parent(org.jsoup.nodes.Node node) {
+        org.jsoup.nodes.Node parent = node.parentNode();
+        if (parent == jsoupDocument) {
+            return fragment;
+        }
+        return wrap(parent);
+    }
+
+    Node firstChild(org.jsoup.nodes.Node parent) {
+        for (int i = 0; i < parent.childNodeSize(); i++) {
+            Node child = wrap(parent.childNode(i));
+            if (child != null) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    Node lastChild(org.jsoup.nodes.Node parent) {
+        for (int i = parent.childNodeSize() - 1; i >= 0; i--) {
+            Node child = wrap(parent.childNode(i));
+            if (child != null) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    Node nextSibling(org.jsoup.nodes.Node node) {
+        org.jsoup.nodes.Node parent = node.parentNode();
+        if (parent == null) {
+            return null;
+        }
+        for (int i = node.siblingIndex() + 1; i < parent.childNodeSize(); i++) {
+            Node sibling = wrap(parent.childNode(i));
+            if (sibling != null) {
+                return sibling;
+            }
+        }
+        return null;
+    }
+
+    Node previousSibling(org.jsoup.nodes.Node node) {
+        org.jsoup.nodes.Node parent = node.parentNode();
+        if (parent == null) {
+            return null;
+        }
+        for (int i = node.siblingIndex() - 1; i >= 0; i--) {
+            Node sibling = wrap(parent.childNode(i));
+            if (sibling != null) {
+                return sibling;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Applies the same fixups as {@link DOMBuilder#createDOM} to an attribute name.
+     *
+     * @return the name to expose or null if the attribute must be omitted
+     */
+    String attributeName(String attName) {
+        // omit xhtml namespace
+        if (attName.equals("xmlns")) {
+            return null;
+        }
+        String attPrefix = DOMBuilder.getNSPrefix(attName);
+        if (attPrefix != null && !attPrefix.equals("xmlns") && !attPrefix.equals("xml")
+                && !getDeclaredPrefixes().contains(attPrefix)) {
+            // fix attribute names looking like qnames
+            return attName.replace(':', '_');
+        }
+        return attName;
+    }
+
+    private synchronized Set<String> getDeclaredPrefixes() {
+        if (declaredPrefixes == null) {
+            final Set<String> prefixes = new HashSet<String>();
+            new NodeTraversor(new NodeVisitor() {
+                @Override
+                public void head(org.jsoup.nodes.Node node, int depth) {
+                    if (node instanceof org.jsoup.nodes.Element) {
+                        for (Attribute a : node.attributes()) {
+                            if (a.getKey().startsWith("xmlns:")) {
+                                prefixes.add(DOMBuilder.getLocalName(a.getKey()));
+                            }
+                        }
+                    }
+                }
+
+                @Override
+                public void tail(org.jsoup.nodes.Node node, int depth) {
+                }
+            }).traverse(jsoupDocument);
+            declaredPrefixes = prefixes;
+        }
+        return declaredPrefixes;
+    }
+
+    NodeList getElementsByTagName(org.jsoup.nodes.Node root, final String name) {
+        final List<Node> found = new ArrayList<Node>();
+        new NodeTraversor(new NodeVisitor() {
+            @Override
+            public void head(org.jsoup.nodes.Node node, int depth) {
+                if (depth > 0 && node instanceof org.jsoup.nodes.Element
+                        && ("*".equals(name) || node.nodeName().equalsIgnoreCase(name))) {
+                    found.add(wrap(node));
+                }
+            }
+
+            @Override
+            public void tail(org.jsoup.nodes.Node node, int depth) {
+            }
+        }).traverse(root);
+        return new ViewNodeList(found);
+    }
+
+    /**
+     * @return a negative number if a comes before b in document order, a positive one if it comes
+     *         after and 0 if the two nodes are not comparable
+     */
+    int compareOrder(ViewNode a, ViewNode b) {
+        int attrA = 0, attrB = 0;
+        if (a instanceof ViewAttr) {
+            attrA = 1 + indexOf((ViewAttr) a);
+            a = (ViewNode) ((ViewAttr) a).getOwnerElement();
+        }
+        if (b instanceof ViewAttr) {
+            attrB = 1 + indexOf((ViewAttr) b);
+            b = (ViewNode) ((ViewAttr) b).getOwnerElement();
+        }
+        if (a == b) {
+            return attrA - attrB;
+        }
+        if (a == this || a == fragment) {
+            return -1;
+        }
+        if (b == this || b == fragment) {
+            return 1;
+        }
+        List<Integer> pathA = path(a.jsoupNode());
+        List<Integer> pathB = path(b.jsoupNode());
+        int common = Math.min(pathA.size(), pathB.size());
+        for (int i = 0; i < common; i++) {
+            int diff = pathA.get(i) - pathB.get(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        // one is an ancestor of the other, it comes first
+        // unless we are comparing an attribute with its element's descendants
+        if (pathA.size() < pathB.size()) {
+            return -1;
+        }
+        return 1;
+    }
+
+    private static int indexOf(ViewAttr attribute) {
+        NamedNodeMap map = attribute.getOwnerElement().getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            if (map.item(i) == attribute) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static List<Integer> path(org.jsoup.nodes.Node node) {
+        List<Integer> path = new ArrayList<Integer>();
+        while (node.parentNode() != null) {
+            path.add(0, node.siblingIndex());
+            node = node.parentNode();
+        }
+        return path;
+    }
+
+    boolean isAncestor(Node ancestor, Node node) {
+        if (node instanceof Attr) {
+            node = ((Attr) node).getOwnerElement();
+        } else {
+            node = node.getParentNode();
+        }
+        while (node != null) {
+            if (node == ancestor) {
+                return true;
+            }
+            node = node.getParentNode();
+        }
+        return false;
+    }
+
+    synchronized Object setUserData(Node node, String key, Object data) {
+        Map<String, Object> values = userData.get(node);
+        if (values == null) {
+            if (data == null) {
+                return null;
+            }
+            values = new HashMap<String, Object>();
+            userData.put(node, values);
+        }
+        if (data == null) {
+            return values.remove(key);
+        }
+        return values.put(key, data);
+    }
+
+    synchronized Object getUserData(Node node, String key) {
+        Map<String, Object> values = userData.get(node);
+        return values == null ? null : values.get(key);
+    }
+
+    @Override
+    public Object setUserData(String key, Object data, org.w3c.dom.UserDataHandler handler) {
+        return setUserData(this, key, data);
+    }
+
+    @Override
+    public Object getUserData(String key) {
+        if (DOMBuilder.JSOUP_NODE_KEY.equals(key)) {
+            return jsoupDocument;
+        }
+        return getUserData(this, key);
+    }
+
+    @Override
+    public String getBaseURI() {
+        return jsoupDocument.location();
+    }
+
+    // the document only has the root element as child, the fragment exposes the text nodes
+    // which may sit next to it
+
+    @Override
+    public NodeList getChildNodes() {
+        Element root = getDocumentElement();
+        if (root == null) {
+            return ViewNodeList.EMPTY;
+        }
+        return new ViewNodeList(Collections.<Node> singletonList(root));
+    }
+
+    @Override
+    public Node getFirstChild() {
+        return getDocumentElement();
+    }
+
+    @Override
+    public Node getLastChild() {
+        return getDocumentElement();
+    }
+
+    @Override
+    public String getNodeName() {
+        return "#document";
+    }
+
+    @Override
+    public short getNodeType() {
+        return DOCUMENT_NODE;
+    }
+
+    @Override
+    public Document getOwnerDocument() {
+        return null;
+    }
+
+    @Override
+    public DocumentType getDoctype() {
+        return null;
+    }
+
+    @Override
+    public DOMImplementation getImplementation() {
+        return null;
+    }
+
+    @Override
+    public Element getDocumentElement() {
+        for (int i = 0; i < jsoupDocument.childNodeSize(); i++) {
+            org.jsoup.nodes.Node child = jsoupDocument.childNode(i);
+            if (child instanceof org.jsoup.nodes.Element) {
+                return (Element) wrap(child);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Element createElement(String tagName) {
+        throw readOnly();
+    }
+
+    @Override
+    public DocumentFragment createDocumentFragment() {
+        throw readOnly();
+    }
+
+    @Override
+    public Text createTextNode(String data) {
+        throw readOnly();
+    }
+
+    @Override
+    public Comment createComment(String data) {
+        throw readOnly();
+    }
+
+    @Override
+    public CDATASection createCDATASection(String data) {
+        throw readOnly();
+    }
+
+    @Override
+    public ProcessingInstruction createProcessingInstruction(String target, String data) {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr createAttribute(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public EntityReference createEntityReference(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagName(String tagname) {
+        return getElementsByTagName(jsoupDocument, tagname);
+    }
+
+    @Override
+    public Node importNode(Node importedNode, boolean deep) {
+        throw readOnly();
+    }
+
+    @Override
+    public Element createElementNS(String namespaceURI, String qualifiedName) {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr createAttributeNS(String namespaceURI, String qualifiedName) {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+        return getElementsByTagName(jsoupDocument, localName);
+    }
+
+    @Override
+    public Element getElementById(String elementId) {
+        return (Element) wrap(jsoupDocument.getElementById(elementId));
+    }
+
+    @Override
+    public String getInputEncoding() {
+        return jsoupDocument.outputSettings().charset().name();
+    }
+
+    @Override
+    public String getXmlEncoding() {
+        return null;
+    }
+
+    @Override
+    public boolean getXmlStandalone() {
+        return false;
+    }
+
+    @Override
+    public void setXmlStandalone(boolean xmlStandalone) {
+        throw readOnly();
+    }
+
+    @Override
+    public String getXmlVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public void setXmlVersion(String xmlVersion) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean getStrictErrorChecking() {
+        return false;
+    }
+
+    @Override
+    public void setStrictErrorChecking(boolean strictErrorChecking) {
+        // never checks anything as nothing can be modified
+    }
+
+    @Override
+    public String getDocumentURI() {
+        return jsoupDocument.location();
+    }
+
+    @Override
+    public void setDocumentURI(String documentURI) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node adoptNode(Node source) {
+        throw readOnly();
+    }
+
+    @Override
+    public DOMConfiguration getDomConfig() {
+        return null;
+    }
+
+    @Override
+    public void normalizeDocument() {
+        // already normalized
+    }
+
+    @Override
+    public Node renameNode(Node n, String namespaceURI, String qualifiedName) {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeIterator createNodeIterator(Node root, int whatToShow, NodeFilter filter,
+            boolean entityReferenceExpansion) {
+        return new ViewNodeIterator(root, whatToShow, filter);
+    }
+
+    @Override
+    public TreeWalker createTreeWalker(Node root, int whatToShow, NodeFilter filter,
+            boolean entityReferenceExpansion) {
+        return new ViewTreeWalker(root, whatToShow, filter);
+    }
+}
@@ -0,0 +1,190 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.jsoup.nodes.Attribute;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.TypeInfo;
+
+/**
+ * Read-only {@link Element} view of a jsoup element. Names follow the conventions of the
+ * {@link org.apache.html.dom.HTMLDocumentImpl} built by {@link DOMBuilder#jsoup2HTML}: tag names
+ * are upper-cased and there are no namespaces.
+ */
+final class ViewElement extends ViewParentNode implements Element {
+
+    private final org.jsoup.nodes.Element element;
+
+    private final String tagName;
+
+    private volatile ViewAttributeMap attributes;
+
+    ViewElement(ViewDocument owner, org.jsoup.nodes.Element element) {
+        super(owner);
+        this.element = element;
+        this.tagName = element.tagName().toUpperCase(Locale.ENGLISH);
+    }
+
+    @Override
+    org.jsoup.nodes.Node jsoupNode() {
+        return element;
+    }
+
+    @Override
+    public String getNodeName() {
+        return tagName;
+    }
+
+    @Override
+    public short getNodeType() {
+        return ELEMENT_NODE;
+    }
+
+    @Override
+    public Node getParentNode() {
+        return owner.parent(element);
+    }
+
+    @Override
+    public Node getPreviousSibling() {
+        return owner.previousSibling(element);
+    }
+
+    @Override
+    public Node getNextSibling() {
+        return owner.nextSibling(element);
+    }
+
+    @Override
+    public NamedNodeMap getAttributes() {
+        return attributeMap();
+    }
+
+    @Override
+    public boolean hasAttributes() {
+        return attributeMap().getLength() > 0;
+    }
+
+    private ViewAttributeMap attributeMap() {
+        ViewAttributeMap map = attributes;
+        if (map == null) {
+            List<ViewAttr> list = new ArrayList<ViewAttr>(element.attributes().size());
+            for (Attribute a : element.attributes()) {
+                String attName = owner.attributeName(a.getKey());
+                if (attName != null) {
+                    list.add(new ViewAttr(owner, this, attName, a.getValue()));
+                }
+            }
+            map = new ViewAttributeMap(list.toArray(new ViewAttr[list.size()]));
+            attributes = map;
+        }
+        return map;
+    }
+
+    @Override
+    public String getTagName() {
+        return tagName;
+    }
+
+    @Override
+    public String getAttribute(String name) {
+        ViewAttr attribute = attributeMap().get(name);
+        return attribute == null ? "" : attribute.getValue();
+    }
+
+    @Override
+    public void setAttribute(String name, String value) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr getAttributeNode(String name) {
+        return attributeMap().get(name);
+    }
+
+    @Override
+    public Attr setAttributeNode(Attr newAttr) {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr removeAttributeNode(Attr oldAttr) {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagName(String name) {
+        return owner.getElementsByTagName(element, name);
+    }
+
+    @Override
+    public String getAttributeNS(String namespaceURI, String localName) {
+        return namespaceURI == null ? getAttribute(localName) : "";
+    }
+
+    @Override
+    public void setAttributeNS(String namespaceURI, String qualifiedName, String value) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAttributeNS(String namespaceURI, String localName) {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+        return namespaceURI == null ? attributeMap().get(localName) : null;
+    }
+
+    @Override
+    public Attr setAttributeNodeNS(Attr newAttr) {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+        return owner.getElementsByTagName(element, localName);
+    }
+
+    @Override
+    public boolean hasAttribute(String name) {
+        return attributeMap().get(name) != null;
+    }
+
+    @Override
+    public boolean hasAttributeNS(String namespaceURI, String localName) {
+        return namespaceURI == null && hasAttribute(localName);
+    }
+
+    @Override
+    public TypeInfo getSchemaTypeInfo() {
+        return null;
+    }
+
+    @Override
+    public void setIdAttribute(String name, boolean isId) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setIdAttributeNS(String namespaceURI, String localName, boolean isId) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setIdAttributeNode(Attr idAttr, boolean isId) {
+        throw readOnly();
+    }
+}
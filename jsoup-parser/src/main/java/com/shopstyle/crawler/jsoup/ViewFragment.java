@@ -0,0 +1,29 @@
+package com.shopstyle.crawler.jsoup;
+
+import org.w3c.dom.DocumentFragment;
+
+/**
+ * The {@link DocumentFragment} returned by {@link DOMBuilder#jsoup2View}. Its children are the
+ * top level elements of the jsoup document, as with {@link DOMBuilder#jsoup2HTML}.
+ */
+final class ViewFragment extends ViewParentNode implements DocumentFragment {
+
+    ViewFragment(ViewDocument owner) {
+        super(owner);
+    }
+
+    @Override
+    org.jsoup.nodes.Node jsoupNode() {
+        return owner.jsoupDocument;
+    }
+
+    @Override
+    public String getNodeName() {
+        return "#document-fragment";
+    }
+
+    @Override
+    public short getNodeType() {
+        return DOCUMENT_FRAGMENT_NODE;
+    }
+}
@@ -0,0 +1,269 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * Base class of the read-only W3C DOM view over a jsoup tree. All the structural mutators throw
+ * a {@link DOMException#NO_MODIFICATION_ALLOWED_ERR}; user data is the only thing which can be
+ * attached to a node.
+ */
+abstract class ViewNode implements Node {
+
+    final ViewDocument owner;
+
+    ViewNode(ViewDocument owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * @return the document this node belongs to
+     */
+    ViewDocument document() {
+        return owner;
+    }
+
+    /**
+     * @return the jsoup node backing this view or null if there is none (attributes)
+     */
+    abstract org.jsoup.nodes.Node jsoupNode();
+
+    static DOMException readOnly() {
+        return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR,
+                "The jsoup DOM view is read-only");
+    }
+
+    static DOMException notSupported() {
+        return new DOMException(DOMException.NOT_SUPPORTED_ERR,
+                "Operation not supported by the jsoup DOM view");
+    }
+
+    @Override
+    public String getNodeValue() {
+        return null;
+    }
+
+    @Override
+    public void setNodeValue(String nodeValue) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node getParentNode() {
+        return null;
+    }
+
+    @Override
+    public NodeList getChildNodes() {
+        return ViewNodeList.EMPTY;
+    }
+
+    @Override
+    public Node getFirstChild() {
+        return null;
+    }
+
+    @Override
+    public Node getLastChild() {
+        return null;
+    }
+
+    @Override
+    public Node getPreviousSibling() {
+        return null;
+    }
+
+    @Override
+    public Node getNextSibling() {
+        return null;
+    }
+
+    @Override
+    public NamedNodeMap getAttributes() {
+        return null;
+    }
+
+    @Override
+    public Document getOwnerDocument() {
+        return owner;
+    }
+
+    @Override
+    public Node insertBefore(Node newChild, Node refChild) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node replaceChild(Node newChild, Node oldChild) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node removeChild(Node oldChild) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node appendChild(Node newChild) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean hasChildNodes() {
+        return getFirstChild() != null;
+    }
+
+    @Override
+    public Node cloneNode(boolean deep) {
+        throw notSupported();
+    }
+
+    @Override
+    public void normalize() {
+        // text nodes are never adjacent in the view
+    }
+
+    @Override
+    public boolean isSupported(String feature, String version) {
+        return false;
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return null;
+    }
+
+    @Override
+    public String getPrefix() {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix) {
+        throw readOnly();
+    }
+
+    @Override
+    public String getLocalName() {
+        return null;
+    }
+
+    @Override
+    public boolean hasAttributes() {
+        return false;
+    }
+
+    @Override
+    public String getBaseURI() {
+        return document().jsoupDocument.location();
+    }
+
+    @Override
+    public short compareDocumentPosition(Node other) {
+        if (other == this) {
+            return 0;
+        }
+        ViewDocument document = document();
+        if (!(other instanceof ViewNode) || ((ViewNode) other).document() != document) {
+            return DOCUMENT_POSITION_DISCONNECTED | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC;
+        }
+        int order = document.compareOrder(this, (ViewNode) other);
+        if (order == 0) {
+            return DOCUMENT_POSITION_DISCONNECTED | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC;
+        }
+        short position = order < 0 ? DOCUMENT_POSITION_FOLLOWING : DOCUMENT_POSITION_PRECEDING;
+        if (document.isAncestor(this, other)) {
+            position |= DOCUMENT_POSITION_CONTAINED_BY;
+        } else if (document.isAncestor(other, this)) {
+            position |= DOCUMENT_POSITION_CONTAINS;
+        }
+        return position;
+    }
+
+    @Override
+    public String getTextContent() {
+        StringBuilder text = new StringBuilder();
+        // walk the descendants without recursing
+        Deque<Node> stack = new ArrayDeque<Node>();
+        Node child = getFirstChild();
+        while (child != null) {
+            if (child.getNodeType() == TEXT_NODE) {
+                text.append(child.getNodeValue());
+                child = child.getNextSibling();
+            } else {
+                Node first = child.getFirstChild();
+                if (first != null) {
+                    stack.push(child);
+                    child = first;
+                } else {
+                    child = child.getNextSibling();
+                }
+            }
+            while (child == null && !stack.isEmpty()) {
+                child = stack.pop().getNextSibling();
+            }
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void setTextContent(String textContent) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean isSameNode(Node other) {
+        return this == other;
+    }
+
+    @Override
+    public String lookupPrefix(String namespaceURI) {
+        return null;
+    }
+
+    @Override
+    public boolean isDefaultNamespace(String namespaceURI) {
+        return namespaceURI == null;
+    }
+
+    @Override
+    public String lookupNamespaceURI(String prefix) {
+        return null;
+    }
+
+    @Override
+    public boolean isEqualNode(Node arg) {
+        // views over the same jsoup node are always the same object
+        return this == arg;
+    }
+
+    @Override
+    public Object getFeature(String feature, String version) {
+        return null;
+    }
+
+    @Override
+    public Object setUserData(String key, Object data, UserDataHandler handler) {
+        return owner.setUserData(this, key, data);
+    }
+
+    @Override
+    public Object getUserData(String key) {
+        if (DOMBuilder.JSOUP_NODE_KEY.equals(key)) {
+            return jsoupNode();
+        }
+        return owner.getUserData(this, key);
+    }
+
+    @Override
+    public String toString() {
+        return getNodeName();
+    }
+}
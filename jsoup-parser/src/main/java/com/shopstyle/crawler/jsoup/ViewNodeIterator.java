@@ -0,0 +1,131 @@
+package com.shopstyle.crawler.jsoup;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Node;
+import org.w3c.dom.traversal.NodeFilter;
+import org.w3c.dom.traversal.NodeIterator;
+
+/**
+ * {@link NodeIterator} over the jsoup DOM view. The view can't be modified so there is no need
+ * to track removals.
+ */
+final class ViewNodeIterator implements NodeIterator {
+
+    private final Node root;
+
+    private final int whatToShow;
+
+    private final NodeFilter filter;
+
+    private Node reference;
+
+    private boolean pointerBeforeReference = true;
+
+    ViewNodeIterator(Node root, int whatToShow, NodeFilter filter) {
+        if (root == null) {
+            throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Root can't be null");
+        }
+        this.root = root;
+        this.whatToShow = whatToShow;
+        this.filter = filter;
+        this.reference = root;
+    }
+
+    @Override
+    public Node getRoot() {
+        return root;
+    }
+
+    @Override
+    public int getWhatToShow() {
+        return whatToShow;
+    }
+
+    @Override
+    public NodeFilter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public boolean getExpandEntityReferences() {
+        return false;
+    }
+
+    @Override
+    public Node nextNode() {
+        Node node = reference;
+        boolean before = pointerBeforeReference;
+        while (true) {
+            if (before) {
+                before = false;
+            } else {
+                node = following(node);
+                if (node == null) {
+                    return null;
+                }
+            }
+            if (ViewTreeWalker.accept(node, whatToShow, filter) == NodeFilter.FILTER_ACCEPT) {
+                break;
+            }
+        }
+        reference = node;
+        pointerBeforeReference = false;
+        return node;
+    }
+
+    @Override
+    public Node previousNode() {
+        Node node = reference;
+        boolean before = pointerBeforeReference;
+        while (true) {
+            if (before) {
+                node = preceding(node);
+                if (node == null) {
+                    return null;
+                }
+            } else {
+                before = true;
+            }
+            if (ViewTreeWalker.accept(node, whatToShow, filter) == NodeFilter.FILTER_ACCEPT) {
+                break;
+            }
+        }
+        reference = node;
+        pointerBeforeReference = true;
+        return node;
+    }
+
+    private Node following(Node node) {
+        Node child = node.getFirstChild();
+        if (child != null) {
+            return child;
+        }
+        while (node != null && node != root) {
+            Node sibling = node.getNextSibling();
+            if (sibling != null) {
+                return sibling;
+            }
+            node = node.getParentNode();
+        }
+        return null;
+    }
+
+    private Node preceding(Node node) {
+        if (node == root) {
+            return null;
+        }
+        Node sibling = node.getPreviousSibling();
+        if (sibling != null) {
+            while (sibling.getLastChild() != null) {
+                sibling = sibling.getLastChild();
+            }
+            return sibling;
+        }
+        return node.getParentNode();
+    }
+
+    @Override
+    public void detach() {
+        // nothing to release
+    }
+}
@@ -0,0 +1,34 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Immutable {@link NodeList}; the view never changes so there is no need for a live list.
+ */
+final class ViewNodeList implements NodeList {
+
+    static final ViewNodeList EMPTY = new ViewNodeList(Collections.<Node> emptyList());
+
+    private final List<Node> nodes;
+
+    ViewNodeList(List<Node> nodes) {
+        this.nodes = nodes;
+    }
+
+    @Override
+    public Node item(int index) {
+        if (index < 0 || index >= nodes.size()) {
+            return null;
+        }
+        return nodes.get(index);
+    }
+
+    @Override
+    public int getLength() {
+        return nodes.size();
+    }
+}
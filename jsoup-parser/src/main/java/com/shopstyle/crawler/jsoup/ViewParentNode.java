@@ -0,0 +1,53 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A view node which exposes the children of a jsoup node. Only elements and text nodes are
+ * visible, which is what {@link DOMBuilder#jsoup2HTML} copies.
+ */
+abstract class ViewParentNode extends ViewNode {
+
+    private volatile NodeList childNodes;
+
+    ViewParentNode(ViewDocument owner) {
+        super(owner);
+    }
+
+    @Override
+    public NodeList getChildNodes() {
+        NodeList children = childNodes;
+        if (children == null) {
+            org.jsoup.nodes.Node parent = jsoupNode();
+            List<Node> visible = new ArrayList<Node>(parent.childNodeSize());
+            for (int i = 0; i < parent.childNodeSize(); i++) {
+                Node child = document().wrap(parent.childNode(i));
+                if (child != null) {
+                    visible.add(child);
+                }
+            }
+            children = new ViewNodeList(visible);
+            childNodes = children;
+        }
+        return children;
+    }
+
+    @Override
+    public Node getFirstChild() {
+        return document().firstChild(jsoupNode());
+    }
+
+    @Override
+    public Node getLastChild() {
+        return document().lastChild(jsoupNode());
+    }
+
+    @Override
+    public boolean hasChildNodes() {
+        return getFirstChild() != null;
+    }
+}
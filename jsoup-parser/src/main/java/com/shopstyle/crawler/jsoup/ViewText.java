@@ -0,0 +1,129 @@
+package com.shopstyle.crawler.jsoup;
+
+import org.jsoup.nodes.TextNode;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * Read-only {@link Text} view of a jsoup {@link TextNode}. Like {@link DOMBuilder} it exposes the
+ * normalised text of the node.
+ */
+final class ViewText extends ViewNode implements Text {
+
+    private final TextNode text;
+
+    private String data;
+
+    ViewText(ViewDocument owner, TextNode text) {
+        super(owner);
+        this.text = text;
+    }
+
+    @Override
+    org.jsoup.nodes.Node jsoupNode() {
+        return text;
+    }
+
+    @Override
+    public String getNodeName() {
+        return "#text";
+    }
+
+    @Override
+    public short getNodeType() {
+        return TEXT_NODE;
+    }
+
+    @Override
+    public String getNodeValue() {
+        return getData();
+    }
+
+    @Override
+    public Node getParentNode() {
+        return owner.parent(text);
+    }
+
+    @Override
+    public Node getPreviousSibling() {
+        return owner.previousSibling(text);
+    }
+
+    @Override
+    public Node getNextSibling() {
+        return owner.nextSibling(text);
+    }
+
+    @Override
+    public String getTextContent() {
+        return getData();
+    }
+
+    @Override
+    public String getData() {
+        if (data == null) {
+            data = text.text();
+        }
+        return data;
+    }
+
+    @Override
+    public void setData(String data) {
+        throw readOnly();
+    }
+
+    @Override
+    public int getLength() {
+        return getData().length();
+    }
+
+    @Override
+    public String substringData(int offset, int count) {
+        String value = getData();
+        if (offset < 0 || offset > value.length() || count < 0) {
+            throw new DOMException(DOMException.INDEX_SIZE_ERR, "Invalid offset or count");
+        }
+        return value.substring(offset, Math.min(value.length(), offset + count));
+    }
+
+    @Override
+    public void appendData(String arg) {
+        throw readOnly();
+    }
+
+    @Override
+    public void insertData(int offset, String arg) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteData(int offset, int count) {
+        throw readOnly();
+    }
+
+    @Override
+    public void replaceData(int offset, int count, String arg) {
+        throw readOnly();
+    }
+
+    @Override
+    public Text splitText(int offset) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean isElementContentWhitespace() {
+        return false;
+    }
+
+    @Override
+    public String getWholeText() {
+        return getData();
+    }
+
+    @Override
+    public Text replaceWholeText(String content) {
+        throw readOnly();
+    }
+}
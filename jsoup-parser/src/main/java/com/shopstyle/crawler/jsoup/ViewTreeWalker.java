@@ -0,0 +1,239 @@
+package com.shopstyle.crawler.jsoup;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Node;
+import org.w3c.dom.traversal.NodeFilter;
+import org.w3c.dom.traversal.TreeWalker;
+
+/**
+ * {@link TreeWalker} over the jsoup DOM view, following the algorithms of the DOM traversal
+ * specification. Only relies on the navigation methods of {@link Node}.
+ */
+final class ViewTreeWalker implements TreeWalker {
+
+    private final Node root;
+
+    private final int whatToShow;
+
+    private final NodeFilter filter;
+
+    private Node current;
+
+    ViewTreeWalker(Node root, int whatToShow, NodeFilter filter) {
+        if (root == null) {
+            throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Root can't be null");
+        }
+        this.root = root;
+        this.whatToShow = whatToShow;
+        this.filter = filter;
+        this.current = root;
+    }
+
+    static short accept(Node node, int whatToShow, NodeFilter filter) {
+        if ((whatToShow & (1 << (node.getNodeType() - 1))) == 0) {
+            return NodeFilter.FILTER_SKIP;
+        }
+        if (filter == null) {
+            return NodeFilter.FILTER_ACCEPT;
+        }
+        return filter.acceptNode(node);
+    }
+
+    private short accept(Node node) {
+        return accept(node, whatToShow, filter);
+    }
+
+    @Override
+    public Node getRoot() {
+        return root;
+    }
+
+    @Override
+    public int getWhatToShow() {
+        return whatToShow;
+    }
+
+    @Override
+    public NodeFilter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public boolean getExpandEntityReferences() {
+        return false;
+    }
+
+    @Override
+    public Node getCurrentNode() {
+        return current;
+    }
+
+    @Override
+    public void setCurrentNode(Node currentNode) {
+        if (currentNode == null) {
+            throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Current node can't be null");
+        }
+        current = currentNode;
+    }
+
+    @Override
+    public Node parentNode() {
+        Node node = current;
+        while (node != null && node != root) {
+            node = node.getParentNode();
+            if (node != null && accept(node) == NodeFilter.FILTER_ACCEPT) {
+                current = node;
+                return node;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Node firstChild() {
+        return traverseChildren(true);
+    }
+
+    @Override
+    public Node lastChild() {
+        return traverseChildren(false);
+    }
+
+    @Override
+    public Node previousSibling() {
+        return traverseSiblings(false);
+    }
+
+    @Override
+    public Node nextSibling() {
+        return traverseSiblings(true);
+    }
+
+    private Node traverseChildren(boolean first) {
+        Node node = first ? current.getFirstChild() : current.getLastChild();
+        while (node != null) {
+            short result = accept(node);
+            if (result == NodeFilter.FILTER_ACCEPT) {
+                current = node;
+                return node;
+            }
+            if (result == NodeFilter.FILTER_SKIP) {
+                Node child = first ? node.getFirstChild() : node.getLastChild();
+                if (child != null) {
+                    node = child;
+                    continue;
+                }
+            }
+            while (node != null) {
+                Node sibling = first ? node.getNextSibling() : node.getPreviousSibling();
+                if (sibling != null) {
+                    node = sibling;
+                    break;
+                }
+                Node parent = node.getParentNode();
+                if (parent == null || parent == root || parent == current) {
+                    return null;
+                }
+                node = parent;
+            }
+        }
+        return null;
+    }
+
+    private Node traverseSiblings(boolean next) {
+        Node node = current;
+        if (node == root) {
+            return null;
+        }
+        while (true) {
+            Node sibling = next ? node.getNextSibling() : node.getPreviousSibling();
+            while (sibling != null) {
+                node = sibling;
+                short result = accept(node);
+                if (result == NodeFilter.FILTER_ACCEPT) {
+                    current = node;
+                    return node;
+                }
+                sibling = next ? node.getFirstChild() : node.getLastChild();
+                if (result == NodeFilter.FILTER_REJECT || sibling == null) {
+                    sibling = next ? node.getNextSibling() : node.getPreviousSibling();
+                }
+            }
+            node = node.getParentNode();
+            if (node == null || node == root) {
+                return null;
+            }
+            if (accept(node) == NodeFilter.FILTER_ACCEPT) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public Node previousNode() {
+        Node node = current;
+        while (node != root) {
+            Node sibling = node.getPreviousSibling();
+            while (sibling != null) {
+                node = sibling;
+                short result = accept(node);
+                while (result != NodeFilter.FILTER_REJECT && node.hasChildNodes()) {
+                    node = node.getLastChild();
+                    result = accept(node);
+                }
+                if (result == NodeFilter.FILTER_ACCEPT) {
+                    current = node;
+                    return node;
+                }
+                sibling = node.getPreviousSibling();
+            }
+            Node parent = node.getParentNode();
+            if (node == root || parent == null) {
+                return null;
+            }
+            node = parent;
+            if (accept(node) == NodeFilter.FILTER_ACCEPT) {
+                current = node;
+                return node;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Node nextNode() {
+        Node node = current;
+        short result = NodeFilter.FILTER_ACCEPT;
+        while (true) {
+            while (result != NodeFilter.FILTER_REJECT && node.hasChildNodes()) {
+                node = node.getFirstChild();
+                result = accept(node);
+                if (result == NodeFilter.FILTER_ACCEPT) {
+                    current = node;
+                    return node;
+                }
+            }
+            Node sibling = null;
+            Node temp = node;
+            while (temp != null) {
+                if (temp == root) {
+                    return null;
+                }
+                sibling = temp.getNextSibling();
+                if (sibling != null) {
+                    break;
+                }
+                temp = temp.getParentNode();
+            }
+            if (sibling == null) {
+                return null;
+            }
+            node = sibling;
+            result = accept(node);
+            if (result == NodeFilter.FILTER_ACCEPT) {
+                current = node;
+                return node;
+            }
+        }
+    }
+}
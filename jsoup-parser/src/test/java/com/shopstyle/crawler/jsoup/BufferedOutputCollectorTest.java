@@ -0,0 +1,72 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferedOutputCollectorTest {
+
+    @Test
+    public void testReplay() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        OutputCollector target = new OutputCollector(new IOutputCollector() {
+            @Override
+            public List<Integer> emit(String streamId, Collection<Tuple> anchors,
+                    List<Object> tuple) {
+                calls.add("emit " + streamId + " " + tuple);
+                return null;
+            }
+
+            @Override
+            public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors,
+                    List<Object> tuple) {
+                calls.add("emitDirect " + taskId + " " + tuple);
+            }
+
+            @Override
+            public void ack(Tuple input) {
+                calls.add("ack");
+            }
+
+            @Override
+            public void fail(Tuple input) {
+                calls.add("fail");
+            }
+
+            @Override
+            public void reportError(Throwable error) {
+                calls.add("error " + error.getMessage());
+            }
+        });
+
+        BufferedOutputCollector buffer = new BufferedOutputCollector();
+        OutputCollector collector = new OutputCollector(buffer);
+        collector.emit("status", (Tuple) null, new Values("a"));
+        collector.emitDirect(3, (Tuple) null, new Values("b"));
+        collector.emit((Tuple) null, new Values("c"));
+        collector.ack(null);
+        collector.reportError(new Exception("oops"));
+        collector.fail(null);
+        Assert.assertTrue(calls.isEmpty());
+        Assert.assertTrue(buffer.isAckedOrFailed(null));
+
+        buffer.replay(target);
+        Assert.assertEquals(Arrays.asList("emit status [a]", "emitDirect 3 [b]", "emit default [c]",
+                "ack", "error oops", "fail"), calls);
+
+        // nothing left
+        calls.clear();
+        buffer.replay(target);
+        Assert.assertTrue(calls.isEmpty());
+        Assert.assertFalse(buffer.isAckedOrFailed(null));
+    }
+}
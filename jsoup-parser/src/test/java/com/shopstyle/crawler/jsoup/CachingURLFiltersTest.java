@@ -0,0 +1,78 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.net.URL;
+import java.util.Map;
+
+import backtype.storm.metric.api.MultiCountMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.filtering.URLFilters;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingURLFiltersTest {
+
+    @Test
+    public void testHitsAndEviction() throws Exception {
+        MultiCountMetric counter = new MultiCountMetric();
+        CachingURLFilters filters =
+                new CachingURLFilters(URLFilters.emptyURLFilters, 2, 60000, counter);
+        URL source = new URL("http://x.com/page1");
+        URL otherPage = new URL("http://x.com/page2");
+        URL otherHost = new URL("http://y.com/page1");
+        Metadata metadata = new Metadata();
+
+        Assert.assertEquals("http://x.com/a", filters.filter(source, metadata, "http://x.com/a"));
+        // same host
+        Assert.assertEquals("http://x.com/a", filters.filter(otherPage, metadata, "http://x.com/a"));
+        Assert.assertEquals("http://x.com/a", filters.filter(otherHost, metadata, "http://x.com/a"));
+        Assert.assertEquals("http://x.com/b", filters.filter(source, metadata, "http://x.com/b"));
+        Assert.assertEquals(2, filters.size());
+        // least recently used, evicted by the last one
+        filters.filter(source, metadata, "http://x.com/a");
+
+        Map<String, Long> counts = (Map<String, Long>) counter.getValueAndReset();
+        Assert.assertEquals(Long.valueOf(1), counts.get("urlfilter_cache_hit"));
+        Assert.assertEquals(Long.valueOf(4), counts.get("urlfilter_cache_miss"));
+    }
+
+    @Test
+    public void testTTL() throws Exception {
+        MultiCountMetric counter = new MultiCountMetric();
+        CachingURLFilters filters =
+                new CachingURLFilters(URLFilters.emptyURLFilters, 10, 0, counter);
+        URL source = new URL("http://x.com/page1");
+        filters.filter(source, new Metadata(), "http://x.com/a");
+        filters.filter(source, new Metadata(), "http://x.com/a");
+
+        Map<String, Long> counts = (Map<String, Long>) counter.getValueAndReset();
+        Assert.assertNull(counts.get("urlfilter_cache_hit"));
+        Assert.assertEquals(Long.valueOf(2), counts.get("urlfilter_cache_miss"));
+    }
+
+    @Test
+    public void testFiltered() throws Exception {
+        URLFilters urlFilters = mock(URLFilters.class);
+        when(urlFilters.filter(any(URL.class), any(Metadata.class), eq("http://x.com/a")))
+                .thenReturn(null);
+        MultiCountMetric counter = new MultiCountMetric();
+        CachingURLFilters filters = new CachingURLFilters(urlFilters, 10, 60000, counter);
+        URL source = new URL("http://x.com/page1");
+        Assert.assertNull(filters.filter(source, new Metadata(), "http://x.com/a"));
+        // the removal is cached too
+        Assert.assertNull(filters.filter(source, new Metadata(), "http://x.com/a"));
+        verify(urlFilters, times(1)).filter(any(URL.class), any(Metadata.class),
+                eq("http://x.com/a"));
+
+        Map<String, Long> counts = (Map<String, Long>) counter.getValueAndReset();
+        Assert.assertEquals(Long.valueOf(1), counts.get("urlfilter_cache_hit"));
+    }
+}
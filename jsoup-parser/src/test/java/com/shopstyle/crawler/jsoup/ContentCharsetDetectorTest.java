@@ -0,0 +1,86 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.MultiCountMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.protocol.HttpHeaders;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentCharsetDetectorTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static Metadata header(String contentType) {
+        Metadata metadata = new Metadata();
+        if (contentType != null) {
+            metadata.setValue(HttpHeaders.CONTENT_TYPE, contentType);
+        }
+        return metadata;
+    }
+
+    @Test
+    public void testBOM() {
+        Assert.assertEquals("UTF-8", ContentCharsetDetector.getCharsetFromBOM(new byte[] {
+                (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '<' }));
+        Assert.assertEquals("UTF-16LE", ContentCharsetDetector.getCharsetFromBOM(new byte[] {
+                (byte) 0xFF, (byte) 0xFE }));
+        Assert.assertNull(ContentCharsetDetector.getCharsetFromBOM(bytes("<html>")));
+    }
+
+    @Test
+    public void testMeta() {
+        Assert.assertEquals("ISO-8859-1", ContentCharsetDetector.getCharsetFromMeta(
+                bytes("<html><head><META charset='ISO-8859-1'></head>"), 4096));
+        Assert.assertEquals("windows-1252", ContentCharsetDetector.getCharsetFromMeta(
+                bytes("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1252\">"),
+                4096));
+        Assert.assertEquals("UTF-8", ContentCharsetDetector.getCharsetFromMeta(
+                bytes("<meta charset=utf-16>"), 4096));
+        // not in a meta tag
+        Assert.assertNull(ContentCharsetDetector.getCharsetFromMeta(
+                bytes("<meta name=x><p>charset=ISO-8859-1</p>"), 4096));
+        // unknown charset
+        Assert.assertNull(ContentCharsetDetector.getCharsetFromMeta(
+                bytes("<meta charset=\"nonsense\">"), 4096));
+        // beyond the sniffed bytes
+        Assert.assertNull(ContentCharsetDetector.getCharsetFromMeta(
+                bytes("<html><meta charset=\"ISO-8859-1\">"), 10));
+    }
+
+    @Test
+    public void testTiers() {
+        Map<String, Object> conf = new HashMap<String, Object>();
+        MultiCountMetric counter = new MultiCountMetric();
+        ContentCharsetDetector detector = new ContentCharsetDetector(conf, counter);
+
+        // meta wins over the header
+        Assert.assertEquals("ISO-8859-1", detector.getCharset(
+                bytes("<meta charset=\"ISO-8859-1\">"), header("text/html; charset=UTF-8")));
+        // header is trusted over ICU
+        Assert.assertEquals("UTF-8",
+                detector.getCharset(bytes("<p>café</p>"), header("text/html; charset=UTF-8")));
+        // ICU
+        Assert.assertNotNull(detector.getCharset(bytes("<p>hello</p>"), header("text/html")));
+
+        Map<String, Long> counts = (Map<String, Long>) counter.getValueAndReset();
+        Assert.assertEquals(Long.valueOf(1), counts.get("charset_meta"));
+        Assert.assertEquals(Long.valueOf(1), counts.get("charset_header"));
+        Assert.assertEquals(Long.valueOf(1), counts.get("charset_detected"));
+
+        conf.put("parser.charset.trustHeader", false);
+        conf.put("parser.charset.detect.minConfidence", 101);
+        conf.put("parser.charset.default", "ISO-8859-1");
+        detector = new ContentCharsetDetector(conf, counter);
+        Assert.assertEquals("UTF-8",
+                detector.getCharset(bytes("<p>hello</p>"), header("text/html; charset=UTF-8")));
+        Assert.assertEquals("ISO-8859-1", detector.getCharset(bytes("<p>hello</p>"), header(null)));
+    }
+}
@@ -0,0 +1,71 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentDecoderTest {
+
+    @Test
+    public void testSameAsJsoup() throws Exception {
+        ContentDecoder decoder = new ContentDecoder();
+        for (String file : new String[] { "dillards.com_503911007.html", "macy.com_1668293.html" }) {
+            byte[] content = read(file);
+            for (String charset : new String[] { "UTF-8", "ISO-8859-1" }) {
+                Document expected =
+                        Jsoup.parse(new ByteArrayInputStream(content), charset, "http://x.com/");
+                Document actual = decoder.parse(content, charset, "http://x.com/");
+                Assert.assertEquals(expected.outerHtml(), actual.outerHtml());
+                Assert.assertEquals(expected.outputSettings().charset(), actual.outputSettings()
+                        .charset());
+            }
+        }
+    }
+
+    private byte[] read(String file) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testBOM() throws Exception {
+        byte[] content = "\uFEFF<p>caf\u00e9</p>".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals("<p>caf\u00e9</p>", new ContentDecoder().decode(content, "UTF-8"));
+        content = "\uFEFF<p>caf\u00e9</p>".getBytes(StandardCharsets.UTF_16LE);
+        Assert.assertEquals("<p>caf\u00e9</p>", new ContentDecoder().decode(content, "UTF-16LE"));
+    }
+
+    @Test
+    public void testBufferReuse() throws Exception {
+        ContentDecoder decoder = new ContentDecoder();
+        Assert.assertEquals("<p>a longer document</p>",
+                decoder.decode("<p>a longer document</p>".getBytes(StandardCharsets.UTF_8), "UTF-8"));
+        Assert.assertEquals("<p>\u00e9</p>",
+                decoder.decode("<p>\u00e9</p>".getBytes(StandardCharsets.ISO_8859_1), "ISO-8859-1"));
+        // malformed input is replaced like Charset.decode() does
+        Assert.assertEquals("<p>\uFFFD</p>",
+                decoder.decode("<p>\u00e9</p>".getBytes(StandardCharsets.ISO_8859_1), "UTF-8"));
+    }
+
+    @Test
+    public void testLength() throws Exception {
+        byte[] content = "<p>caf\u00e9</p>".getBytes(StandardCharsets.UTF_8);
+        ContentDecoder decoder = new ContentDecoder();
+        Assert.assertEquals("<p>caf", decoder.decode(content, 6, "UTF-8"));
+        // cut in the middle of a char
+        Assert.assertEquals("<p>caf\uFFFD", decoder.decode(content, 7, "UTF-8"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentExtractorTest {
+
+    @Test
+    public void testDillards() throws Exception {
+        assertSameAsSelect("dillards.com_503911007.html",
+                "http://www.dillards.com/product/MICHAEL-Michael-Kors-Kempton-Small-Tote_301_-1_301_503911007");
+    }
+
+    @Test
+    public void testMacys() throws Exception {
+        assertSameAsSelect("macy.com_1668293.html",
+                "http://www1.macys.com/shop/product/calvin-klein-animal-print-faux-leather-inset-dress?ID=1668293&CategoryID=5449");
+    }
+
+    private void assertSameAsSelect(String contentFile, String url) throws Exception {
+        Document jsoupDoc;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(contentFile)) {
+            jsoupDoc = Jsoup.parse(in, null, url);
+        }
+
+        ContentExtractor extractor = new ContentExtractor(true, -1).extract(jsoupDoc);
+
+        // what the bolt used to do
+        Map<String, List<String>> links = new HashMap<String, List<String>>();
+        for (Element link : jsoupDoc.select("a[href]")) {
+            String targetURL = link.attr("abs:href");
+            String anchor = link.text();
+            if (StringUtils.isNotBlank(targetURL)) {
+                List<String> anchors = links.get(targetURL);
+                if (anchors == null) {
+                    anchors = new LinkedList<String>();
+                    links.put(targetURL, anchors);
+                }
+                if (StringUtils.isNotBlank(anchor)) {
+                    anchors.add(anchor);
+                }
+            }
+        }
+
+        Assert.assertFalse(links.isEmpty());
+        Assert.assertEquals(links, toMap(extractor.getLinks()));
+        Assert.assertEquals(jsoupDoc.body().text(), extractor.getText());
+        DOMBuilderTest.assertSameTree(DOMBuilder.jsoup2HTML(jsoupDoc), extractor.getFragment());
+
+        Assert.assertFalse(extractor.isDOMTruncated());
+
+        // the DOM within a budget, the links and the text are still complete
+        ContentExtractor truncated =
+                new ContentExtractor(true, -1, new ParseBudget(-1, -1, -1, -1, -1, 4, 1000),
+                        System.nanoTime()).extract(jsoupDoc);
+        Assert.assertTrue(truncated.isDOMTruncated());
+        Assert.assertEquals(links, toMap(truncated.getLinks()));
+        Assert.assertEquals(jsoupDoc.body().text(), truncated.getText());
+
+        // same links without their anchors
+        LinkAnchors noAnchors = new ContentExtractor(false, 0).extract(jsoupDoc).getLinks();
+        Assert.assertEquals(links.keySet(), toMap(noAnchors).keySet());
+        for (int link = 0; link < noAnchors.size(); link++) {
+            Assert.assertEquals(0, noAnchors.getAnchorCount(link));
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        String html =
+                "<html><body><p>first <a href=\"/a\">one <b>bold</b></a> <a href=\"/b\">two</a>"
+                        + " <a href=\"/a\">again</a></p><p>second paragraph</p></body></html>";
+        Document jsoupDoc = Jsoup.parse(html, "http://www.example.com/");
+
+        ContentExtractor extractor = extract(jsoupDoc, new ParseBudget(-1, -1, 1, 20, -1, 256, 100));
+        Assert.assertEquals(EnumSet.of(ParseBudget.Limit.OUTLINKS, ParseBudget.Limit.TEXT),
+                extractor.getExceeded());
+        Assert.assertEquals("first one bold two a", extractor.getText());
+        // the known link still gets its anchors
+        Map<String, List<String>> links = toMap(extractor.getLinks());
+        Assert.assertEquals(Collections.singleton("http://www.example.com/a"), links.keySet());
+        Assert.assertEquals(Arrays.asList("one bold", "again"),
+                links.get("http://www.example.com/a"));
+
+        // stops in the bold text of the first anchor, which keeps what it has
+        extractor = extract(jsoupDoc, new ParseBudget(-1, 10, -1, -1, -1, 256, 100));
+        Assert.assertEquals(EnumSet.of(ParseBudget.Limit.NODES), extractor.getExceeded());
+        Assert.assertEquals("first one bold", extractor.getText());
+        Assert.assertEquals(Arrays.asList("one bold"),
+                toMap(extractor.getLinks()).get("http://www.example.com/a"));
+
+        Assert.assertTrue(extract(jsoupDoc, ParseBudget.UNLIMITED).getExceeded().isEmpty());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        Document macys = parse("macy.com_1668293.html", "http://www1.macys.com/");
+        Document dillards = parse("dillards.com_503911007.html", "http://www.dillards.com/");
+        ContentExtractor expected = new ContentExtractor(true, -1).extract(dillards);
+
+        ContentExtractor reused = new ContentExtractor(-1);
+        reused.reset(true, new ParseBudget(-1, -1, -1, 100, -1, 256, 100), System.nanoTime())
+                .extract(macys);
+        Assert.assertFalse(reused.getExceeded().isEmpty());
+        reused.reset(true, ParseBudget.UNLIMITED, System.nanoTime()).extract(dillards);
+        Assert.assertTrue(reused.getExceeded().isEmpty());
+        Assert.assertEquals(toMap(expected.getLinks()), toMap(reused.getLinks()));
+        Assert.assertEquals(expected.getText(), reused.getText());
+        Assert.assertFalse(reused.isDOMTruncated());
+        DOMBuilderTest.assertSameTree(expected.getFragment(), reused.getFragment());
+
+        reused.reset(false, ParseBudget.UNLIMITED, System.nanoTime());
+        Assert.assertNull(reused.getFragment());
+        Assert.assertEquals(0, reused.getLinks().size());
+        Assert.assertEquals("", reused.getText());
+    }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        Document dillards = parse("dillards.com_503911007.html", "http://www.dillards.com/");
+        ContentExtractor extractor = new ContentExtractor(-1);
+        extractor.reset(false, true, ParseBudget.UNLIMITED, System.nanoTime()).extract(dillards);
+
+        // same as hashing the whole text at once
+        SimHash simHash = new SimHash();
+        String text = extractor.getText();
+        simHash.update(text, 0, text.length());
+        Assert.assertEquals(simHash.fingerprint(), extractor.getFingerprint());
+        Assert.assertEquals(simHash.getWords(), extractor.getFingerprintWords());
+        Assert.assertTrue(extractor.getFingerprintWords() > 100);
+    }
+
+    private Document parse(String contentFile, String url) throws Exception {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(contentFile)) {
+            return Jsoup.parse(in, null, url);
+        }
+    }
+
+    private static ContentExtractor extract(Document jsoupDoc, ParseBudget budget) {
+        return new ContentExtractor(true, -1, budget, System.nanoTime()).extract(jsoupDoc);
+    }
+
+    static Map<String, List<String>> toMap(LinkAnchors links) {
+        Map<String, List<String>> map = new HashMap<String, List<String>>();
+        for (int link = 0; link < links.size(); link++) {
+            if (links.getTarget(link) != null) {
+                map.put(links.getTarget(link), links.getAnchors(link));
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,117 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.HashMap;
+
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+public class DOMBuilderTest {
+
+    private static final String HTML = "<html xmlns:og=\"http://ogp.me/ns#\"><head>"
+            + "<meta property=\"og:title\" content=\"Tote\">"
+            + "<script>var x = 1;</script></head>"
+            + "<body><!-- comment --><div id=\"main\" fb:like=\"yes\" xmlns=\"http://www.w3.org/1999/xhtml\">"
+            + "Some   <b>bold</b> text<br>and more</div><p>last</p></body></html>";
+
+    @Test
+    public void testViewMatchesCopy() {
+        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(HTML, "http://www.example.com/");
+        DocumentFragment copy = DOMBuilder.jsoup2HTML(jsoupDoc);
+        DocumentFragment view = DOMBuilder.jsoup2View(jsoupDoc);
+        assertSameTree(copy, view);
+        Assert.assertEquals(copy.getTextContent(), view.getTextContent());
+    }
+
+    @Test
+    public void testViewIsReadOnly() {
+        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(HTML, "http://www.example.com/");
+        DocumentFragment view = DOMBuilder.jsoup2View(jsoupDoc);
+        Element main = view.getOwnerDocument().getElementById("main");
+        Assert.assertEquals("DIV", main.getTagName());
+        Assert.assertEquals("yes", main.getAttribute("fb_like"));
+        Assert.assertSame(jsoupDoc.getElementById("main"),
+                main.getUserData(DOMBuilder.JSOUP_NODE_KEY));
+        try {
+            main.setAttribute("class", "x");
+            Assert.fail("the view must be read-only");
+        } catch (org.w3c.dom.DOMException e) {
+            Assert.assertEquals(org.w3c.dom.DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+        }
+    }
+
+    @Test
+    public void testDeepNesting() {
+        org.jsoup.nodes.Document jsoupDoc = Document.createShell("http://www.example.com/");
+        org.jsoup.nodes.Element element = jsoupDoc.body();
+        for (int i = 0; i < 100000; i++) {
+            element = element.appendElement("div");
+        }
+        element.appendText("deep");
+        // no stack overflow
+        Node node = DOMBuilder.jsoup2HTML(jsoupDoc);
+        while (node.getLastChild() != null) {
+            node = node.getLastChild();
+        }
+        Assert.assertEquals("deep", node.getNodeValue());
+    }
+
+    @Test
+    public void testBudget() {
+        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(HTML, "http://www.example.com/");
+        HTMLDocumentImpl htmlDoc = new HTMLDocumentImpl();
+        DocumentFragment fragment = htmlDoc.createDocumentFragment();
+        Assert.assertTrue(DOMBuilder.createDOM(jsoupDoc, fragment, htmlDoc,
+                new HashMap<String, String>(), 5, 100));
+        assertSameTree(DOMBuilder.jsoup2HTML(jsoupDoc), fragment);
+
+        // html, body, div: the bold text is left out, not what follows it
+        fragment = htmlDoc.createDocumentFragment();
+        Assert.assertFalse(DOMBuilder.createDOM(jsoupDoc, fragment, htmlDoc,
+                new HashMap<String, String>(), 3, 100));
+        Assert.assertEquals("Some  textand morelast", fragment.getTextContent()
+                .replace("var x = 1;", ""));
+
+        fragment = htmlDoc.createDocumentFragment();
+        Assert.assertFalse(DOMBuilder.createDOM(jsoupDoc, fragment, htmlDoc,
+                new HashMap<String, String>(), 100, 4));
+        Element html = (Element) fragment.getFirstChild();
+        Assert.assertEquals(1, fragment.getChildNodes().getLength());
+        Assert.assertEquals("HEAD", html.getFirstChild().getNodeName());
+        Assert.assertEquals(1, html.getChildNodes().getLength());
+    }
+
+    static void assertSameTree(Node expected, Node actual) {
+        Assert.assertEquals(expected.getNodeType(), actual.getNodeType());
+        Assert.assertEquals(expected.getNodeName(), actual.getNodeName());
+        Assert.assertEquals(expected.getNodeValue(), actual.getNodeValue());
+        NamedNodeMap expectedAttributes = expected.getAttributes();
+        if (expectedAttributes != null) {
+            NamedNodeMap actualAttributes = actual.getAttributes();
+            Assert.assertEquals(expectedAttributes.getLength(), actualAttributes.getLength());
+            for (int i = 0; i < expectedAttributes.getLength(); i++) {
+                Node attribute = expectedAttributes.item(i);
+                Node other = actualAttributes.getNamedItem(attribute.getNodeName());
+                Assert.assertNotNull(attribute.getNodeName(), other);
+                Assert.assertEquals(attribute.getNodeValue(), other.getNodeValue());
+            }
+        }
+        Assert.assertEquals(expected.getChildNodes().getLength(), actual.getChildNodes()
+                .getLength());
+        Node expectedChild = expected.getFirstChild();
+        Node actualChild = actual.getFirstChild();
+        while (expectedChild != null) {
+            Assert.assertSame(actual, actualChild.getParentNode());
+            assertSameTree(expectedChild, actualChild);
+            expectedChild = expectedChild.getNextSibling();
+            actualChild = actualChild.getNextSibling();
+        }
+        Assert.assertNull(actualChild);
+    }
+}
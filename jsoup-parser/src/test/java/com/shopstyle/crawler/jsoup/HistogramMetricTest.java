@@ -0,0 +1,38 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramMetricTest {
+
+    @Test
+    public void testPercentiles() {
+        HistogramMetric histogram = new HistogramMetric();
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+        }
+        Map<String, Object> value = (Map<String, Object>) histogram.getValueAndReset();
+        Assert.assertEquals(100L, value.get("count"));
+        Assert.assertEquals(50.5, (Double) value.get("mean"), 0.001);
+        Assert.assertEquals(100L, value.get("max"));
+        // upper bounds of the buckets
+        Assert.assertEquals(64L, value.get("p50"));
+        Assert.assertEquals(100L, value.get("p95"));
+
+        value = (Map<String, Object>) histogram.getValueAndReset();
+        Assert.assertEquals(0L, value.get("count"));
+        Assert.assertNull(value.get("p50"));
+    }
+
+    @Test
+    public void testOverflow() {
+        HistogramMetric histogram = new HistogramMetric();
+        histogram.update(0);
+        histogram.update(10000000);
+        Map<String, Object> value = (Map<String, Object>) histogram.getValueAndReset();
+        Assert.assertEquals(1L, value.get("p50"));
+        Assert.assertEquals(10000000L, value.get("p99"));
+    }
+}
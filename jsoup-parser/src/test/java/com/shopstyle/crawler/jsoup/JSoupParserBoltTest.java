@@ -0,0 +1,405 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.metric.api.MultiCountMetric;
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+import com.digitalpebble.storm.crawler.parse.ParseFilter;
+import com.digitalpebble.storm.crawler.protocol.HttpHeaders;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.w3c.dom.DocumentFragment;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JSoupParserBoltTest {
+
+    /** Blocks while {@link #latch} is set, throws an error on the URLs with "error" */
+    public static class TestFilter implements ParseFilter {
+        static volatile CountDownLatch latch;
+
+        static final AtomicInteger entered = new AtomicInteger();
+
+        @Override
+        public void configure(Map stormConf, JsonNode filterParams) {
+        }
+
+        @Override
+        public void filter(String URL, byte[] content, DocumentFragment doc, Metadata metadata,
+                List<Outlink> outlinks) {
+            entered.incrementAndGet();
+            CountDownLatch await = latch;
+            if (await != null) {
+                try {
+                    await.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (URL.contains("error")) {
+                // not a RuntimeException, which the bolt sends to the status stream
+                throw new AssertionError(URL);
+            }
+            metadata.setValue("filtered", "true");
+        }
+
+        @Override
+        public boolean needsDOM() {
+            return false;
+        }
+    }
+
+    /** Throws when the counter {@link #failOn} is incremented */
+    private static class FailingCounter extends MultiCountMetric {
+        volatile String failOn;
+
+        @Override
+        public synchronized CountMetric scope(String key) {
+            if (key.equals(failOn)) {
+                throw new IllegalStateException(key);
+            }
+            return super.scope(key);
+        }
+    }
+
+    /** Records the calls in a readable form */
+    private static class RecordingCollector implements IOutputCollector {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            StringBuilder call = new StringBuilder("emit ").append(streamId);
+            for (Object value : tuple) {
+                call.append(' ');
+                if (value instanceof Metadata) {
+                    Metadata metadata = (Metadata) value;
+                    for (String key : new TreeSet<String>(metadata.keySet())) {
+                        call.append(key).append('=')
+                                .append(Arrays.toString(metadata.getValues(key))).append(';');
+                    }
+                } else if (value instanceof byte[]) {
+                    call.append(((byte[]) value).length).append(" bytes");
+                } else {
+                    call.append(value);
+                }
+            }
+            calls.add(call.toString());
+            return null;
+        }
+
+        @Override
+        public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors,
+                List<Object> tuple) {
+            calls.add("emitDirect " + streamId);
+        }
+
+        @Override
+        public void ack(Tuple input) {
+            calls.add("ack " + input.getStringByField("url"));
+        }
+
+        @Override
+        public void fail(Tuple input) {
+            calls.add("fail " + input.getStringByField("url"));
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+            calls.add("error " + error.getMessage());
+        }
+
+        int count(String call) {
+            return Collections.frequency(calls, call);
+        }
+    }
+
+    private JSoupParserBolt bolt;
+
+    private RecordingCollector output;
+
+    private FailingCounter counter;
+
+    /** the metrics registered by the bolt, by name */
+    private final Map<String, IMetric> metrics = new HashMap<String, IMetric>();
+
+    @After
+    public void tearDown() {
+        TestFilter.latch = null;
+        TestFilter.entered.set(0);
+        if (bolt != null) {
+            bolt.cleanup();
+        }
+    }
+
+    private void prepare(int threads, int maxInFlight) {
+        prepare(threads, maxInFlight, new HashMap<String, Object>());
+    }
+
+    private void prepare(int threads, int maxInFlight, Map<String, Object> conf) {
+        conf.put("parsefilters.config.file", "JSoupParserBoltTest.json");
+        conf.put("urlfilters.config.file", "JSoupParserBoltTest.json");
+        conf.put("parser.async.threads", threads);
+        conf.put("parser.async.maxInFlight", maxInFlight);
+
+        counter = new FailingCounter();
+        TopologyContext context = mock(TopologyContext.class);
+        when(context.registerMetric(anyString(), any(IMetric.class), anyInt())).thenAnswer(
+                new Answer<IMetric>() {
+                    @Override
+                    public IMetric answer(InvocationOnMock invocation) {
+                        if ("JSoupParserBolt".equals(invocation.getArguments()[0])) {
+                            return counter;
+                        }
+                        IMetric metric = (IMetric) invocation.getArguments()[1];
+                        metrics.put((String) invocation.getArguments()[0], metric);
+                        return metric;
+                    }
+                });
+
+        output = new RecordingCollector();
+        bolt = new JSoupParserBolt(false, threads > 0);
+        bolt.prepare(conf, context, new OutputCollector(output));
+    }
+
+    private static Tuple tuple(String url, byte[] content) {
+        Metadata metadata = new Metadata();
+        metadata.setValue(HttpHeaders.CONTENT_TYPE, "text/html");
+        Tuple tuple = mock(Tuple.class);
+        when(tuple.getStringByField("url")).thenReturn(url);
+        when(tuple.getBinaryByField("content")).thenReturn(content);
+        when(tuple.getValueByField("metadata")).thenReturn(metadata);
+        return tuple;
+    }
+
+    private static Tuple tuple(String url) {
+        return tuple(url, ("<html><body><p>Page " + url + "</p><a href=\"/next\">next</a>"
+                + "</body></html>").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Tuple page(String url, String text) {
+        return tuple(url, ("<html><body><p>" + text + "</p></body></html>")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return what was sent for the page on the default stream, null if nothing
+     */
+    private String parsed(String url) {
+        for (String call : output.calls) {
+            if (call.startsWith("emit default " + url + " ")) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    private byte[] resource(String name) throws Exception {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(name)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private List<String> run(int threads) throws Exception {
+        prepare(threads, 2);
+        bolt.execute(tuple("http://www1.macys.com/", resource("macy.com_1668293.html")));
+        bolt.execute(tuple("http://www.dillards.com/", resource("dillards.com_503911007.html")));
+        for (int i = 0; i < 5; i++) {
+            bolt.execute(tuple("http://x.com/" + i));
+        }
+        bolt.cleanup();
+        bolt = null;
+        // the pages can be sent in any order in asynchronous mode
+        List<String> calls = new ArrayList<String>(output.calls);
+        Collections.sort(calls);
+        return calls;
+    }
+
+    @Test
+    public void testAsynchronousOutput() throws Exception {
+        List<String> sync = run(0);
+        List<String> async = run(3);
+        Assert.assertTrue(sync.contains("ack http://www1.macys.com/"));
+        Assert.assertTrue(sync.contains("ack http://x.com/4"));
+        // with the outlinks
+        Assert.assertTrue(sync.size() > 100);
+        Assert.assertEquals(sync, async);
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        prepare(2, 2);
+        TestFilter.latch = new CountDownLatch(1);
+        bolt.execute(tuple("http://x.com/1"));
+        bolt.execute(tuple("http://x.com/2"));
+
+        Thread third = new Thread() {
+            @Override
+            public void run() {
+                bolt.execute(tuple("http://x.com/3"));
+            }
+        };
+        third.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (TestFilter.entered.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // the third tuple waits for room
+        third.join(300);
+        Assert.assertTrue(third.isAlive());
+        Assert.assertEquals(2, TestFilter.entered.get());
+        Assert.assertEquals(0, output.calls.size());
+
+        TestFilter.latch.countDown();
+        third.join(10000);
+        Assert.assertFalse(third.isAlive());
+        bolt.cleanup();
+        Assert.assertEquals(3, TestFilter.entered.get());
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertEquals(1, output.count("ack http://x.com/" + i));
+        }
+        for (String call : output.calls) {
+            Assert.assertFalse(call, call.startsWith("fail"));
+        }
+    }
+
+    @Test
+    public void testWorkerException() throws Exception {
+        prepare(1, 1);
+        bolt.execute(tuple("http://x.com/error"));
+        bolt.execute(tuple("http://x.com/ok"));
+        bolt.cleanup();
+        Assert.assertTrue(output.calls.contains("error http://x.com/error"));
+        Assert.assertEquals(1, output.count("fail http://x.com/error"));
+        Assert.assertEquals(0, output.count("ack http://x.com/error"));
+        Assert.assertEquals(1, output.count("ack http://x.com/ok"));
+    }
+
+    @Test
+    public void testExceptionAfterAck() throws Exception {
+        prepare(1, 1);
+        counter.failOn = "tuple_success";
+        bolt.execute(tuple("http://x.com/page"));
+        bolt.cleanup();
+        // acked once and not failed
+        Assert.assertTrue(output.calls.contains("error tuple_success"));
+        Assert.assertEquals(1, output.count("ack http://x.com/page"));
+        Assert.assertEquals(0, output.count("fail http://x.com/page"));
+    }
+
+    private static final String RED = "red green blue yellow purple orange black white pink brown";
+
+    private static final String ONE = "one two three four five six seven eight nine ten";
+
+    private static final String ALPHA =
+            "alpha beta gamma delta epsilon zeta eta theta iota kappa";
+
+    private void prepareNearDuplicates(boolean skip) {
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put("parser.cache.maxBytes", 1000000);
+        conf.put("parser.nearDuplicates.hosts", 1);
+        conf.put("parser.nearDuplicates.minWords", 1);
+        conf.put("parser.nearDuplicates.skip", skip);
+        prepare(0, 0, conf);
+    }
+
+    @Test
+    public void testNearDuplicatesInCache() throws Exception {
+        prepareNearDuplicates(false);
+        bolt.execute(page("http://x.com/a", RED));
+        bolt.execute(page("http://x.com/b", RED));
+        Assert.assertTrue(parsed("http://x.com/b").contains(
+                JSoupParserBolt.NEAR_DUPLICATE_KEY_NAME + "=[http://x.com/a]"));
+
+        // a changed, b comes from the cache and isn't a near duplicate any more
+        bolt.execute(page("http://x.com/a", ONE));
+        output.calls.clear();
+        bolt.execute(page("http://x.com/b", RED));
+        Assert.assertFalse(parsed("http://x.com/b").contains(
+                JSoupParserBolt.NEAR_DUPLICATE_KEY_NAME));
+        Assert.assertTrue(parsed("http://x.com/b").contains(JSoupParserBolt.SIMHASH_KEY_NAME));
+
+        // x.com is forgotten, then b comes from the cache after a near duplicate of it
+        bolt.execute(page("http://y.com/a", ALPHA));
+        bolt.execute(page("http://x.com/c", RED));
+        output.calls.clear();
+        bolt.execute(page("http://x.com/b", RED));
+        Assert.assertTrue(parsed("http://x.com/b").contains(
+                JSoupParserBolt.NEAR_DUPLICATE_KEY_NAME + "=[http://x.com/c]"));
+        Map<?, ?> cache = (Map<?, ?>) metrics.get("parse_cache").getValueAndReset();
+        Assert.assertEquals(2L, cache.get("hits"));
+    }
+
+    @Test
+    public void testNearDuplicateSkippedInCache() throws Exception {
+        prepareNearDuplicates(true);
+        bolt.execute(page("http://x.com/a", RED));
+        bolt.execute(page("http://y.com/a", ALPHA));
+        bolt.execute(page("http://x.com/b", RED));
+        output.calls.clear();
+        // from the cache
+        bolt.execute(page("http://x.com/a", RED));
+        Assert.assertNull(parsed("http://x.com/a"));
+        Assert.assertEquals(2, output.calls.size());
+        Assert.assertTrue(output.calls.get(0).startsWith("emit status http://x.com/a "));
+        Assert.assertTrue(output.calls.get(0).endsWith(" FETCHED"));
+        Assert.assertEquals("ack http://x.com/a", output.calls.get(1));
+    }
+
+    @Test
+    public void testURLFiltersCache() throws Exception {
+        // ignored unless the filters don't depend on the metadata
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put("urlfilters.cache.size", 10);
+        prepare(0, 0, conf);
+        bolt.execute(tuple("http://x.com/1"));
+        bolt.execute(tuple("http://x.com/2"));
+        Map<?, ?> counts = (Map<?, ?>) counter.getValueAndReset();
+        Assert.assertNull(counts.get("urlfilter_cache_miss"));
+        Assert.assertNull(counts.get("urlfilter_cache_hit"));
+        bolt.cleanup();
+
+        conf.put("urlfilters.metadataIndependent", true);
+        prepare(0, 0, conf);
+        bolt.execute(tuple("http://x.com/1"));
+        bolt.execute(tuple("http://x.com/2"));
+        counts = (Map<?, ?>) counter.getValueAndReset();
+        Assert.assertEquals(1L, counts.get("urlfilter_cache_miss"));
+        Assert.assertEquals(1L, counts.get("urlfilter_cache_hit"));
+    }
+}
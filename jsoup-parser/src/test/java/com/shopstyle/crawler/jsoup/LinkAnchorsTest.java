@@ -0,0 +1,89 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LinkAnchorsTest {
+
+    @Test
+    public void testDedupe() {
+        LinkAnchors links = new LinkAnchors(-1);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i, links.add("http://x.com/" + i));
+        }
+        Assert.assertEquals(10, links.add("http://x.com/10"));
+        links.addAnchor(10, "a");
+        links.addAnchor(10, "b");
+        Assert.assertEquals(1000, links.size());
+        Assert.assertEquals(1000, links.count());
+        Assert.assertEquals(Arrays.asList("a", "b"), links.getAnchors(10));
+        Assert.assertEquals("a", links.getFirstAnchor(10));
+        Assert.assertEquals(Collections.emptyList(), links.getAnchors(11));
+        Assert.assertNull(links.getFirstAnchor(11));
+    }
+
+    @Test
+    public void testClear() {
+        LinkAnchors links = new LinkAnchors(-1);
+        for (int size : new int[] { 100, LinkAnchors.MAX_RETAINED_LINKS * 2, 3 }) {
+            for (int i = 0; i < size; i++) {
+                links.addAnchor(links.add("http://x.com/" + i), "anchor " + i);
+            }
+            Assert.assertEquals(size, links.count());
+            Assert.assertEquals(Arrays.asList("anchor 2"), links.getAnchors(2));
+            links.clear();
+            Assert.assertEquals(0, links.size());
+            Assert.assertEquals(0, links.count());
+            Assert.assertEquals(-1, links.indexOf("http://x.com/2"));
+        }
+        Assert.assertEquals(0, links.add("http://x.com/new"));
+        Assert.assertEquals(Collections.emptyList(), links.getAnchors(0));
+    }
+
+    @Test
+    public void testMaxAnchors() {
+        LinkAnchors links = new LinkAnchors(2);
+        int link = links.add("http://x.com/");
+        links.addAnchor(link, "a");
+        links.addAnchor(link, "b");
+        Assert.assertFalse(links.acceptsAnchor(link));
+        links.addAnchor(link, "c");
+        Assert.assertEquals(Arrays.asList("a", "b"), links.getAnchors(link));
+    }
+
+    @Test
+    public void testFilter() {
+        LinkAnchors links = new LinkAnchors(3);
+        links.addAnchor(links.add("http://x.com/a?sid=1"), "a1");
+        links.addAnchor(links.add("http://x.com/b"), "b");
+        links.addAnchor(links.add("http://x.com/a?sid=2"), "a2");
+        links.addAnchor(links.add("http://x.com/drop"), "drop");
+        links.addAnchor(links.add("http://x.com/a"), "a3");
+        links.addAnchor(links.add("http://x.com/a?sid=3"), "a4");
+
+        links.filter(new LinkAnchors.TargetFilter() {
+            @Override
+            public String filter(String target) {
+                if (target.endsWith("drop")) {
+                    return null;
+                }
+                int query = target.indexOf('?');
+                return query == -1 ? target : target.substring(0, query);
+            }
+        });
+
+        Assert.assertEquals(2, links.count());
+        Assert.assertEquals("http://x.com/a", links.getTarget(0));
+        Assert.assertEquals(Arrays.asList("a1", "a2", "a3"), links.getAnchors(0));
+        Assert.assertEquals("http://x.com/b", links.getTarget(1));
+        for (int i = 2; i < links.size(); i++) {
+            Assert.assertNull(links.getTarget(i));
+        }
+        // still deduplicated on the new targets
+        Assert.assertEquals(0, links.add("http://x.com/a"));
+        Assert.assertEquals(6, links.add("http://x.com/a?sid=1"));
+    }
+}
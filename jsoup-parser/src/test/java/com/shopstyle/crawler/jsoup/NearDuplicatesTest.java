@@ -0,0 +1,49 @@
+package com.shopstyle.crawler.jsoup;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearDuplicatesTest {
+
+    @Test
+    public void testFind() {
+        NearDuplicates duplicates = new NearDuplicates(2, 2, 3);
+        long fingerprint = 0x0123456789abcdefL;
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/red", fingerprint));
+        // 3 bits apart
+        Assert.assertEquals("http://x.com/red",
+                duplicates.find("x.com", "http://x.com/blue", fingerprint ^ 0x13));
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/other", fingerprint ^ 0xf));
+        // only within the same host
+        Assert.assertNull(duplicates.find("y.com", "http://y.com/red", fingerprint));
+        // the same page again
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/red", fingerprint ^ 0x10));
+
+        // the oldest fingerprint of the host is replaced
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/third", ~fingerprint));
+        Assert.assertEquals("http://x.com/other",
+                duplicates.find("x.com", "http://x.com/again", fingerprint ^ 0xf));
+        // near red, which is gone
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/pink", fingerprint ^ 0x30));
+
+        // the least recently used host is forgotten
+        Assert.assertNull(duplicates.find("z.com", "http://z.com/red", fingerprint));
+        Assert.assertNull(duplicates.find("y.com", "http://y.com/blue", fingerprint));
+    }
+
+    @Test
+    public void testChangedPage() {
+        NearDuplicates duplicates = new NearDuplicates(2, 3, 3);
+        long fingerprint = 0x0123456789abcdefL;
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/red", fingerprint));
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/other", fingerprint ^ 0xff));
+        // the page changed since, its fingerprint is replaced
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/red", ~fingerprint));
+        Assert.assertEquals("http://x.com/red",
+                duplicates.find("x.com", "http://x.com/copy", ~fingerprint ^ 0x1));
+        Assert.assertNull(duplicates.find("x.com", "http://x.com/old", fingerprint));
+        // and compared to the other pages
+        Assert.assertEquals("http://x.com/other",
+                duplicates.find("x.com", "http://x.com/red", fingerprint ^ 0xfe));
+    }
+}
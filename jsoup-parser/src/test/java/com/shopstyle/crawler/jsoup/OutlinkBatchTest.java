@@ -0,0 +1,85 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutlinkBatchTest {
+
+    private static Outlink outlink(String target, Metadata metadata, String... anchors) {
+        Outlink outlink = new Outlink(target);
+        if (anchors.length > 0) {
+            outlink.setAnchor(anchors[0]);
+            metadata.addValues(JSoupParserBolt.ANCHORS_KEY_NAME, Arrays.asList(anchors));
+        }
+        outlink.setMetadata(metadata);
+        return outlink;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Metadata inherited = new Metadata();
+        inherited.setValue("url.path", "http://x.com/");
+        inherited.setValue("depth", "1");
+
+        List<Outlink> outlinks = new ArrayList<Outlink>();
+        Metadata same = new Metadata();
+        same.putAll(inherited);
+        outlinks.add(outlink("http://x.com/a", same, "a", "first a"));
+        Metadata other = new Metadata();
+        other.setValue("url.path", "http://x.com/");
+        other.setValue("depth", "2");
+        other.setValue("extra", "e");
+        outlinks.add(outlink("http://x.com/b", other));
+
+        byte[] batch = OutlinkBatch.write(inherited, outlinks);
+        List<Outlink> read = OutlinkBatch.read(inherited, batch);
+        Assert.assertEquals(2, read.size());
+
+        Outlink a = read.get(0);
+        Assert.assertEquals("http://x.com/a", a.getTargetURL());
+        Assert.assertEquals("a", a.getAnchor());
+        Assert.assertArrayEquals(new String[] { "a", "first a" },
+                a.getMetadata().getValues(JSoupParserBolt.ANCHORS_KEY_NAME));
+        Assert.assertEquals("1", a.getMetadata().getFirstValue("depth"));
+        Assert.assertEquals(3, a.getMetadata().size());
+
+        // the differences with the inherited metadata are kept, removals included
+        Outlink b = read.get(1);
+        Assert.assertEquals("http://x.com/b", b.getTargetURL());
+        Assert.assertNull(b.getAnchor());
+        Assert.assertEquals("2", b.getMetadata().getFirstValue("depth"));
+        Assert.assertEquals("e", b.getMetadata().getFirstValue("extra"));
+        Assert.assertNull(b.getMetadata().getValues(JSoupParserBolt.ANCHORS_KEY_NAME));
+        Assert.assertEquals(3, b.getMetadata().size());
+
+        // the outlinks don't share their metadata with the batch
+        Assert.assertEquals(2, inherited.size());
+        a.getMetadata().setValue("depth", "5");
+        Assert.assertEquals("1", OutlinkBatch.read(inherited, batch).get(0).getMetadata()
+                .getFirstValue("depth"));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        Metadata inherited = new Metadata();
+        List<Outlink> outlinks = new ArrayList<Outlink>();
+        outlinks.add(outlink("http://x.com/a", new Metadata(), "a"));
+        byte[] batch = OutlinkBatch.write(inherited, outlinks);
+        Assert.assertTrue(OutlinkBatch.read(inherited, OutlinkBatch.write(inherited,
+                new ArrayList<Outlink>())).isEmpty());
+        try {
+            OutlinkBatch.read(inherited, Arrays.copyOf(batch, batch.length - 1));
+            Assert.fail("truncated batch read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
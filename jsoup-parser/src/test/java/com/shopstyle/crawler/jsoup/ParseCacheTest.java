@@ -0,0 +1,136 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParseCacheTest {
+
+    private static final String URL = "http://x.com/page";
+
+    private static byte[] entry(String text) throws Exception {
+        return CachedParse.write(text, 0, 0, CachedParse.snapshot(new Metadata()), new Metadata(),
+                new ArrayList<Outlink>(), null, JSoupParserBolt.ANCHORS_KEY_NAME);
+    }
+
+    @Test
+    public void testMurmur3() {
+        // reference values of MurmurHash3_x64_128 with a seed of 0
+        long[] hash =
+                ParseCache.murmur3("The quick brown fox jumps over the lazy dog"
+                        .getBytes(StandardCharsets.UTF_8), 0);
+        Assert.assertEquals(0xe34bbc7bbc071b6cL, hash[0]);
+        Assert.assertEquals(0x7a433ca9c49a9347L, hash[1]);
+        Assert.assertArrayEquals(new long[] { 0, 0 }, ParseCache.murmur3(new byte[0], 0));
+    }
+
+    @Test
+    public void testHitsAndEviction() throws Exception {
+        ParseCache cache = new ParseCache(1000);
+        byte[] content = "<html>page</html>".getBytes(StandardCharsets.UTF_8);
+        Assert.assertNull(cache.get(ParseCache.key(URL, content)));
+        cache.put(ParseCache.key(URL, content), entry("page"));
+
+        // same content in another array
+        CachedParse cached = cache.get(ParseCache.key(URL, content.clone()));
+        Assert.assertEquals("page", cached.getText());
+        // different content or URL
+        Assert.assertNull(cache.get(ParseCache.key(URL, "<html>page 2</html>"
+                .getBytes(StandardCharsets.UTF_8))));
+        Assert.assertNull(cache.get(ParseCache.key("http://x.com/other", content)));
+
+        Map<String, Object> values = (Map<String, Object>) cache.getValueAndReset();
+        Assert.assertEquals(1L, values.get("hits"));
+        Assert.assertEquals(3L, values.get("misses"));
+        Assert.assertEquals(0.25, (Double) values.get("hit_ratio"), 0.001);
+        Assert.assertEquals((long) content.length, values.get("bytes_saved"));
+
+        // the least recently used entries go first
+        byte[] large = new byte[400];
+        for (int i = 0; i < 3; i++) {
+            cache.put(ParseCache.key(URL + i, content), entry(new String(large) + i));
+            cache.get(ParseCache.key(URL, content));
+        }
+        Assert.assertEquals(3, cache.size());
+        Assert.assertNotNull(cache.get(ParseCache.key(URL, content)));
+        Assert.assertNull(cache.get(ParseCache.key(URL + 0, content)));
+        Assert.assertNotNull(cache.get(ParseCache.key(URL + 2, content)));
+        values = (Map<String, Object>) cache.getValueAndReset();
+        Assert.assertEquals(1L, values.get("evictions"));
+        Assert.assertTrue((Long) values.get("bytes") <= 1000);
+
+        // larger than the cache
+        cache.put(ParseCache.key(URL, large), entry(new String(new byte[2000])));
+        Assert.assertNull(cache.get(ParseCache.key(URL, large)));
+    }
+
+    @Test
+    public void testCachedParse() throws Exception {
+        Metadata metadata = new Metadata();
+        metadata.setValue("kept", "1");
+        metadata.setValue("changed", "1");
+        metadata.setValue("removed", "1");
+        Map<String, String[]> before = CachedParse.snapshot(metadata);
+        metadata.addValue("changed", "2");
+        metadata.remove("removed");
+        metadata.setValue("added", "1");
+
+        Outlink outlink = new Outlink("http://x.com/a");
+        outlink.setAnchor("first");
+        Metadata linkMetadata = new Metadata();
+        linkMetadata.addValues(JSoupParserBolt.ANCHORS_KEY_NAME, Arrays.asList("first", "second"));
+        outlink.setMetadata(linkMetadata);
+        List<Outlink> outlinks = Arrays.asList(outlink, new Outlink("http://x.com/b"));
+
+        // longer than what writeUTF can take
+        char[] text = new char[70000];
+        Arrays.fill(text, 'é');
+        byte[] structured = { 1, 2, 3 };
+        byte[] entry =
+                CachedParse.write(new String(text), 0x0123456789abcdefL, 42, before, metadata,
+                        outlinks, structured, JSoupParserBolt.ANCHORS_KEY_NAME);
+
+        CachedParse cached = CachedParse.read(entry);
+        Assert.assertEquals(new String(text), cached.getText());
+        Assert.assertEquals(0x0123456789abcdefL, cached.getFingerprint());
+        Assert.assertEquals(42, cached.getWords());
+        Assert.assertArrayEquals(structured, cached.getStructured());
+        Assert.assertEquals(2, cached.getOutlinks().size());
+        CachedParse.Link link = cached.getOutlinks().get(0);
+        Assert.assertEquals("http://x.com/a", link.target);
+        Assert.assertEquals("first", link.anchor);
+        Assert.assertEquals(Arrays.asList("first", "second"), link.anchors);
+        link = cached.getOutlinks().get(1);
+        Assert.assertNull(link.anchor);
+        Assert.assertTrue(link.anchors.isEmpty());
+
+        // the page fetched again
+        Metadata refetched = new Metadata();
+        refetched.setValue("kept", "2");
+        refetched.setValue("changed", "1");
+        refetched.setValue("removed", "1");
+        cached.applyTo(refetched);
+        Assert.assertEquals("2", refetched.getFirstValue("kept"));
+        Assert.assertArrayEquals(new String[] { "1", "2" }, refetched.getValues("changed"));
+        Assert.assertNull(refetched.getValues("removed"));
+        Assert.assertEquals("1", refetched.getFirstValue("added"));
+
+        for (int length = 0; length < entry.length; length += 997) {
+            try {
+                CachedParse.read(Arrays.copyOf(entry, length));
+                Assert.fail("Read an entry truncated to " + length + " bytes");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParseContextTest {
+
+    @Test
+    public void testDeflate() throws Exception {
+        ParseContext context = new ParseContext(-1);
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            page.append("<li><a href=\"/product/").append(i).append("\">Product ").append(i)
+                    .append("</a></li>\n");
+        }
+        byte[] content = page.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = context.deflate(content, Deflater.BEST_SPEED);
+        Assert.assertTrue(deflated.length < content.length / 4);
+        Assert.assertArrayEquals(content, JSoupParserBolt.inflate(deflated));
+        context.release();
+
+        // random bytes get larger, the buffer has to grow
+        byte[] random = new byte[100000];
+        new Random(0).nextBytes(random);
+        Assert.assertArrayEquals(random,
+                JSoupParserBolt.inflate(context.deflate(random, Deflater.BEST_COMPRESSION)));
+        Assert.assertArrayEquals(new byte[0],
+                JSoupParserBolt.inflate(context.deflate(new byte[0], Deflater.BEST_SPEED)));
+
+        try {
+            JSoupParserBolt.inflate(Arrays.copyOf(deflated, deflated.length / 2));
+            Assert.fail("truncated content inflated");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
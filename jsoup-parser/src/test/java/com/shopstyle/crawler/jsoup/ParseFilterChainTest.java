@@ -0,0 +1,146 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import backtype.storm.metric.api.IMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+import com.digitalpebble.storm.crawler.parse.ParseFilter;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+
+public class ParseFilterChainTest {
+
+    public static class TestFilter implements ParseFilter, IMetric {
+        /** the filters which await wait for each other */
+        static volatile CountDownLatch latch;
+
+        private String key;
+        private boolean needsDOM;
+        private boolean await;
+        private String remove;
+        private String failOn;
+        private long calls;
+
+        @Override
+        public void configure(Map stormConf, JsonNode filterParams) {
+            key = filterParams.get("key").textValue();
+            needsDOM = filterParams.has("needsDOM") && filterParams.get("needsDOM").booleanValue();
+            await = filterParams.has("await") && filterParams.get("await").booleanValue();
+            remove = filterParams.has("remove") ? filterParams.get("remove").textValue() : null;
+            failOn = filterParams.has("failOn") ? filterParams.get("failOn").textValue() : null;
+        }
+
+        @Override
+        public void filter(String URL, byte[] content, DocumentFragment doc, Metadata metadata,
+                List<Outlink> outlinks) {
+            if (await) {
+                latch.countDown();
+                try {
+                    if (!latch.await(10, TimeUnit.SECONDS)) {
+                        metadata.addValue("timeout", key);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (URL.equals(failOn)) {
+                throw new IllegalStateException(key);
+            }
+            metadata.addValue("filters", key);
+            if (remove != null) {
+                metadata.remove(remove);
+            }
+            calls++;
+        }
+
+        @Override
+        public Object getValueAndReset() {
+            long value = calls;
+            calls = 0;
+            return value;
+        }
+
+        @Override
+        public boolean needsDOM() {
+            return needsDOM;
+        }
+    }
+
+    @Test
+    public void testChain() throws Exception {
+        MultiHistogramMetric histograms = new MultiHistogramMetric();
+        ParseFilterChain chain =
+                new ParseFilterChain(new HashMap(), "ParseFilterChainTest.json", histograms);
+        Assert.assertTrue(chain.needsDOM());
+
+        Metadata metadata = new Metadata();
+        chain.filter("http://x.com/", new byte[0], null, metadata, null);
+        Assert.assertArrayEquals(new String[] { "a", "b" }, metadata.getValues("filters"));
+
+        Map<String, Map<String, Object>> values =
+                (Map<String, Map<String, Object>>) histograms.getValueAndReset();
+        Assert.assertEquals(1L, values.get("parsefilter.first").get("count"));
+        // named after the class by default
+        Assert.assertEquals(1L,
+                values.get("parsefilter.ParseFilterChainTest$TestFilter").get("count"));
+
+        Map<String, IMetric> metrics = chain.getMetrics();
+        Assert.assertEquals(2, metrics.size());
+        Assert.assertEquals(1L, metrics.get("parsefilter.first").getValueAndReset());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        Map conf = new HashMap();
+        conf.put("parsefilters.concurrent.threads", 2);
+        ParseFilterChain chain =
+                new ParseFilterChain(conf, "ParseFilterChainConcurrentTest.json",
+                        new MultiHistogramMetric());
+        Assert.assertTrue(chain.isConcurrent());
+
+        Metadata metadata = new Metadata();
+        metadata.setValue("filters", "start");
+        metadata.setValue("obsolete", "x");
+        metadata.setValue("kept", "y");
+        List<Outlink> outlinks = new ArrayList<Outlink>();
+        TestFilter.latch = new CountDownLatch(2);
+        chain.filter("http://x.com/", new byte[0], null, metadata, outlinks);
+
+        // both were running at the same time
+        Assert.assertNull(metadata.getValues("timeout"));
+        // merged in the order of the configuration
+        Assert.assertArrayEquals(new String[] { "start", "a", "b", "c", "d" },
+                metadata.getValues("filters"));
+        Assert.assertNull(metadata.getValues("obsolete"));
+        Assert.assertEquals("y", metadata.getFirstValue("kept"));
+    }
+
+    @Test
+    public void testConcurrentFailure() throws Exception {
+        Map conf = new HashMap();
+        conf.put("parsefilters.concurrent.threads", 2);
+        ParseFilterChain chain =
+                new ParseFilterChain(conf, "ParseFilterChainConcurrentTest.json",
+                        new MultiHistogramMetric());
+        Metadata metadata = new Metadata();
+        TestFilter.latch = new CountDownLatch(2);
+        try {
+            chain.filter("http://x.com/fail", new byte[0], null, metadata, null);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("b", e.getMessage());
+            // nothing is merged, not even what the other filter did
+            Assert.assertNull(metadata.getValues("filters"));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.util.Map;
+
+import backtype.storm.metric.api.MultiCountMetric;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecentOutlinksTest {
+
+    @Test
+    public void testTimeToLive() {
+        MultiCountMetric counter = new MultiCountMetric();
+        RecentOutlinks recent = new RecentOutlinks(1024, 0.01, 1000, counter);
+        long now = System.currentTimeMillis();
+
+        Assert.assertFalse(recent.seen("http://x.com/a", now));
+        Assert.assertTrue(recent.seen("http://x.com/a", now));
+        Assert.assertFalse(recent.seen("http://x.com/b", now));
+
+        // still in the previous filter after a rotation
+        Assert.assertTrue(recent.seen("http://x.com/a", now + 1000));
+        Assert.assertFalse(recent.seen("http://x.com/c", now + 1000));
+        // gone after the second one, not c which was added after the first one
+        Assert.assertFalse(recent.seen("http://x.com/a", now + 2000));
+        Assert.assertTrue(recent.seen("http://x.com/c", now + 2000));
+
+        Assert.assertTrue(((Map<String, Long>) counter.getValueAndReset()).isEmpty());
+    }
+
+    @Test
+    public void testFull() {
+        MultiCountMetric counter = new MultiCountMetric();
+        RecentOutlinks recent = new RecentOutlinks(1024, 0.01, Long.MAX_VALUE, counter);
+        long now = System.currentTimeMillis();
+        long capacity = recent.getCapacity();
+        Assert.assertTrue(capacity > 100);
+
+        int falsePositives = 0;
+        for (int i = 0; i < capacity * 2; i++) {
+            if (recent.seen("http://x.com/" + i, now)) {
+                falsePositives++;
+            }
+        }
+        // the first half is in the previous filter
+        Assert.assertTrue(recent.seen("http://x.com/0", now));
+        Assert.assertTrue(recent.seen("http://x.com/" + (capacity * 2 - 1), now));
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < capacity * 0.05);
+
+        Map<String, Long> counts = (Map<String, Long>) counter.getValueAndReset();
+        Assert.assertEquals(Long.valueOf(1), counts.get("outlink_dedup_full"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.shopstyle.crawler.jsoup;
+
+import java.io.InputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.Jsoup;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimHashTest {
+
+    private static final String PRODUCT = "Free shipping on orders over $99. This classic crew "
+            + "neck sweater is knit from soft merino wool with ribbed cuffs and hem. Machine "
+            + "washable. Imported. Fits true to size, model is 6 feet tall and wears a medium. "
+            + "Reviews: 4.5 out of 5 stars, 87% of reviewers recommend this product. Add to bag, "
+            + "add to wish list, find in store. Customers also viewed: cardigans, turtlenecks, "
+            + "vests and pullovers from the same collection.";
+
+    private String text(String contentFile) throws Exception {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(contentFile)) {
+            return Jsoup.parse(in, null, "http://www.example.com/").body().text();
+        }
+    }
+
+    private static long fingerprint(String text) {
+        SimHash simHash = new SimHash();
+        simHash.update(text, 0, text.length());
+        return simHash.fingerprint();
+    }
+
+    @Test
+    public void testNearDuplicates() throws Exception {
+        String dillards = text("dillards.com_503911007.html");
+        long page = fingerprint(dillards);
+        // spacing and case don't matter
+        Assert.assertEquals(page, fingerprint(dillards.toUpperCase().replace(" ", "  ")));
+
+        // another variant of the product
+        String[] words = dillards.split(" ");
+        for (int i = 0; i < 10; i++) {
+            words[i * words.length / 10] = "variant" + i;
+        }
+        Assert.assertTrue(SimHash.distance(page, fingerprint(StringUtils.join(words, ' '))) <= 3);
+
+        Assert.assertTrue(SimHash.distance(page, fingerprint(text("macy.com_1668293.html"))) > 10);
+    }
+
+    @Test
+    public void testStreaming() {
+        SimHash simHash = new SimHash();
+        // words cut between the calls
+        for (int i = 0; i < PRODUCT.length(); i += 7) {
+            simHash.update(PRODUCT, i, Math.min(PRODUCT.length(), i + 7));
+        }
+        Assert.assertEquals(fingerprint(PRODUCT), simHash.fingerprint());
+        Assert.assertEquals(73, simHash.getWords());
+
+        simHash.reset();
+        Assert.assertEquals(0, simHash.fingerprint());
+        Assert.assertEquals(0, simHash.getWords());
+    }
+}
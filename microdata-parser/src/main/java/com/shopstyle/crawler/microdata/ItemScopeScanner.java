@@ -0,0 +1,69 @@
+package com.shopstyle.crawler.microdata;
+
+/**
+ * Looks for <tt>itemscope</tt> in the raw content of a page, ignoring the case, so that the pages
+ * without microdata don't get parsed. Uses Boyer-Moore-Horspool, which only looks at a fraction of
+ * the bytes. Works on the bytes of any charset in which ASCII characters are single bytes, the
+ * pages which look like UTF-16 or UTF-32 are assumed to contain it.
+ */
+final class ItemScopeScanner {
+
+    private static final byte[] NEEDLE = { 'i', 't', 'e', 'm', 's', 'c', 'o', 'p', 'e' };
+
+    /** by how much to move the needle when the byte under its last character doesn't match */
+    private static final int[] SHIFT = new int[256];
+
+    static {
+        int last = NEEDLE.length - 1;
+        for (int b = 0; b < SHIFT.length; b++) {
+            SHIFT[b] = NEEDLE.length;
+        }
+        for (int i = 0; i < last; i++) {
+            SHIFT[NEEDLE[i]] = last - i;
+            SHIFT[Character.toUpperCase(NEEDLE[i])] = last - i;
+        }
+    }
+
+    private ItemScopeScanner() {
+    }
+
+    /**
+     * @return false if the content can't contain an item scope
+     */
+    static boolean mayContainItemScope(byte[] content) {
+        if (isWide(content)) {
+            return true;
+        }
+        int last = NEEDLE.length - 1;
+        for (int pos = last; pos < content.length; pos += SHIFT[content[pos] & 0xff]) {
+            int i = last;
+            // all the characters of the needle are lower case letters
+            while ((content[pos - last + i] | 0x20) == NEEDLE[i]) {
+                if (i-- == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the content starts with a UTF-16 or UTF-32 byte order mark or has a null
+     *         byte among its first characters
+     */
+    private static boolean isWide(byte[] content) {
+        if (content.length >= 2) {
+            int first = content[0] & 0xff;
+            int second = content[1] & 0xff;
+            if ((first == 0xfe && second == 0xff) || (first == 0xff && second == 0xfe)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < content.length && i < 4; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,43 @@
+package com.shopstyle.crawler.microdata;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.DocumentFragment;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+
+/**
+ * Adds the items of the <tt>application/ld+json</tt> scripts to the metadata, with the same keys as
+ * the {@link MicrodataFilter}, see {@link StructuredDataFilter} for the parameters. The scripts
+ * are read from the jsoup document, as the W3C DOM doesn't have their content, the page is parsed
+ * again with jsoup if the DOM isn't a view of it.
+ */
+public class JsonLdFilter extends StructuredDataFilter {
+
+    private Logger log = LoggerFactory.getLogger(getClass());
+
+    @Override
+    public void filter(String URL, byte[] content, DocumentFragment doc, Metadata metadata,
+            List<Outlink> outLinks) {
+        StructuredDataRoots roots;
+        try {
+            roots = StructuredDataRoots.get(doc, content, URL);
+        } catch (IOException e) {
+            log.error("Error parsing JSON-LD {}", URL, e);
+            return;
+        }
+        if (roots.getJsonLdScripts().isEmpty()) {
+            return;
+        }
+        JsonLdParser parser = new JsonLdParser(paths);
+        for (Element script : roots.getJsonLdScripts()) {
+            parser.parse(script.data());
+        }
+        addItems(parser.getItems(), parser.getErrors(), doc, metadata);
+    }
+}
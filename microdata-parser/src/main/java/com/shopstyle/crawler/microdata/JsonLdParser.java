@@ -0,0 +1,206 @@
+package com.shopstyle.crawler.microdata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the items of JSON-LD scripts with the streaming parser of Jackson, without building a
+ * tree. The top level objects, or those of the <tt>@graph</tt>, are the top level items, their type
+ * is the local name of <tt>@type</tt> and the other keywords are ignored. Nested objects are nested
+ * items, unless they are value objects, numbers and booleans are typed and the other scalars are
+ * strings.
+ * <p>
+ * Not thread safe, one instance per page.
+ */
+final class JsonLdParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /** Objects and arrays nested deeper than this are skipped */
+    private static final int MAX_DEPTH = 32;
+
+    private final PropertyPaths paths;
+
+    private final List<MicrodataItem> items = new ArrayList<>();
+
+    private final List<String> errors = new ArrayList<>();
+
+    JsonLdParser(PropertyPaths paths) {
+        this.paths = paths;
+    }
+
+    /**
+     * Adds the items of a script to those already found
+     */
+    void parse(String json) {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            JsonToken token = parser.nextToken();
+            if (token != null) {
+                readTopLevel(parser, token, 0);
+            }
+        } catch (IOException e) {
+            errors.add("Invalid JSON-LD: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the top level items of the scripts parsed so far
+     */
+    List<MicrodataItem> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the problems found while parsing
+     */
+    List<String> getErrors() {
+        return errors;
+    }
+
+    private void readTopLevel(JsonParser parser, JsonToken token, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            parser.skipChildren();
+        } else if (token == JsonToken.START_ARRAY) {
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                readTopLevel(parser, token, depth + 1);
+            }
+        } else if (token == JsonToken.START_OBJECT) {
+            Object value = readObject(parser, depth, null);
+            if (value instanceof MicrodataItem) {
+                MicrodataItem item = (MicrodataItem) value;
+                if (!item.getProperties().isEmpty()) {
+                    items.add(item);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param itemPaths what to keep of the object, null for a top level object whose type isn't
+     *            known yet
+     * @return the item or the value of a value object, null if there is nothing to keep
+     */
+    private Object readObject(JsonParser parser, int depth, PropertyPaths itemPaths)
+            throws IOException {
+        boolean topLevel = itemPaths == null;
+        MicrodataItem item = new MicrodataItem(MicrodataItem.UNKNOWN_TYPE);
+        // the properties of top level items are kept until the type is known
+        List<String> pending = topLevel ? new ArrayList<String>() : null;
+        Object literal = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals("@type")) {
+                String type = readType(parser, token);
+                if (type != null) {
+                    item.setShortType(MicrodataItem.shortType(type));
+                }
+            } else if (name.equals("@value")) {
+                literal = token.isScalarValue() ? readScalar(parser, token) : null;
+                parser.skipChildren();
+            } else if (name.equals("@graph") && topLevel) {
+                readTopLevel(parser, token, depth + 1);
+            } else if (name.startsWith("@")) {
+                parser.skipChildren();
+            } else {
+                PropertyPaths valuePaths = topLevel ? PropertyPaths.ALL : itemPaths.get(name);
+                if (valuePaths == null) {
+                    parser.skipChildren();
+                } else {
+                    readValues(parser, token, depth + 1, valuePaths, item.getValues(name));
+                    if (pending != null) {
+                        pending.add(name);
+                    }
+                }
+            }
+        }
+        if (literal != null) {
+            return literal;
+        }
+        if (topLevel) {
+            // now that the type is known
+            PropertyPaths typePaths = paths.get(item.getShortType());
+            if (typePaths == null) {
+                return null;
+            }
+            if (typePaths != PropertyPaths.ALL) {
+                for (String name : pending) {
+                    if (typePaths.get(name) == null) {
+                        item.getProperties().remove(name);
+                    }
+                }
+            }
+        }
+        return item;
+    }
+
+    private void readValues(JsonParser parser, JsonToken token, int depth, PropertyPaths valuePaths,
+            List<Object> values) throws IOException {
+        if (depth > MAX_DEPTH) {
+            parser.skipChildren();
+        } else if (token == JsonToken.START_ARRAY) {
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                readValues(parser, token, depth + 1, valuePaths, values);
+            }
+        } else if (token == JsonToken.START_OBJECT) {
+            Object value = readObject(parser, depth, valuePaths);
+            if (value != null) {
+                values.add(value);
+            }
+        } else {
+            Object value = readScalar(parser, token);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+    }
+
+    /**
+     * @return the literal as a {@link Long}, a {@link Double}, a {@link Boolean} or a string, null
+     *         for null
+     */
+    private static Object readScalar(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+        case VALUE_NULL:
+            return null;
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_NUMBER_INT:
+            return parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER ? parser.getText()
+                    : (Object) parser.getLongValue();
+        case VALUE_NUMBER_FLOAT:
+            return parser.getDoubleValue();
+        default:
+            return parser.getText();
+        }
+    }
+
+    /**
+     * @return the first type, null if there is none
+     */
+    private static String readType(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        String type = null;
+        if (token == JsonToken.START_ARRAY) {
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (type == null && token == JsonToken.VALUE_STRING) {
+                    type = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else {
+            parser.skipChildren();
+        }
+        return type;
+    }
+}
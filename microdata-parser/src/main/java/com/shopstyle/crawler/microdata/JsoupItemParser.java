@@ -0,0 +1,350 @@
+package com.shopstyle.crawler.microdata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.nodes.Attributes;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * Reads the items of a syntax made of attributes, such as microdata or RDFa, from a jsoup document
+ * in a single walk over its nodes:
+ * <ul>
+ * <li>the top level items are those which aren't properties of an enclosing item</li>
+ * <li>the properties of an item are the property elements below it which aren't below a nested
+ * item, followed by those referenced by the item, if the syntax has references</li>
+ * <li>the value of a property depends on the syntax, it can be the nested item if the element is
+ * one</li>
+ * </ul>
+ * Elements without attributes are skipped right away. The values of the properties which aren't in
+ * the {@link PropertyPaths} are not read, nor are the items below them.
+ * <p>
+ * Not thread safe. An instance can be {@link #reset} to parse another document once the items and
+ * the errors of the previous one have been used, its lists are then reused.
+ */
+abstract class JsoupItemParser {
+
+    /** References nested deeper than this are considered to be a loop */
+    private static final int MAX_REFERENCE_DEPTH = 8;
+
+    /** The references of an item, resolved once the document has been walked */
+    private static final class Reference {
+        final MicrodataItem item;
+        final PropertyPaths paths;
+        final String ids;
+        final int depth;
+
+        Reference(MicrodataItem item, PropertyPaths paths, String ids, int depth) {
+            this.item = item;
+            this.paths = paths;
+            this.ids = ids;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Adds the properties found to the innermost item. The stack holds the open items, the
+     * elements which opened them and the properties to keep, null if none of them are.
+     */
+    private final class Walker implements NodeVisitor {
+        private final List<MicrodataItem> scopes = new ArrayList<>();
+        private final List<Element> scopeElements = new ArrayList<>();
+        private final List<PropertyPaths> scopePaths = new ArrayList<>();
+        private final int depth;
+
+        /**
+         * @param root the item the properties are added to, null when walking the document
+         * @param rootPaths the properties of the root item to keep
+         * @param depth number of references followed to get here
+         */
+        Walker(MicrodataItem root, PropertyPaths rootPaths, int depth) {
+            this.depth = depth;
+            if (root != null) {
+                scopes.add(root);
+                scopeElements.add(null);
+                scopePaths.add(rootPaths);
+            }
+        }
+
+        @Override
+        public void head(Node node, int nodeDepth) {
+            if (!(node instanceof Element)) {
+                return;
+            }
+            Attributes attributes = node.attributes();
+            if (attributes.size() == 0) {
+                return;
+            }
+            boolean isItem = isItem(attributes);
+            String names = getPropertyNames(attributes);
+            if (!isItem && names == null) {
+                return;
+            }
+            Element element = (Element) node;
+
+            int last = scopes.size() - 1;
+            PropertyPaths currentPaths = last >= 0 ? scopePaths.get(last) : null;
+
+            MicrodataItem nested = null;
+            PropertyPaths nestedPaths = null;
+            if (isItem) {
+                nested = new MicrodataItem(getShortType(attributes));
+                if (depth == 0 && isTopLevel(names != null, last >= 0)) {
+                    nestedPaths = paths.get(nested.getShortType());
+                    if (nestedPaths != null) {
+                        items.add(nested);
+                    }
+                }
+            }
+
+            if (names != null && currentPaths != null) {
+                String[] splitNames = StringUtils.split(names);
+                // what to keep of the value, only read if it is kept under one of its names
+                PropertyPaths valuePaths = null;
+                for (int i = 0; i < splitNames.length; i++) {
+                    splitNames[i] = getPropertyName(splitNames[i]);
+                    PropertyPaths namePaths = currentPaths.get(splitNames[i]);
+                    if (namePaths != null) {
+                        valuePaths = valuePaths == null || valuePaths == namePaths ? namePaths
+                                : PropertyPaths.ALL;
+                    }
+                }
+                Object value = valuePaths != null ? getValue(element, nested) : null;
+                if (value != null) {
+                    MicrodataItem current = scopes.get(last);
+                    for (String name : splitNames) {
+                        if (currentPaths.get(name) != null) {
+                            current.getValues(name).add(value);
+                        }
+                    }
+                    if (value == nested) {
+                        nestedPaths = valuePaths;
+                    }
+                }
+            }
+
+            if (isItem) {
+                String references = getReferences(attributes);
+                if (nestedPaths != null && references != null) {
+                    JsoupItemParser.this.references.add(new Reference(nested, nestedPaths,
+                            references, depth + 1));
+                }
+                // even if it isn't kept, its properties must not end up in the outer item
+                scopes.add(nested);
+                scopeElements.add(element);
+                scopePaths.add(nestedPaths);
+            }
+        }
+
+        void clear() {
+            scopes.clear();
+            scopeElements.clear();
+            scopePaths.clear();
+        }
+
+        @Override
+        public void tail(Node node, int nodeDepth) {
+            int last = scopeElements.size() - 1;
+            if (last >= 0 && scopeElements.get(last) == node) {
+                scopeElements.remove(last);
+                scopes.remove(last);
+                scopePaths.remove(last);
+            }
+        }
+    }
+
+    private Document document;
+
+    private List<? extends Element> roots;
+
+    private final PropertyPaths paths;
+
+    private final List<MicrodataItem> items = new ArrayList<>();
+
+    /** the problems found while parsing */
+    final List<String> errors = new ArrayList<>();
+
+    private final List<Reference> references = new ArrayList<>();
+
+    private Map<String, Element> elementsById;
+
+    /** walks the roots, its stacks are empty once it is done */
+    private final Walker walker = new Walker(null, null, 0);
+
+    private final NodeTraversor traversor = new NodeTraversor(walker);
+
+    /**
+     * @param roots the elements to walk, which must not be below each other
+     * @param paths the properties to read, the others are skipped
+     */
+    JsoupItemParser(Document document, List<? extends Element> roots, PropertyPaths paths) {
+        this.document = document;
+        this.roots = roots;
+        this.paths = paths;
+    }
+
+    /**
+     * Walks the whole document
+     */
+    JsoupItemParser(Document document, PropertyPaths paths) {
+        this(document, Collections.singletonList(document), paths);
+    }
+
+    /**
+     * Forgets the previous document, the lists it returned are cleared
+     *
+     * @param roots the elements to walk, which must not be below each other
+     */
+    void reset(Document document, List<? extends Element> roots) {
+        this.document = document;
+        this.roots = roots;
+        items.clear();
+        errors.clear();
+        references.clear();
+        elementsById = null;
+        walker.clear();
+    }
+
+    /**
+     * @return whether the element is an item
+     */
+    abstract boolean isItem(Attributes attributes);
+
+    /**
+     * @return the names of the properties of which the element is a value, separated by
+     *         whitespace, null if it isn't a property
+     */
+    abstract String getPropertyNames(Attributes attributes);
+
+    /**
+     * @return the name under which a property is stored
+     */
+    String getPropertyName(String name) {
+        return name;
+    }
+
+    /**
+     * @return see {@link MicrodataItem#getShortType()}
+     */
+    abstract String getShortType(Attributes attributes);
+
+    /**
+     * @param hasProperty whether the item is a property
+     * @param hasParent whether the item is below another one
+     * @return whether an item is a top level item
+     */
+    abstract boolean isTopLevel(boolean hasProperty, boolean hasParent);
+
+    /**
+     * @return the ids of the elements with more properties of the item, separated by whitespace,
+     *         null if it has none
+     */
+    String getReferences(Attributes attributes) {
+        return null;
+    }
+
+    /**
+     * @param nested the element as an item, null if it isn't one
+     * @return the value of the property, null if it can't be read
+     */
+    abstract Object getValue(Element element, MicrodataItem nested);
+
+    /**
+     * @return the top level items of the document
+     */
+    List<MicrodataItem> parse() {
+        for (Element root : roots) {
+            traversor.traverse(root);
+        }
+        // grows as the referenced elements can have items with references too
+        for (int i = 0; i < references.size(); i++) {
+            resolve(references.get(i));
+        }
+        return items;
+    }
+
+    /**
+     * @return the problems found while parsing
+     */
+    List<String> getErrors() {
+        return errors;
+    }
+
+    private void resolve(Reference reference) {
+        Set<String> seen = new HashSet<>();
+        for (String id : StringUtils.split(reference.ids)) {
+            if (!seen.add(id)) {
+                continue;
+            }
+            if (reference.depth > MAX_REFERENCE_DEPTH) {
+                errors.add(String.format(
+                        "Loop detected with depth %d while dereferencing itemProp '%s' .",
+                        reference.depth, id));
+                continue;
+            }
+            Element element = getElementById(id);
+            if (element == null) {
+                errors.add(String.format("Unknown itemProp id '%s'", id));
+                continue;
+            }
+            new NodeTraversor(new Walker(reference.item, reference.paths, reference.depth))
+                    .traverse(element);
+        }
+    }
+
+    /**
+     * @return the first element with this id, the index is built the first time it is needed
+     */
+    private Element getElementById(String id) {
+        if (elementsById == null) {
+            elementsById = new HashMap<>();
+            new NodeTraversor(new NodeVisitor() {
+                @Override
+                public void head(Node node, int depth) {
+                    if (node instanceof Element && node.attributes().hasKey("id")) {
+                        String value = node.attributes().get("id");
+                        if (!elementsById.containsKey(value)) {
+                            elementsById.put(value, (Element) node);
+                        }
+                    }
+                }
+
+                @Override
+                public void tail(Node node, int depth) {
+                }
+            }).traverse(document);
+        }
+        return elementsById.get(id);
+    }
+
+    /**
+     * @return the text of the element as returned by the W3C view of the document
+     */
+    static String getText(Element element) {
+        final StringBuilder text = new StringBuilder();
+        new NodeTraversor(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof TextNode) {
+                    text.append(((TextNode) node).text());
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+            }
+        }).traverse(element);
+        return text.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package com.shopstyle.crawler.microdata;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jsoup.nodes.Attributes;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Extracts the items described with RDFa Lite (<tt>typeof</tt> and <tt>property</tt>) from a jsoup
+ * document, as the {@link JsoupMicrodataParser} does for microdata:
+ * <ul>
+ * <li>the top level items are the <tt>typeof</tt> elements which aren't the value of a property of
+ * an enclosing item</li>
+ * <li>the types and the property names can be URLs or prefixed names, only their local name is
+ * kept, so that <tt>schema:Product</tt> gives the same keys as
+ * <tt>http://schema.org/Product</tt></li>
+ * <li>the value of a property is the nested item if the element is one, else its
+ * <tt>content</tt>, <tt>resource</tt>, <tt>href</tt>, <tt>src</tt> or <tt>datetime</tt>
+ * attribute, else its text, <tt>resource</tt>, <tt>href</tt> and <tt>src</tt> give links</li>
+ * </ul>
+ * The vocabulary isn't checked.
+ */
+final class JsoupRdfaParser extends JsoupItemParser {
+
+    private static final Set<String> SRC_TAGS = new HashSet<>(Arrays.asList("audio", "embed",
+            "iframe", "img", "source", "track", "video"));
+
+    private static final Set<String> HREF_TAGS = new HashSet<>(Arrays.asList("a", "area", "link"));
+
+    JsoupRdfaParser(Document document) {
+        super(document, PropertyPaths.ALL);
+    }
+
+    /**
+     * @param roots the outermost <tt>typeof</tt> elements
+     * @param paths the properties to read, the others are skipped
+     */
+    JsoupRdfaParser(Document document, List<Element> roots, PropertyPaths paths) {
+        super(document, roots, paths);
+    }
+
+    @Override
+    boolean isItem(Attributes attributes) {
+        return attributes.hasKey("typeof");
+    }
+
+    @Override
+    String getPropertyNames(Attributes attributes) {
+        return attributes.hasKey("property") ? attributes.get("property") : null;
+    }
+
+    @Override
+    String getPropertyName(String name) {
+        return MicrodataItem.localName(name);
+    }
+
+    @Override
+    String getShortType(Attributes attributes) {
+        String[] types = attributes.get("typeof").trim().split("\\s+");
+        return MicrodataItem.shortType(types[0]);
+    }
+
+    @Override
+    boolean isTopLevel(boolean hasProperty, boolean hasParent) {
+        return !hasProperty || !hasParent;
+    }
+
+    @Override
+    Object getValue(Element element, MicrodataItem nested) {
+        if (nested != null) {
+            return nested;
+        }
+        Attributes attributes = element.attributes();
+        if (attributes.hasKey("content")) {
+            return attributes.get("content");
+        }
+        if (attributes.hasKey("resource")) {
+            return new MicrodataItem.Link(attributes.get("resource"));
+        }
+        String tag = element.tagName();
+        if (HREF_TAGS.contains(tag) && attributes.hasKey("href")) {
+            return new MicrodataItem.Link(attributes.get("href"));
+        }
+        if (SRC_TAGS.contains(tag) && attributes.hasKey("src")) {
+            return new MicrodataItem.Link(attributes.get("src"));
+        }
+        if (tag.equals("time") && attributes.hasKey("datetime")) {
+            return attributes.get("datetime");
+        }
+        return getText(element);
+    }
+}
@@ -0,0 +1,167 @@
+package com.shopstyle.crawler.microdata;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The metadata keys of the items, <tt>microdata.&lt;type&gt;.&lt;property&gt;</tt> and below, built
+ * once and shared by all the pages instead of being concatenated for every value. The keys are
+ * kept in a trie of prefixes: each {@link Prefix} has the keys of its properties and the prefixes
+ * of the items nested in them, with or without a numerical index.
+ * <p>
+ * As the property names come from the pages, at most <tt>maxSize</tt> prefixes and keys are kept,
+ * everything is dropped when there are more and the cache fills up again with the keys in use.
+ * Thread safe.
+ */
+final class MetadataKeys {
+
+    private final int maxSize;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile ConcurrentMap<String, Prefix> types = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize the number of prefixes and keys to keep, 0 to build them every time
+     */
+    MetadataKeys(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the prefix of the top level items of this type, <tt>microdata.&lt;type&gt;.</tt>
+     */
+    Prefix type(String shortType) {
+        ConcurrentMap<String, Prefix> current = types;
+        Prefix prefix = current.get(shortType);
+        if (prefix == null) {
+            prefix = new Prefix("microdata." + shortType + '.', maxSize > 0);
+            prefix = cache(current, shortType, prefix);
+        }
+        return prefix;
+    }
+
+    /**
+     * @return the value now in the map, which is only added to if there is room left
+     */
+    private <T> T cache(ConcurrentMap<String, T> map, String name, T value) {
+        if (maxSize == 0) {
+            return value;
+        }
+        T previous = map.putIfAbsent(name, value);
+        if (previous != null) {
+            return previous;
+        }
+        added();
+        return value;
+    }
+
+    private void added() {
+        if (size.incrementAndGet() > maxSize) {
+            // the prefixes already handed out stay valid
+            types = new ConcurrentHashMap<>();
+            size.set(0);
+        }
+    }
+
+    /**
+     * The start of the keys of an item, e.g. <tt>microdata.product.offers.1.</tt>
+     */
+    final class Prefix {
+
+        private final String prefix;
+
+        /** null for the prefixes which aren't kept */
+        private final ConcurrentMap<String, Property> properties;
+
+        private Prefix(String prefix, boolean cached) {
+            this.prefix = prefix;
+            this.properties = cached ? new ConcurrentHashMap<String, Property>() : null;
+        }
+
+        /**
+         * @return the key of the values of the property
+         */
+        String key(String name) {
+            return property(name).key;
+        }
+
+        /**
+         * @param index the numerical prefix of the nested item, negative for none
+         * @return the prefix of the items nested in the property
+         */
+        Prefix nested(String name, int index) {
+            return property(name).nested(index);
+        }
+
+        private Property property(String name) {
+            if (properties == null) {
+                return new Property(prefix + name, false);
+            }
+            Property property = properties.get(name);
+            if (property == null) {
+                property = cache(properties, name, new Property(prefix + name, true));
+            }
+            return property;
+        }
+
+        @Override
+        public String toString() {
+            return prefix;
+        }
+    }
+
+    /**
+     * A key and the prefixes of the items below it
+     */
+    private final class Property {
+
+        final String key;
+
+        private final boolean cached;
+
+        private volatile Prefix merged;
+
+        /** copied on write, indexed by the numerical prefix, null where not built yet */
+        private volatile Prefix[] indexed = new Prefix[0];
+
+        Property(String key, boolean cached) {
+            this.key = key;
+            this.cached = cached;
+        }
+
+        Prefix nested(int index) {
+            if (index < 0) {
+                Prefix prefix = merged;
+                if (prefix == null) {
+                    prefix = new Prefix(key + '.', cached);
+                    if (cached) {
+                        merged = prefix;
+                        added();
+                    }
+                }
+                return prefix;
+            }
+            Prefix[] current = indexed;
+            if (index < current.length && current[index] != null) {
+                return current[index];
+            }
+            Prefix prefix = new Prefix(key + '.' + index + '.', cached);
+            if (cached && index < maxSize) {
+                synchronized (this) {
+                    current = indexed;
+                    if (index < current.length && current[index] != null) {
+                        return current[index];
+                    }
+                    Prefix[] copy = new Prefix[Math.max(index + 1, current.length * 2)];
+                    System.arraycopy(current, 0, copy, 0, current.length);
+                    copy[index] = prefix;
+                    indexed = copy;
+                }
+                added();
+            }
+            return prefix;
+        }
+    }
+}
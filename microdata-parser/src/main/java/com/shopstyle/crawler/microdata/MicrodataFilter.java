@@ -1,9 +1,11 @@
 package com.shopstyle.crawler.microdata;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.any23.extractor.microdata.ItemProp;
 import org.apache.any23.extractor.microdata.ItemPropValue;
@@ -11,39 +13,87 @@ import org.apache.any23.extractor.microdata.ItemScope;
 import org.apache.any23.extractor.microdata.MicrodataParser;
 import org.apache.any23.extractor.microdata.MicrodataParserException;
 import org.apache.any23.extractor.microdata.MicrodataParserReport;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.mutable.MutableInt;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Node;
 
 import com.digitalpebble.storm.crawler.Metadata;
-import com.digitalpebble.storm.crawler.parse.ParseFilter;
 import com.digitalpebble.storm.crawler.parse.Outlink;
 import com.fasterxml.jackson.databind.JsonNode;
 
-public class MicrodataFilter implements ParseFilter {
+/**
+ * Adds the microdata of the page to the metadata under <tt>microdata.&lt;type&gt;.&lt;property&gt;</tt>,
+ * see {@link StructuredDataFilter} for the parameters it shares with the other filters. When the
+ * DOM is a view of a jsoup document, the items are read from the jsoup document directly unless
+ * <tt>useJsoup</tt> is set to false, otherwise they are read by Any23 from the W3C DOM.
+ * <p>
+ * Unless <tt>prescan</tt> is set to false, the pages whose content doesn't contain
+ * <tt>itemscope</tt> are skipped without looking at the DOM. As a metric, the filter also reports
+ * how many pages were skipped and how many were parsed.
+ * <p>
+ * With the jsoup document, the properties which aren't kept are not even read, and each thread
+ * reuses its parser from one page to the next.
+ */
+public class MicrodataFilter extends StructuredDataFilter {
+
     private Logger log = LoggerFactory.getLogger(getClass());
-    private boolean includeErrors;
-    private boolean useUniquePrefixForNestedValues;
+    private boolean useJsoup;
+    private boolean prescan;
 
-    @Override
-    public void configure(Map stormConf, JsonNode paramNode) {
-        JsonNode includeErrorField = paramNode.get("includeErrors");
-        includeErrors = includeErrorField != null && includeErrorField.asBoolean();
-        JsonNode uniquePrefixField = paramNode.get("useUniquePrefixForNestedValues");
-        useUniquePrefixForNestedValues = uniquePrefixField != null && uniquePrefixField.asBoolean();
-    }
+    // the filter can be called by several threads
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong parsed = new AtomicLong();
+
+    /** created again by each configuration, the parsers keep the paths */
+    private ThreadLocal<JsoupMicrodataParser> parsers;
 
     @Override
-    public boolean needsDOM() {
-        return true;
+    public void configure(Map stormConf, JsonNode paramNode) {
+        super.configure(stormConf, paramNode);
+        final PropertyPaths paths = this.paths;
+        parsers = new ThreadLocal<JsoupMicrodataParser>() {
+            @Override
+            protected JsoupMicrodataParser initialValue() {
+                return new JsoupMicrodataParser(null, Collections.<Element> emptyList(), paths);
+            }
+        };
+        JsonNode useJsoupField = paramNode.get("useJsoup");
+        useJsoup = useJsoupField == null || useJsoupField.asBoolean();
+        JsonNode prescanField = paramNode.get("prescan");
+        prescan = prescanField == null || prescanField.asBoolean();
     }
 
     @Override
     public void filter(String URL, byte[] content, DocumentFragment doc, Metadata metadata,
             List<Outlink> outLinks) {
+        if (prescan && content != null && !ItemScopeScanner.mayContainItemScope(content)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        parsed.incrementAndGet();
+
+        if (useJsoup && doc.getUserData(JSOUP_NODE_KEY) instanceof Document) {
+            StructuredDataRoots roots;
+            try {
+                roots = StructuredDataRoots.get(doc, content, URL);
+            } catch (IOException e) {
+                log.error("Error parsing microdata {}", URL, e);
+                return;
+            }
+            JsoupMicrodataParser parser = parsers.get();
+            parser.reset(roots.getDocument(), roots.getItemScopes());
+            try {
+                addItems(parser.parse(), parser.getErrors(), doc, metadata);
+            } finally {
+                // doesn't hold on to the page
+                parser.reset(null, Collections.<Element> emptyList());
+            }
+            return;
+        }
+
         MicrodataParserReport report;
         try {
             report = getMicrodata(doc);
@@ -51,18 +101,26 @@ public class MicrodataFilter implements ParseFilter {
             log.error("Error parsing microdata {}", URL, e);
             return;
         }
-        for (ItemScope itemScope : report.getDetectedItemScopes()) {
-            addItemScopeToMetadata(itemScope, "microdata." + getShortItemType(itemScope) + '.',
-                    metadata);
+        ItemScope[] itemScopes = report.getDetectedItemScopes();
+        List<MicrodataItem> items = new ArrayList<>(itemScopes.length);
+        for (ItemScope itemScope : itemScopes) {
+            items.add(toItem(itemScope));
         }
-        if (includeErrors) {
-            MicrodataParserException[] errors = report.getErrors();
-            List<String> errorMessages = new ArrayList<>(errors.length);
-            for (MicrodataParserException error : errors) {
-                errorMessages.add(error.getMessage());
-            }
-            metadata.addValues("microdata.errors", errorMessages);
+        MicrodataParserException[] errors = report.getErrors();
+        List<String> errorMessages = new ArrayList<>(errors.length);
+        for (MicrodataParserException error : errors) {
+            errorMessages.add(error.getMessage());
         }
+        addItems(items, errorMessages, doc, metadata);
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        @SuppressWarnings("unchecked")
+        Map<String, Long> values = (Map<String, Long>) super.getValueAndReset();
+        values.put("skipped", skipped.getAndSet(0));
+        values.put("parsed", parsed.getAndSet(0));
+        return values;
     }
 
     private MicrodataParserReport getMicrodata(DocumentFragment document)
@@ -86,52 +144,26 @@ public class MicrodataFilter implements ParseFilter {
                 microdataParser.getErrors());
     }
 
-    private void addItemScopeToMetadata(ItemScope itemScope, String outerPrefix, Metadata metadata) {
-        Map<String, MutableInt> nestedPrefixIdByType = null;
+    private static MicrodataItem toItem(ItemScope itemScope) {
+        MicrodataItem item = new MicrodataItem(MicrodataItem.shortType(itemScope.getType()));
         Map<String, List<ItemProp>> properties = itemScope.getProperties();
         for (String propertyName : properties.keySet()) {
-            List<ItemProp> itemProps = properties.get(propertyName);
-            List<String> itemValues = new ArrayList<>(itemProps.size());
-            for (ItemProp itemProp : itemProps) {
+            List<Object> values = item.getValues(propertyName);
+            for (ItemProp itemProp : properties.get(propertyName)) {
                 ItemPropValue itemPropValue = itemProp.getValue();
                 if (itemPropValue == null) {
                     continue;
                 } else if (itemPropValue.isNested()) {
-                    StringBuilder nestedPrefix =
-                            new StringBuilder(outerPrefix).append(propertyName).append('.');
-                    if (useUniquePrefixForNestedValues) {
-                        if (nestedPrefixIdByType == null) {
-                            nestedPrefixIdByType = new HashMap<>();
-                        }
-                        MutableInt prefixId = nestedPrefixIdByType.get(propertyName);
-                        if (prefixId == null) {
-                            prefixId = new MutableInt();
-                            nestedPrefixIdByType.put(propertyName, prefixId);
-                        } else {
-                            prefixId.increment();
-                        }
-                        nestedPrefix.append(prefixId).append('.');
-                    }
-                    addItemScopeToMetadata(itemPropValue.getAsNested(), nestedPrefix.toString(),
-                            metadata);
+                    values.add(toItem(itemPropValue.getAsNested()));
                 } else if (itemPropValue.isDate()) {
-                    // Simplest way...
-                    itemValues.add(String.valueOf(itemPropValue.getAsDate().getTime()));
+                    values.add(itemPropValue.getAsDate());
+                } else if (itemPropValue.isLink()) {
+                    values.add(new MicrodataItem.Link(String.valueOf(itemPropValue.getContent())));
                 } else {
-                    itemValues.add((String) itemPropValue.getContent());
+                    values.add(itemPropValue.getContent());
                 }
             }
-            metadata.addValues(outerPrefix + propertyName, itemValues);
-        }
-    }
-
-    private String getShortItemType(ItemScope itemScope) {
-        String path = itemScope.getType().getPath();
-        if (StringUtils.isEmpty(path)) {
-            return "unknown";
-        } else {
-            int lastSlash = path.lastIndexOf('/');
-            return path.substring(lastSlash + 1).toLowerCase();
         }
+        return item;
     }
 }
@@ -0,0 +1,136 @@
+package com.shopstyle.crawler.microdata;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * An item and its properties, in the order in which they were found. This is what the filters
+ * write to the metadata or to a {@link StructuredDataRecord}, whichever syntax and parser the item
+ * comes from. The values of a property are nested items, or typed values when the syntax tells
+ * what they are:
+ * <ul>
+ * <li>{@link Link} for URLs, as found in the page</li>
+ * <li>{@link Date} for the dates of microdata</li>
+ * <li>{@link Long}, {@link Double} and {@link Boolean} for the literals of JSON-LD</li>
+ * <li>{@link String} for everything else</li>
+ * </ul>
+ */
+public final class MicrodataItem {
+
+    /**
+     * A URL, relative or not, with what the page had in its attribute as <tt>href</tt>
+     */
+    public static final class Link {
+
+        private final String href;
+
+        Link(String href) {
+            this.href = href;
+        }
+
+        public String getHref() {
+            return href;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Link && ((Link) obj).href.equals(href);
+        }
+
+        @Override
+        public int hashCode() {
+            return href.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return href;
+        }
+    }
+
+    static final String UNKNOWN_TYPE = "unknown";
+
+    private String shortType;
+
+    private final Map<String, List<Object>> properties = new LinkedHashMap<>();
+
+    /**
+     * @param shortType see {@link #getShortType()}
+     */
+    MicrodataItem(String shortType) {
+        this.shortType = shortType;
+    }
+
+    /**
+     * @return the lower cased last segment of the item type, or <tt>unknown</tt>
+     */
+    public String getShortType() {
+        return shortType;
+    }
+
+    void setShortType(String shortType) {
+        this.shortType = shortType;
+    }
+
+    /**
+     * @return the lower cased last segment of the path of the type, <tt>unknown</tt> if it is null
+     *         or has no path
+     */
+    static String shortType(URL type) {
+        String path = type == null ? null : type.getPath();
+        if (StringUtils.isEmpty(path)) {
+            return UNKNOWN_TYPE;
+        }
+        int lastSlash = path.lastIndexOf('/');
+        return path.substring(lastSlash + 1).toLowerCase();
+    }
+
+    /**
+     * @return the lower cased local name of a type which can be a URL, a prefixed name or a plain
+     *         name, <tt>unknown</tt> if it is empty
+     */
+    static String shortType(String type) {
+        String name = localName(type);
+        return name.isEmpty() ? UNKNOWN_TYPE : name.toLowerCase();
+    }
+
+    /**
+     * @return what follows the last '/', '#' or ':' of the name
+     */
+    static String localName(String name) {
+        int start = name.length();
+        while (start > 0) {
+            char c = name.charAt(start - 1);
+            if (c == '/' || c == '#' || c == ':') {
+                break;
+            }
+            start--;
+        }
+        return name.substring(start).trim();
+    }
+
+    /**
+     * @return the values of the property, created empty if needed
+     */
+    List<Object> getValues(String name) {
+        List<Object> values = properties.get(name);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            properties.put(name, values);
+        }
+        return values;
+    }
+
+    /**
+     * @return the values by property name
+     */
+    public Map<String, List<Object>> getProperties() {
+        return properties;
+    }
+}
@@ -0,0 +1,58 @@
+package com.shopstyle.crawler.microdata;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The properties to keep, as a trie of property paths such as <tt>product.offers.price</tt>, where
+ * the first segment is the short item type and the following ones are property names. A path
+ * selects everything below it, so <tt>product.offers</tt> keeps all the properties of the offers.
+ * The properties which aren't selected don't need to be read.
+ */
+final class PropertyPaths {
+
+    /** Selects everything */
+    static final PropertyPaths ALL = new PropertyPaths();
+
+    private final Map<String, PropertyPaths> children = new HashMap<>();
+
+    private PropertyPaths() {
+    }
+
+    /**
+     * @param paths dotted paths, the item type in lower case followed by property names
+     * @return the trie of the paths, {@link #ALL} if there are none
+     */
+    static PropertyPaths compile(Iterable<String> paths) {
+        PropertyPaths root = null;
+        for (String path : paths) {
+            if (root == null) {
+                root = new PropertyPaths();
+            }
+            String[] segments = path.split("\\.");
+            PropertyPaths node = root;
+            for (int i = 0; i < segments.length && node != ALL; i++) {
+                PropertyPaths child = node.children.get(segments[i]);
+                if (i == segments.length - 1) {
+                    child = ALL;
+                } else if (child == null) {
+                    child = new PropertyPaths();
+                }
+                node.children.put(segments[i], child);
+                node = child;
+            }
+        }
+        return root == null ? ALL : root;
+    }
+
+    /**
+     * @return the paths below the item type or the property name, null if none of them are
+     *         selected
+     */
+    PropertyPaths get(String name) {
+        if (this == ALL) {
+            return ALL;
+        }
+        return children.get(name);
+    }
+}
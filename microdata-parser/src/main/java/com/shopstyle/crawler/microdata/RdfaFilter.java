@@ -0,0 +1,62 @@
+package com.shopstyle.crawler.microdata;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.DocumentFragment;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.Outlink;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Adds the items described with RDFa Lite to the metadata, with the same keys as the
+ * {@link MicrodataFilter}, see {@link StructuredDataFilter} for the parameters. Works on the jsoup
+ * document, the page is parsed again with jsoup if the DOM isn't a view of it.
+ */
+public class RdfaFilter extends StructuredDataFilter {
+
+    private Logger log = LoggerFactory.getLogger(getClass());
+
+    /** each thread reuses its parser, created again by each configuration */
+    private ThreadLocal<JsoupRdfaParser> parsers;
+
+    @Override
+    public void configure(Map stormConf, JsonNode paramNode) {
+        super.configure(stormConf, paramNode);
+        final PropertyPaths paths = this.paths;
+        parsers = new ThreadLocal<JsoupRdfaParser>() {
+            @Override
+            protected JsoupRdfaParser initialValue() {
+                return new JsoupRdfaParser(null, Collections.<Element> emptyList(), paths);
+            }
+        };
+    }
+
+    @Override
+    public void filter(String URL, byte[] content, DocumentFragment doc, Metadata metadata,
+            List<Outlink> outLinks) {
+        StructuredDataRoots roots;
+        try {
+            roots = StructuredDataRoots.get(doc, content, URL);
+        } catch (IOException e) {
+            log.error("Error parsing RDFa {}", URL, e);
+            return;
+        }
+        if (roots.getRdfaItems().isEmpty()) {
+            return;
+        }
+        JsoupRdfaParser parser = parsers.get();
+        parser.reset(roots.getDocument(), roots.getRdfaItems());
+        try {
+            addItems(parser.parse(), parser.getErrors(), doc, metadata);
+        } finally {
+            parser.reset(null, Collections.<Element> emptyList());
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.shopstyle.crawler.microdata;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.DocumentFragment;
+
+import backtype.storm.metric.api.IMetric;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.digitalpebble.storm.crawler.parse.ParseFilter;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Base of the filters which add the items of a page to the metadata under
+ * <tt>microdata.&lt;type&gt;.&lt;property&gt;</tt>, whatever their syntax, so that microdata,
+ * RDFa and JSON-LD give the same keys. The parameters they share are:
+ * <ul>
+ * <li><tt>includeErrors</tt>: adds the problems found to <tt>microdata.errors</tt></li>
+ * <li><tt>useUniquePrefixForNestedValues</tt>: gives each nested item a numerical prefix instead
+ * of merging their values</li>
+ * <li><tt>include</tt>: the paths of the properties to keep, e.g. <tt>product.offers.price</tt>,
+ * all of them by default</li>
+ * <li><tt>output</tt>: <tt>metadata</tt> (the default) for the string keys, <tt>record</tt> to
+ * only add the items to the {@link StructuredDataRecord} of the page, which keeps the nesting and
+ * the types of the values, or <tt>both</tt></li>
+ * <li><tt>keyCacheSize</tt>: how many metadata keys and prefixes are kept to be reused by the
+ * next pages, 10000 by default, see {@link MetadataKeys}</li>
+ * <li><tt>maxDepth</tt>: the items nested deeper than this are left out, 32 by default</li>
+ * <li><tt>maxValues</tt>: the number of values written to the metadata per page, after which the
+ * items are truncated, 100000 by default</li>
+ * </ul>
+ * The metadata is written without recursing, whatever the nesting of the items. As a metric, the
+ * filters report how many times items were truncated.
+ * <p>
+ * The filters with the <tt>metadata</tt> output can be declared as concurrent in the
+ * configuration of the JSoupParserBolt. With the <tt>record</tt> output, the items would be added
+ * to the shared record of the page in the order in which the filters finish.
+ */
+public abstract class StructuredDataFilter implements ParseFilter, IMetric {
+
+    /** Same as DOMBuilder.JSOUP_NODE_KEY in the jsoup-parser */
+    static final String JSOUP_NODE_KEY = "org.jsoup.nodes.Node";
+
+    /** Where the filters of a page keep the record they add to */
+    private static final String RECORD_WRITER_KEY = StructuredDataRecord.Writer.class.getName();
+
+    boolean includeErrors;
+    boolean useUniquePrefixForNestedValues;
+    PropertyPaths paths;
+    boolean toMetadata;
+    boolean toRecord;
+    MetadataKeys keys;
+    int maxDepth;
+    int maxValues;
+
+    /** number of times the items of a page didn't fit in the budget */
+    final AtomicLong truncated = new AtomicLong();
+
+    @Override
+    public void configure(Map stormConf, JsonNode paramNode) {
+        JsonNode includeErrorField = paramNode.get("includeErrors");
+        includeErrors = includeErrorField != null && includeErrorField.asBoolean();
+        JsonNode uniquePrefixField = paramNode.get("useUniquePrefixForNestedValues");
+        useUniquePrefixForNestedValues = uniquePrefixField != null && uniquePrefixField.asBoolean();
+        List<String> include = new ArrayList<>();
+        JsonNode includeField = paramNode.get("include");
+        if (includeField != null) {
+            for (JsonNode path : includeField) {
+                include.add(path.asText());
+            }
+        }
+        paths = PropertyPaths.compile(include);
+        JsonNode outputField = paramNode.get("output");
+        String output = outputField != null ? outputField.asText() : "metadata";
+        toMetadata = output.equals("metadata") || output.equals("both");
+        toRecord = output.equals("record") || output.equals("both");
+        if (!toMetadata && !toRecord) {
+            throw new IllegalArgumentException("Unknown output '" + output
+                    + "', must be metadata, record or both");
+        }
+        JsonNode keyCacheSizeField = paramNode.get("keyCacheSize");
+        keys = new MetadataKeys(keyCacheSizeField != null ? keyCacheSizeField.asInt() : 10000);
+        JsonNode maxDepthField = paramNode.get("maxDepth");
+        maxDepth = maxDepthField != null ? maxDepthField.asInt() : 32;
+        JsonNode maxValuesField = paramNode.get("maxValues");
+        maxValues = maxValuesField != null ? maxValuesField.asInt() : 100000;
+    }
+
+    /**
+     * @return how many times the items didn't fit in the budget since the last call
+     */
+    @Override
+    public Object getValueAndReset() {
+        Map<String, Long> values = new HashMap<>();
+        values.put("truncated", truncated.getAndSet(0));
+        return values;
+    }
+
+    @Override
+    public boolean needsDOM() {
+        return true;
+    }
+
+    /**
+     * Adds the top level items to the metadata and/or to the record of the page, and the errors to
+     * the metadata
+     */
+    void addItems(List<MicrodataItem> items, List<String> errors, DocumentFragment doc,
+            Metadata metadata) {
+        int budget = maxValues;
+        if (toMetadata) {
+            for (MicrodataItem item : items) {
+                String shortType = item.getShortType();
+                PropertyPaths itemPaths = paths.get(shortType);
+                if (itemPaths != null) {
+                    budget =
+                            addItemToMetadata(item, itemPaths, keys.type(shortType), metadata,
+                                    budget);
+                }
+            }
+        }
+        if (toRecord && !items.isEmpty()) {
+            addToRecord(items, doc);
+        }
+        if (includeErrors) {
+            metadata.addValues("microdata.errors", errors);
+        }
+    }
+
+    private void addToRecord(List<MicrodataItem> items, DocumentFragment doc) {
+        // the filters of a page can run concurrently
+        synchronized (doc) {
+            StructuredDataRecord.Writer writer =
+                    (StructuredDataRecord.Writer) doc.getUserData(RECORD_WRITER_KEY);
+            if (writer == null) {
+                writer = new StructuredDataRecord.Writer();
+                doc.setUserData(RECORD_WRITER_KEY, writer, null);
+            }
+            for (MicrodataItem item : items) {
+                PropertyPaths itemPaths = paths.get(item.getShortType());
+                if (itemPaths != null) {
+                    writer.add(item, itemPaths, maxDepth);
+                }
+            }
+            doc.setUserData(StructuredDataRecord.USER_DATA_KEY, writer.toByteArray(), null);
+        }
+    }
+
+    /**
+     * An item being written to the metadata, and where its properties are at. Reused by the next
+     * items and pages of the thread.
+     */
+    private static final class Frame {
+        PropertyPaths itemPaths;
+        MetadataKeys.Prefix prefix;
+        Iterator<Map.Entry<String, List<Object>>> properties;
+
+        // the property being written
+        String name;
+        PropertyPaths propertyPaths;
+        Iterator<Object> values;
+        List<String> strings = new ArrayList<>();
+        int nestedIndex;
+
+        Frame start(MicrodataItem item, PropertyPaths itemPaths, MetadataKeys.Prefix prefix) {
+            this.itemPaths = itemPaths;
+            this.prefix = prefix;
+            this.properties = item.getProperties().entrySet().iterator();
+            values = null;
+            strings.clear();
+            return this;
+        }
+
+        /**
+         * Drops the references to the page
+         */
+        void clear() {
+            itemPaths = null;
+            prefix = null;
+            properties = null;
+            name = null;
+            propertyPaths = null;
+            values = null;
+            if (strings.size() > MAX_RETAINED_STRINGS) {
+                strings = new ArrayList<>();
+            } else {
+                strings.clear();
+            }
+        }
+    }
+
+    /** Lists of values larger than this are not kept by the frames */
+    private static final int MAX_RETAINED_STRINGS = 1024;
+
+    /** the stack of {@link #addItemToMetadata}, kept by each thread */
+    private final ThreadLocal<List<Frame>> frames = new ThreadLocal<List<Frame>>() {
+        @Override
+        protected List<Frame> initialValue() {
+            return new ArrayList<>();
+        }
+    };
+
+    /**
+     * Writes the properties of the item and of the items nested in it in the same order as a
+     * depth first recursion would, but with a stack of its own
+     *
+     * @param budget the number of values which can still be written for the page
+     * @return the budget left
+     */
+    private int addItemToMetadata(MicrodataItem item, PropertyPaths itemPaths,
+            MetadataKeys.Prefix prefix, Metadata metadata, int budget) {
+        List<Frame> stack = frames.get();
+        int depth = 0;
+        int used = 0;
+        try {
+            push(stack, depth++).start(item, itemPaths, prefix);
+            used = 1;
+            while (depth > 0) {
+                Frame frame = stack.get(depth - 1);
+                if (frame.values != null && frame.values.hasNext() && budget > 0) {
+                    Object value = frame.values.next();
+                    budget--;
+                    if (value instanceof MicrodataItem) {
+                        int index = useUniquePrefixForNestedValues ? frame.nestedIndex++ : -1;
+                        if (depth >= maxDepth) {
+                            truncated.incrementAndGet();
+                        } else {
+                            push(stack, depth++).start((MicrodataItem) value,
+                                    frame.propertyPaths, frame.prefix.nested(frame.name, index));
+                            used = Math.max(used, depth);
+                        }
+                    } else if (value instanceof Date) {
+                        frame.strings.add(String.valueOf(((Date) value).getTime()));
+                    } else {
+                        frame.strings.add(value.toString());
+                    }
+                    continue;
+                }
+                if (frame.values != null) {
+                    // done with the property, or out of budget
+                    if (!frame.strings.isEmpty()) {
+                        metadata.addValues(frame.prefix.key(frame.name), frame.strings);
+                    }
+                    frame.values = null;
+                }
+                if (budget <= 0) {
+                    if (frame.properties.hasNext()) {
+                        truncated.incrementAndGet();
+                    }
+                    depth--;
+                    continue;
+                }
+                if (frame.properties.hasNext()) {
+                    Map.Entry<String, List<Object>> property = frame.properties.next();
+                    PropertyPaths propertyPaths = frame.itemPaths.get(property.getKey());
+                    if (propertyPaths != null) {
+                        frame.name = property.getKey();
+                        frame.propertyPaths = propertyPaths;
+                        frame.values = property.getValue().iterator();
+                        frame.strings.clear();
+                        frame.nestedIndex = 0;
+                    }
+                } else {
+                    depth--;
+                }
+            }
+        } finally {
+            for (int i = 0; i < used; i++) {
+                stack.get(i).clear();
+            }
+        }
+        return budget;
+    }
+
+    private static Frame push(List<Frame> stack, int depth) {
+        if (depth == stack.size()) {
+            stack.add(new Frame());
+        }
+        return stack.get(depth);
+    }
+}
@@ -0,0 +1,298 @@
+package com.shopstyle.crawler.microdata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of the items of a page, which keeps the nesting and the types of the values
+ * instead of flattening everything into strings. The filters configured with <tt>output</tt> set
+ * to <tt>record</tt> or <tt>both</tt> store it in the user data of the DOM under
+ * {@link #USER_DATA_KEY}, from where the <tt>JSoupParserBolt</tt> emits it in the
+ * <tt>structured</tt> field, and {@link #read(byte[])} gives the items back.
+ * <p>
+ * The item types and the property names are written once in a table at the start of the record
+ * and referred to by their index. Numbers are variable length, zigzag encoded when they can be
+ * negative:
+ *
+ * <pre>
+ * record   = version:byte names:varint utf8* items:varint item*
+ * item     = type:varint properties:varint property*
+ * property = name:varint values:varint value*
+ * value    = STRING utf8 | LINK utf8 | DATE millis:zigzag | LONG zigzag | DOUBLE 8 bytes
+ *          | TRUE | FALSE | ITEM item
+ * utf8     = length:varint bytes
+ * </pre>
+ */
+public final class StructuredDataRecord {
+
+    /** Same as JSoupParserBolt.STRUCTURED_DATA_KEY in the jsoup-parser */
+    public static final String USER_DATA_KEY = "com.shopstyle.crawler.structured";
+
+    private static final byte VERSION = 1;
+
+    private static final byte STRING = 0;
+    private static final byte LINK = 1;
+    private static final byte DATE = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte TRUE = 5;
+    private static final byte FALSE = 6;
+    private static final byte ITEM = 7;
+
+    private StructuredDataRecord() {
+    }
+
+    /**
+     * Builds a record, to which the filters which run on the same page add their items in turn
+     */
+    static final class Writer {
+
+        private final Map<String, Integer> nameIndexes = new HashMap<>();
+
+        private final Bytes names = new Bytes();
+
+        private final Bytes items = new Bytes();
+
+        private int itemCount;
+
+        /**
+         * @param itemPaths the properties of the item to keep
+         * @param maxDepth the items nested deeper than this are written without their properties
+         */
+        void add(MicrodataItem item, PropertyPaths itemPaths, int maxDepth) {
+            writeItem(item, itemPaths, maxDepth);
+            itemCount++;
+        }
+
+        byte[] toByteArray() {
+            Bytes record = new Bytes();
+            record.write(VERSION);
+            record.writeVarint(nameIndexes.size());
+            record.write(names.buffer(), 0, names.size());
+            record.writeVarint(itemCount);
+            record.write(items.buffer(), 0, items.size());
+            return record.toByteArray();
+        }
+
+        private void writeItem(MicrodataItem item, PropertyPaths itemPaths, int depth) {
+            items.writeVarint(nameIndex(item.getShortType()));
+            Map<String, List<Object>> properties = item.getProperties();
+            int count = 0;
+            for (Map.Entry<String, List<Object>> property : properties.entrySet()) {
+                if (depth > 0 && !property.getValue().isEmpty()
+                        && itemPaths.get(property.getKey()) != null) {
+                    count++;
+                }
+            }
+            items.writeVarint(count);
+            for (Map.Entry<String, List<Object>> property : properties.entrySet()) {
+                List<Object> values = property.getValue();
+                PropertyPaths valuePaths = itemPaths.get(property.getKey());
+                if (depth == 0 || values.isEmpty() || valuePaths == null) {
+                    continue;
+                }
+                items.writeVarint(nameIndex(property.getKey()));
+                items.writeVarint(values.size());
+                for (Object value : values) {
+                    writeValue(value, valuePaths, depth - 1);
+                }
+            }
+        }
+
+        private void writeValue(Object value, PropertyPaths valuePaths, int depth) {
+            if (value instanceof MicrodataItem) {
+                items.write(ITEM);
+                writeItem((MicrodataItem) value, valuePaths, depth);
+            } else if (value instanceof MicrodataItem.Link) {
+                items.write(LINK);
+                items.writeUTF8(((MicrodataItem.Link) value).getHref());
+            } else if (value instanceof Date) {
+                items.write(DATE);
+                items.writeZigzag(((Date) value).getTime());
+            } else if (value instanceof Long) {
+                items.write(LONG);
+                items.writeZigzag((Long) value);
+            } else if (value instanceof Double) {
+                items.write(DOUBLE);
+                long bits = Double.doubleToLongBits((Double) value);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    items.write((int) (bits >>> shift));
+                }
+            } else if (value instanceof Boolean) {
+                items.write((Boolean) value ? TRUE : FALSE);
+            } else {
+                items.write(STRING);
+                items.writeUTF8(value.toString());
+            }
+        }
+
+        private int nameIndex(String name) {
+            Integer index = nameIndexes.get(name);
+            if (index == null) {
+                index = nameIndexes.size();
+                nameIndexes.put(name, index);
+                names.writeUTF8(name);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return the items of the record, with the values typed as described in {@link MicrodataItem}
+     * @throws IOException if the record is truncated or isn't a record
+     */
+    public static List<MicrodataItem> read(byte[] record) throws IOException {
+        Reader reader = new Reader(record);
+        int version = reader.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown structured data record version " + version);
+        }
+        String[] names = new String[reader.readCount()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = reader.readUTF8();
+        }
+        int count = reader.readCount();
+        List<MicrodataItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(reader.readItem(names));
+        }
+        return items;
+    }
+
+    private static final class Reader {
+
+        private final byte[] record;
+
+        private int position;
+
+        Reader(byte[] record) {
+            this.record = record;
+        }
+
+        MicrodataItem readItem(String[] names) throws IOException {
+            MicrodataItem item = new MicrodataItem(readName(names));
+            int properties = readCount();
+            for (int i = 0; i < properties; i++) {
+                List<Object> values = item.getValues(readName(names));
+                int count = readCount();
+                for (int j = 0; j < count; j++) {
+                    values.add(readValue(names));
+                }
+            }
+            return item;
+        }
+
+        private Object readValue(String[] names) throws IOException {
+            byte tag = readByte();
+            switch (tag) {
+            case STRING:
+                return readUTF8();
+            case LINK:
+                return new MicrodataItem.Link(readUTF8());
+            case DATE:
+                return new Date(readZigzag());
+            case LONG:
+                return readZigzag();
+            case DOUBLE:
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | (readByte() & 0xff);
+                }
+                return Double.longBitsToDouble(bits);
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case ITEM:
+                return readItem(names);
+            default:
+                throw new IOException("Unknown value type " + tag + " at " + (position - 1));
+            }
+        }
+
+        private String readName(String[] names) throws IOException {
+            long index = readVarint();
+            if (index >= names.length) {
+                throw new IOException("Unknown name " + index + " at " + position);
+            }
+            return names[(int) index];
+        }
+
+        byte readByte() throws IOException {
+            if (position >= record.length) {
+                throw new EOFException("Truncated structured data record");
+            }
+            return record[position++];
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint at " + position);
+        }
+
+        long readZigzag() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * @return a count or an index, which can't be more than the number of bytes left
+         */
+        int readCount() throws IOException {
+            long value = readVarint();
+            if (value > record.length - position) {
+                throw new IOException("Invalid count " + value + " at " + position);
+            }
+            return (int) value;
+        }
+
+        String readUTF8() throws IOException {
+            int length = readCount();
+            String value = new String(record, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+
+    /**
+     * Exposes the buffer so that it can be copied without an intermediate array
+     */
+    private static final class Bytes extends ByteArrayOutputStream {
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeZigzag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeUTF8(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.shopstyle.crawler.microdata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attributes;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import org.w3c.dom.DocumentFragment;
+
+/**
+ * Where the structured data of a page is: the outermost microdata item scopes, the outermost RDFa
+ * <tt>typeof</tt> elements and the JSON-LD scripts, found in a single walk over the jsoup document.
+ * The result is stored in the user data of the DOM, so that the filters which run on the same page
+ * share the walk, and the parsers then only look at these elements.
+ */
+final class StructuredDataRoots {
+
+    private static final String USER_DATA_KEY = StructuredDataRoots.class.getName();
+
+    private final Document document;
+
+    private final List<Element> itemScopes = new ArrayList<>();
+
+    private final List<Element> rdfaItems = new ArrayList<>();
+
+    private final List<Element> jsonLdScripts = new ArrayList<>();
+
+    private StructuredDataRoots(Document document) {
+        this.document = document;
+        new NodeTraversor(new NodeVisitor() {
+            // outermost elements currently open
+            private Node itemScope;
+            private Node rdfaItem;
+
+            @Override
+            public void head(Node node, int depth) {
+                if (!(node instanceof Element)) {
+                    return;
+                }
+                Attributes attributes = node.attributes();
+                if (attributes.size() == 0) {
+                    return;
+                }
+                if (itemScope == null && attributes.hasKey("itemscope")) {
+                    itemScope = node;
+                    itemScopes.add((Element) node);
+                }
+                if (rdfaItem == null && attributes.hasKey("typeof")) {
+                    rdfaItem = node;
+                    rdfaItems.add((Element) node);
+                }
+                if (((Element) node).tagName().equals("script")
+                        && attributes.get("type").trim().equalsIgnoreCase("application/ld+json")) {
+                    jsonLdScripts.add((Element) node);
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (node == itemScope) {
+                    itemScope = null;
+                }
+                if (node == rdfaItem) {
+                    rdfaItem = null;
+                }
+            }
+        }).traverse(document);
+    }
+
+    /**
+     * @param content the content of the page, parsed with jsoup if the DOM isn't a view of a jsoup
+     *            document
+     * @return the structured data of the page, found by a previous filter if there was one
+     */
+    static StructuredDataRoots get(DocumentFragment fragment, byte[] content, String url)
+            throws IOException {
+        // filters running concurrently on the page share the same walk
+        synchronized (fragment) {
+            return getOrCreate(fragment, content, url);
+        }
+    }
+
+    private static StructuredDataRoots getOrCreate(DocumentFragment fragment, byte[] content,
+            String url) throws IOException {
+        StructuredDataRoots roots = (StructuredDataRoots) fragment.getUserData(USER_DATA_KEY);
+        if (roots == null) {
+            Object jsoupNode = fragment.getUserData(StructuredDataFilter.JSOUP_NODE_KEY);
+            Document document;
+            if (jsoupNode instanceof Document) {
+                document = (Document) jsoupNode;
+            } else if (content == null) {
+                document = Document.createShell(url);
+            } else {
+                document = Jsoup.parse(new ByteArrayInputStream(content), null, url);
+            }
+            roots = new StructuredDataRoots(document);
+            fragment.setUserData(USER_DATA_KEY, roots, null);
+        }
+        return roots;
+    }
+
+    Document getDocument() {
+        return document;
+    }
+
+    List<Element> getItemScopes() {
+        return itemScopes;
+    }
+
+    List<Element> getRdfaItems() {
+        return rdfaItems;
+    }
+
+    List<Element> getJsonLdScripts() {
+        return jsonLdScripts;
+    }
+}
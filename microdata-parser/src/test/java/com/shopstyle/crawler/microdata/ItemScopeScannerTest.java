@@ -0,0 +1,35 @@
+package com.shopstyle.crawler.microdata;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ItemScopeScannerTest {
+
+    private static boolean scan(String content) {
+        return ItemScopeScanner.mayContainItemScope(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testScan() {
+        Assert.assertTrue(scan("itemscope"));
+        Assert.assertTrue(scan("<div itemscope itemtype=\"http://schema.org/Product\">"));
+        Assert.assertTrue(scan("<DIV ITEMSCOPE>"));
+        Assert.assertTrue(scan("<div ItemScope=\"\">"));
+        Assert.assertTrue(scan("ééé<p>itemsitemscope"));
+
+        Assert.assertFalse(scan(""));
+        Assert.assertFalse(scan("itemscop"));
+        Assert.assertFalse(scan("<div itemprop=\"name\" class=\"scope\">item scope</div>"));
+        Assert.assertFalse(scan("<div item-scope>"));
+    }
+
+    @Test
+    public void testWideCharsets() {
+        Assert.assertTrue(ItemScopeScanner.mayContainItemScope("<html>".getBytes(
+                StandardCharsets.UTF_16)));
+        Assert.assertTrue(ItemScopeScanner.mayContainItemScope("<html>".getBytes(
+                StandardCharsets.UTF_16LE)));
+    }
+}
@@ -0,0 +1,80 @@
+package com.shopstyle.crawler.microdata;
+
+import java.util.HashMap;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shopstyle.crawler.jsoup.DOMBuilder;
+
+public class JsonLdFilterTest {
+
+    private static final String URL = "http://www.example.com/dress";
+
+    private static final String HTML = "<html><head>"
+            + "<script type=\"application/ld+json\">"
+            + "{\"@context\": \"http://schema.org\", \"@type\": \"Product\","
+            + " \"name\": \"Dress\", \"sku\": 1234, \"image\": [\"/a.jpg\", \"/b.jpg\"],"
+            + " \"brand\": {\"@type\": \"Brand\", \"name\": \"Calvin Klein\"},"
+            + " \"offers\": [{\"@type\": \"Offer\", \"price\": \"74.99\","
+            + " \"priceCurrency\": {\"@value\": \"USD\"}},"
+            + " {\"@type\": \"Offer\", \"price\": 60, \"availability\": null}]}"
+            + "</script>"
+            + "<script type=\"application/ld+json\">"
+            + "{\"@context\": \"http://schema.org\", \"@graph\": ["
+            + "{\"@type\": \"WebPage\", \"breadcrumb\": \"Women - Dresses\"},"
+            + "{\"@type\": [\"Organization\", \"Thing\"], \"name\": \"Shop\"}]}"
+            + "</script>"
+            + "<script type=\"application/ld+json\">{ not json</script>"
+            + "</head><body></body></html>";
+
+    private static Metadata filter(String params, boolean view) throws Exception {
+        JsonLdFilter filter = new JsonLdFilter();
+        filter.configure(new HashMap(), new ObjectMapper().readTree(params));
+        Document document = Jsoup.parse(HTML, URL);
+        DocumentFragment fragment =
+                view ? DOMBuilder.jsoup2View(document) : DOMBuilder.jsoup2HTML(document);
+        Metadata metadata = new Metadata();
+        filter.filter(URL, HTML.getBytes("UTF-8"), fragment, metadata, null);
+        return metadata;
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        for (boolean view : new boolean[] { false, true }) {
+            Metadata metadata = filter("{\"includeErrors\": true}", view);
+            Assert.assertEquals("Dress", metadata.getFirstValue("microdata.product.name"));
+            Assert.assertEquals("1234", metadata.getFirstValue("microdata.product.sku"));
+            Assert.assertArrayEquals(new String[] { "/a.jpg", "/b.jpg" },
+                    metadata.getValues("microdata.product.image"));
+            Assert.assertEquals("Calvin Klein",
+                    metadata.getFirstValue("microdata.product.brand.name"));
+            Assert.assertArrayEquals(new String[] { "74.99", "60" },
+                    metadata.getValues("microdata.product.offers.price"));
+            Assert.assertEquals("USD",
+                    metadata.getFirstValue("microdata.product.offers.priceCurrency"));
+            Assert.assertNull(metadata.getValues("microdata.product.offers.availability"));
+            Assert.assertEquals("Women - Dresses",
+                    metadata.getFirstValue("microdata.webpage.breadcrumb"));
+            Assert.assertEquals("Shop", metadata.getFirstValue("microdata.organization.name"));
+            Assert.assertEquals(1, metadata.getValues("microdata.errors").length);
+        }
+    }
+
+    @Test
+    public void testUniquePrefixAndInclude() throws Exception {
+        Metadata metadata =
+                filter("{\"useUniquePrefixForNestedValues\": true,"
+                        + " \"include\": [\"product.offers.price\"]}", true);
+        Assert.assertEquals("74.99", metadata.getFirstValue("microdata.product.offers.0.price"));
+        Assert.assertEquals("60", metadata.getFirstValue("microdata.product.offers.1.price"));
+        Assert.assertNull(metadata.getFirstValue("microdata.product.name"));
+        Assert.assertNull(metadata.getFirstValue("microdata.product.offers.0.priceCurrency"));
+        Assert.assertNull(metadata.getFirstValue("microdata.webpage.breadcrumb"));
+    }
+}
@@ -0,0 +1,153 @@
+package com.shopstyle.crawler.microdata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shopstyle.crawler.jsoup.DOMBuilder;
+
+public class JsoupMicrodataParserTest {
+
+    @Test
+    public void testSameAsAny23OnDillards() throws Exception {
+        assertSameAsAny23(readContent("dillards.com_503911007.html"), false);
+    }
+
+    @Test
+    public void testSameAsAny23OnMacys() throws Exception {
+        byte[] content = readContent("macy.com_1668293.html");
+        assertSameAsAny23(content, false);
+        assertSameAsAny23(content, true);
+    }
+
+    @Test
+    public void testSameAsAny23WithReferences() throws Exception {
+        String html =
+                "<html><body>"
+                        + "<div itemscope itemtype=\"http://schema.org/Product\" itemref=\"b o\">"
+                        + "<span itemprop=\"name\">Dress</span>"
+                        + "<a itemprop=\"url\" href=\"/dress\">link</a>"
+                        + "<img itemprop=\"image\" src=\"/dress.jpg\">"
+                        + "<div itemscope itemtype=\"http://schema.org/Review\">"
+                        + "<span itemprop=\"author\">Jane</span></div>"
+                        + "</div>"
+                        + "<p id=\"b\" itemprop=\"brand\">Brand <b>name</b></p>"
+                        + "<div id=\"o\"><div itemprop=\"offers\" itemscope"
+                        + " itemtype=\"http://schema.org/Offer\">"
+                        + "<meta itemprop=\"price\" content=\"10\">"
+                        + "<time itemprop=\"validFrom\" datetime=\"2015-03-01\">March</time>"
+                        + "</div></div></body></html>";
+        assertSameAsAny23(html.getBytes("UTF-8"), true);
+
+        Metadata metadata = parse(html.getBytes("UTF-8"), true, false);
+        Assert.assertEquals("Brand name", metadata.getFirstValue("microdata.product.brand"));
+        Assert.assertEquals("10", metadata.getFirstValue("microdata.product.offers.0.price"));
+        Assert.assertEquals("Jane", metadata.getFirstValue("microdata.review.author"));
+        Assert.assertNull(metadata.getFirstValue("microdata.product.author"));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        String html =
+                "<html><body><div itemscope itemtype=\"http://schema.org/Product\""
+                        + " itemref=\"missing\"><span itemprop=\"name\">Dress</span>"
+                        + "<time itemprop=\"releaseDate\" datetime=\"soon\">soon</time>"
+                        + "</div></body></html>";
+        Document document = Jsoup.parse(html);
+        JsoupMicrodataParser parser = new JsoupMicrodataParser(document);
+        List<MicrodataItem> items = parser.parse();
+        Assert.assertEquals(1, items.size());
+        Assert.assertEquals(Arrays.<Object> asList("Dress"), items.get(0).getValues("name"));
+        Assert.assertEquals(2, parser.getErrors().size());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        Document withErrors =
+                Jsoup.parse("<html><body><div itemscope itemtype=\"http://schema.org/Product\""
+                        + " itemref=\"missing\"><span itemprop=\"name\">Dress</span>"
+                        + "</div></body></html>");
+        Document macys = Jsoup.parse(new String(readContent("macy.com_1668293.html"), "UTF-8"));
+        JsoupMicrodataParser fresh = new JsoupMicrodataParser(macys);
+        List<MicrodataItem> expected = fresh.parse();
+
+        JsoupMicrodataParser parser = new JsoupMicrodataParser(withErrors);
+        Assert.assertEquals(1, parser.parse().size());
+        Assert.assertEquals(1, parser.getErrors().size());
+        parser.reset(macys, Collections.singletonList(macys));
+        List<MicrodataItem> items = parser.parse();
+        Assert.assertFalse(items.isEmpty());
+        Assert.assertEquals(describe(expected), describe(items));
+        Assert.assertEquals(fresh.getErrors(), parser.getErrors());
+    }
+
+    private static String describe(List<?> values) {
+        StringBuilder description = new StringBuilder("[");
+        for (Object value : values) {
+            if (value instanceof MicrodataItem) {
+                MicrodataItem item = (MicrodataItem) value;
+                description.append(item.getShortType()).append('{');
+                for (Map.Entry<String, List<Object>> property : item.getProperties().entrySet()) {
+                    description.append(property.getKey()).append('=')
+                            .append(describe(property.getValue()));
+                }
+                description.append('}');
+            } else {
+                description.append(value).append(',');
+            }
+        }
+        return description.append(']').toString();
+    }
+
+    @Test
+    public void testNoItemScope() throws Exception {
+        Document document = Jsoup.parse("<html><body><p itemprop=\"name\">a</p></body></html>");
+        Assert.assertTrue(new JsoupMicrodataParser(document).parse().isEmpty());
+    }
+
+    private void assertSameAsAny23(byte[] content, boolean uniquePrefix) throws Exception {
+        Map<String, List<String>> any23 = toMap(parse(content, uniquePrefix, false));
+        Map<String, List<String>> jsoup = toMap(parse(content, uniquePrefix, true));
+        Assert.assertFalse(any23.isEmpty());
+        Assert.assertEquals(any23, jsoup);
+    }
+
+    private Metadata parse(byte[] content, boolean uniquePrefix, boolean useJsoup)
+            throws Exception {
+        MicrodataFilter filter = new MicrodataFilter();
+        filter.configure(new HashMap(), new ObjectMapper().readTree("{\"useJsoup\": " + useJsoup
+                + ", \"useUniquePrefixForNestedValues\": " + uniquePrefix + "}"));
+        String url = "http://www.example.com/";
+        Document document = Jsoup.parse(new ByteArrayInputStream(content), null, url);
+        DocumentFragment fragment = DOMBuilder.jsoup2View(document);
+        Metadata metadata = new Metadata();
+        filter.filter(url, content, fragment, metadata, null);
+        return metadata;
+    }
+
+    private static Map<String, List<String>> toMap(Metadata metadata) {
+        Map<String, List<String>> map = new TreeMap<>();
+        for (String key : metadata.keySet()) {
+            map.put(key, Arrays.asList(metadata.getValues(key)));
+        }
+        return map;
+    }
+
+    private byte[] readContent(String filename) throws IOException {
+        return IOUtils.toByteArray(getClass().getClassLoader().getResourceAsStream(filename));
+    }
+}
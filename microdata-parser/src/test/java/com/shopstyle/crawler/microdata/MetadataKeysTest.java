@@ -0,0 +1,52 @@
+package com.shopstyle.crawler.microdata;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetadataKeysTest {
+
+    @Test
+    public void testKeys() {
+        MetadataKeys keys = new MetadataKeys(100);
+        MetadataKeys.Prefix product = keys.type("product");
+        Assert.assertEquals("microdata.product.", product.toString());
+        Assert.assertEquals("microdata.product.name", product.key("name"));
+        Assert.assertEquals("microdata.product.offers.price",
+                product.nested("offers", -1).key("price"));
+        Assert.assertEquals("microdata.product.offers.0.price",
+                product.nested("offers", 0).key("price"));
+        Assert.assertEquals("microdata.product.offers.12.price",
+                product.nested("offers", 12).key("price"));
+    }
+
+    @Test
+    public void testReused() {
+        MetadataKeys keys = new MetadataKeys(100);
+        Assert.assertSame(keys.type("product"), keys.type("product"));
+        Assert.assertSame(keys.type("product").key("name"), keys.type("product").key("name"));
+        Assert.assertSame(keys.type("product").nested("offers", -1),
+                keys.type("product").nested("offers", -1));
+        Assert.assertSame(keys.type("product").nested("offers", 3).key("price"), keys
+                .type("product").nested("offers", 3).key("price"));
+    }
+
+    @Test
+    public void testBounded() {
+        MetadataKeys keys = new MetadataKeys(10);
+        MetadataKeys.Prefix product = keys.type("product");
+        for (int i = 0; i < 10; i++) {
+            keys.type("type" + i);
+        }
+        // dropped once full
+        Assert.assertNotSame(product, keys.type("product"));
+        Assert.assertEquals("microdata.product.name", product.key("name"));
+    }
+
+    @Test
+    public void testNotCached() {
+        MetadataKeys keys = new MetadataKeys(0);
+        Assert.assertNotSame(keys.type("product"), keys.type("product"));
+        Assert.assertEquals("microdata.product.offers.1.price", keys.type("product")
+                .nested("offers", 1).key("price"));
+    }
+}
@@ -4,11 +4,16 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.html.dom.HTMLDocumentImpl;
 import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.junit.Assert;
 import org.junit.Test;
 import org.w3c.dom.DocumentFragment;
@@ -17,16 +22,33 @@ import org.xml.sax.InputSource;
 import com.digitalpebble.storm.crawler.Metadata;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shopstyle.crawler.jsoup.DOMBuilder;
 
 public class MicrodataFilterTest {
+    private static final String DILLARDS_URL =
+            "http://www.dillards.com/product/MICHAEL-Michael-Kors-Kempton-Small-Tote_301_-1_301_503911007";
+
+    private static final String MACYS_URL =
+            "http://www1.macys.com/shop/product/calvin-klein-animal-print-faux-leather-inset-dress?ID=1668293&CategoryID=5449";
+
     @Test
     public void testDillardParsing() throws Exception {
-        String url =
-                "http://www.dillards.com/product/MICHAEL-Michael-Kors-Kempton-Small-Tote_301_-1_301_503911007";
         String configFile = "MicrodataFilterTest-mergeNestedValues.json";
         String contentFile = "dillards.com_503911007.html";
-        Metadata metadata = parse(url, configFile, contentFile);
+        Metadata metadata = parse(DILLARDS_URL, configFile, contentFile, false);
         System.out.println(metadata.toString(null));
+        assertDillards(metadata);
+    }
+
+    @Test
+    public void testDillardParsingWithJsoupView() throws Exception {
+        String configFile = "MicrodataFilterTest-mergeNestedValues.json";
+        String contentFile = "dillards.com_503911007.html";
+        Metadata metadata = parse(DILLARDS_URL, configFile, contentFile, true);
+        assertDillards(metadata);
+    }
+
+    private void assertDillards(Metadata metadata) {
         Assert.assertEquals("MICHAEL Michael Kors Kempton Small Tote",
                 metadata.getFirstValue("microdata.product.name"));
         Assert.assertEquals("04044499", metadata.getFirstValue("microdata.product.identifier"));
@@ -36,13 +58,22 @@ public class MicrodataFilterTest {
 
     @Test
     public void testMacysParsingWithMergeNestedValues() throws Exception {
-        String url =
-                "http://www1.macys.com/shop/product/calvin-klein-animal-print-faux-leather-inset-dress?ID=1668293&CategoryID=5449";
         String configFile = "MicrodataFilterTest-mergeNestedValues.json";
         String contentFile = "macy.com_1668293.html";
-        Metadata metadata = parse(url, configFile, contentFile);
-        System.out.println(metadata.toString(null));
+        Metadata metadata = parse(MACYS_URL, configFile, contentFile, false);
         System.out.println(metadata.toString(null));
+        assertMacysMergeNestedValues(metadata);
+    }
+
+    @Test
+    public void testMacysParsingWithMergeNestedValuesWithJsoupView() throws Exception {
+        String configFile = "MicrodataFilterTest-mergeNestedValues.json";
+        String contentFile = "macy.com_1668293.html";
+        Metadata metadata = parse(MACYS_URL, configFile, contentFile, true);
+        assertMacysMergeNestedValues(metadata);
+    }
+
+    private void assertMacysMergeNestedValues(Metadata metadata) {
         Assert.assertEquals("Women - Dresses",
                 metadata.getFirstValue("microdata.webpage.breadcrumb"));
         Assert.assertEquals("Calvin Klein Animal-Print Faux-Leather-Inset Dress",
@@ -60,13 +91,23 @@ public class MicrodataFilterTest {
 
     @Test
     public void testMacysParsingWithUniqueNestedValues() throws Exception {
-        String url =
-                "http://www1.macys.com/shop/product/calvin-klein-animal-print-faux-leather-inset-dress?ID=1668293&CategoryID=5449";
         String configFile = "MicrodataFilterTest-uniqueNestedValues.json";
         String contentFile = "macy.com_1668293.html";
-        Metadata metadata = parse(url, configFile, contentFile);
+        Metadata metadata = parse(MACYS_URL, configFile, contentFile, false);
         Assert.assertNotNull(metadata);
         System.out.println(metadata.toString(null));
+        assertMacysUniqueNestedValues(metadata);
+    }
+
+    @Test
+    public void testMacysParsingWithUniqueNestedValuesWithJsoupView() throws Exception {
+        String configFile = "MicrodataFilterTest-uniqueNestedValues.json";
+        String contentFile = "macy.com_1668293.html";
+        Metadata metadata = parse(MACYS_URL, configFile, contentFile, true);
+        assertMacysUniqueNestedValues(metadata);
+    }
+
+    private void assertMacysUniqueNestedValues(Metadata metadata) {
         Assert.assertEquals("Women - Dresses",
                 metadata.getFirstValue("microdata.webpage.breadcrumb"));
         Assert.assertEquals("Calvin Klein Animal-Print Faux-Leather-Inset Dress",
@@ -83,10 +124,98 @@ public class MicrodataFilterTest {
                 metadata.getFirstValue("microdata.product.offers.1.availability"));
     }
 
-    private Metadata parse(String url, String configFile, String contentFile) throws Exception {
+    @Test
+    public void testMacysParsingWithInclude() throws Exception {
+        String configFile = "MicrodataFilterTest-include.json";
+        String contentFile = "macy.com_1668293.html";
+        for (boolean jsoupView : new boolean[] { false, true }) {
+            Metadata metadata = parse(MACYS_URL, configFile, contentFile, jsoupView);
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("microdata.product.name",
+                    "microdata.product.offers.price", "microdata.webpage.breadcrumb")),
+                    new TreeSet<>(metadata.keySet()));
+            Assert.assertEquals("$74.99", metadata.getFirstValue("microdata.product.offers.price"));
+        }
+    }
+
+    @Test
+    public void testConfigureAgain() throws Exception {
+        MicrodataFilter filter = new MicrodataFilter();
+        filter.configure(new HashMap(),
+                new ObjectMapper().readTree("{\"include\": [\"product.name\"]}"));
+        byte[] content = readContent("macy.com_1668293.html");
+        Document jsoupDoc = Jsoup.parse(new ByteArrayInputStream(content), null, MACYS_URL);
+        Metadata metadata = new Metadata();
+        filter.filter(MACYS_URL, content, DOMBuilder.jsoup2View(jsoupDoc), metadata, null);
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("microdata.product.name")),
+                new TreeSet<>(metadata.keySet()));
+
+        // the parser of the thread reads the new paths
+        InputStream confStream =
+                getClass().getClassLoader().getResourceAsStream("MicrodataFilterTest-include.json");
+        filter.configure(new HashMap(), new ObjectMapper().readValue(confStream, JsonNode.class));
+        metadata = new Metadata();
+        filter.filter(MACYS_URL, content, DOMBuilder.jsoup2View(jsoupDoc), metadata, null);
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("microdata.product.name",
+                "microdata.product.offers.price", "microdata.webpage.breadcrumb")),
+                new TreeSet<>(metadata.keySet()));
+    }
+
+    @Test
+    public void testPrescan() throws Exception {
+        MicrodataFilter filter = prepareFilter("MicrodataFilterTest-mergeNestedValues.json");
+        byte[] content = "<html><body><p itemprop=\"name\">a</p></body></html>".getBytes("UTF-8");
+        Metadata metadata = new Metadata();
+        // the DOM isn't even looked at
+        filter.filter(DILLARDS_URL, content, null, metadata, null);
+        Assert.assertTrue(metadata.keySet().isEmpty());
+
+        Map<String, Long> values = (Map<String, Long>) filter.getValueAndReset();
+        Assert.assertEquals(Long.valueOf(1), values.get("skipped"));
+        Assert.assertEquals(Long.valueOf(0), values.get("parsed"));
+    }
+
+    @Test
+    public void testDeepNesting() throws Exception {
+        StringBuilder html = new StringBuilder("<html><body>");
+        html.append("<div itemscope itemtype=\"http://schema.org/Thing\">");
+        for (int i = 0; i < 5000; i++) {
+            html.append("<div itemprop=\"part\" itemscope itemtype=\"http://schema.org/Thing\">")
+                    .append("<span itemprop=\"name\">").append(i).append("</span>");
+        }
+        byte[] content = html.append("</body></html>").toString().getBytes("UTF-8");
+        Document jsoupDoc = Jsoup.parse(new ByteArrayInputStream(content), null, DILLARDS_URL);
+
+        MicrodataFilter filter = new MicrodataFilter();
+        filter.configure(new HashMap(),
+                new ObjectMapper().readTree("{\"maxDepth\": 4, \"maxValues\": 1000}"));
+        Metadata metadata = new Metadata();
+        filter.filter(DILLARDS_URL, content, DOMBuilder.jsoup2View(jsoupDoc), metadata, null);
+        Assert.assertEquals("2", metadata.getFirstValue("microdata.thing.part.part.part.name"));
+        Assert.assertNull(metadata.getFirstValue("microdata.thing.part.part.part.part.name"));
+        Map<String, Long> values = (Map<String, Long>) filter.getValueAndReset();
+        Assert.assertEquals(Long.valueOf(1), values.get("truncated"));
+
+        filter.configure(new HashMap(),
+                new ObjectMapper().readTree("{\"maxDepth\": 10000, \"maxValues\": 3}"));
+        metadata = new Metadata();
+        filter.filter(DILLARDS_URL, content, DOMBuilder.jsoup2View(jsoupDoc), metadata, null);
+        Assert.assertEquals("0", metadata.getFirstValue("microdata.thing.part.name"));
+        Assert.assertNull(metadata.getFirstValue("microdata.thing.part.part.name"));
+        values = (Map<String, Long>) filter.getValueAndReset();
+        Assert.assertEquals(Long.valueOf(1), values.get("truncated"));
+    }
+
+    private Metadata parse(String url, String configFile, String contentFile, boolean jsoupView)
+            throws Exception {
         MicrodataFilter filter = prepareFilter(configFile);
         byte[] content = readContent(contentFile);
-        DocumentFragment fragment = parseHtmlContent(content);
+        DocumentFragment fragment;
+        if (jsoupView) {
+            Document jsoupDoc = Jsoup.parse(new ByteArrayInputStream(content), null, url);
+            fragment = DOMBuilder.jsoup2View(jsoupDoc);
+        } else {
+            fragment = parseHtmlContent(content);
+        }
 
         Metadata metadata = new Metadata();
         filter.filter(url, content, fragment, metadata, null);
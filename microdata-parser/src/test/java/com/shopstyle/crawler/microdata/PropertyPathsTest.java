@@ -0,0 +1,35 @@
+package com.shopstyle.crawler.microdata;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropertyPathsTest {
+
+    @Test
+    public void testCompile() {
+        PropertyPaths paths =
+                PropertyPaths.compile(Arrays.asList("product.name", "product.offers.price",
+                        "webpage", "webpage.breadcrumb"));
+
+        PropertyPaths product = paths.get("product");
+        Assert.assertNotNull(product);
+        Assert.assertSame(PropertyPaths.ALL, product.get("name"));
+        Assert.assertNull(product.get("description"));
+        Assert.assertSame(PropertyPaths.ALL, product.get("offers").get("price"));
+        Assert.assertNull(product.get("offers").get("priceCurrency"));
+
+        // the shorter path wins
+        Assert.assertSame(PropertyPaths.ALL, paths.get("webpage"));
+        Assert.assertNull(paths.get("offer"));
+    }
+
+    @Test
+    public void testNoPaths() {
+        PropertyPaths paths = PropertyPaths.compile(Collections.<String> emptyList());
+        Assert.assertSame(PropertyPaths.ALL, paths);
+        Assert.assertSame(PropertyPaths.ALL, paths.get("anything").get("else"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.shopstyle.crawler.microdata;
+
+import java.util.HashMap;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shopstyle.crawler.jsoup.DOMBuilder;
+
+public class RdfaFilterTest {
+
+    private static final String URL = "http://www.example.com/dress";
+
+    private static final String HTML = "<html><head>"
+            + "<meta property=\"og:title\" content=\"Not an item\">"
+            + "</head><body vocab=\"http://schema.org/\">"
+            + "<div typeof=\"Product\">"
+            + "<h1 property=\"name\">Dress</h1>"
+            + "<img property=\"image\" src=\"/dress.jpg\">"
+            + "<a property=\"schema:url\" href=\"/dress\">link</a>"
+            + "<div property=\"offers\" typeof=\"Offer\">"
+            + "<span property=\"price\" content=\"74.99\">$74.99</span>"
+            + "<link property=\"availability\" href=\"http://schema.org/InStock\">"
+            + "</div>"
+            + "<div typeof=\"schema:Review\"><span property=\"author\">Jane</span></div>"
+            + "</div>"
+            + "<p property=\"name\">Outside of any item</p>"
+            + "</body></html>";
+
+    @Test
+    public void testFilter() throws Exception {
+        RdfaFilter filter = new RdfaFilter();
+        filter.configure(new HashMap(), new ObjectMapper().readTree("{}"));
+        Document document = Jsoup.parse(HTML, URL);
+        DocumentFragment fragment = DOMBuilder.jsoup2View(document);
+        Metadata metadata = new Metadata();
+        filter.filter(URL, HTML.getBytes("UTF-8"), fragment, metadata, null);
+
+        Assert.assertArrayEquals(new String[] { "Dress" },
+                metadata.getValues("microdata.product.name"));
+        Assert.assertEquals("/dress.jpg", metadata.getFirstValue("microdata.product.image"));
+        Assert.assertEquals("/dress", metadata.getFirstValue("microdata.product.url"));
+        Assert.assertEquals("74.99", metadata.getFirstValue("microdata.product.offers.price"));
+        Assert.assertEquals("http://schema.org/InStock",
+                metadata.getFirstValue("microdata.product.offers.availability"));
+        Assert.assertEquals("Jane", metadata.getFirstValue("microdata.review.author"));
+        Assert.assertNull(metadata.getFirstValue("microdata.product.author"));
+    }
+
+    @Test
+    public void testSharedPass() throws Exception {
+        String html = HTML.replace("<h1 property=\"name\">Dress</h1>",
+                "<h1 property=\"name\" itemprop=\"name\">Dress</h1>").replace(
+                "<div typeof=\"Product\">",
+                "<div typeof=\"Product\" itemscope itemtype=\"http://schema.org/Product\">");
+        Document document = Jsoup.parse(html, URL);
+        DocumentFragment fragment = DOMBuilder.jsoup2View(document);
+        byte[] content = html.getBytes("UTF-8");
+
+        StructuredDataFilter[] filters = { new MicrodataFilter(), new RdfaFilter() };
+        Metadata metadata = new Metadata();
+        for (StructuredDataFilter filter : filters) {
+            filter.configure(new HashMap(), new ObjectMapper().readTree("{}"));
+            filter.filter(URL, content, fragment, metadata, null);
+        }
+        // found once
+        StructuredDataRoots roots = StructuredDataRoots.get(fragment, null, URL);
+        Assert.assertEquals(1, roots.getItemScopes().size());
+        Assert.assertEquals(1, roots.getRdfaItems().size());
+        Assert.assertSame(roots, StructuredDataRoots.get(fragment, null, URL));
+        Assert.assertArrayEquals(new String[] { "Dress", "Dress" },
+                metadata.getValues("microdata.product.name"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.shopstyle.crawler.microdata;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+
+import com.digitalpebble.storm.crawler.Metadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shopstyle.crawler.jsoup.DOMBuilder;
+
+public class StructuredDataRecordTest {
+
+    private static final String URL = "http://www.example.com/dress";
+
+    private static final String HTML = "<html><head>"
+            + "<script type=\"application/ld+json\">"
+            + "{\"@type\": \"Organization\", \"name\": \"Shop\", \"founded\": 1998,"
+            + " \"rating\": -4.5, \"verified\": true}"
+            + "</script></head><body>"
+            + "<div itemscope itemtype=\"http://schema.org/Product\">"
+            + "<span itemprop=\"name\">Dress</span>"
+            + "<a itemprop=\"url\" href=\"/dress\">link</a>"
+            + "<div itemprop=\"offers\" itemscope itemtype=\"http://schema.org/Offer\">"
+            + "<meta itemprop=\"price\" content=\"74.99\">"
+            + "<time itemprop=\"validFrom\" datetime=\"2015-03-01\">March</time></div>"
+            + "<div itemprop=\"offers\" itemscope itemtype=\"http://schema.org/Offer\">"
+            + "<meta itemprop=\"price\" content=\"60\"></div>"
+            + "</div></body></html>";
+
+    private static DocumentFragment filter(String output, Metadata metadata) throws Exception {
+        DocumentFragment fragment = DOMBuilder.jsoup2View(Jsoup.parse(HTML, URL));
+        StructuredDataFilter[] filters = { new MicrodataFilter(), new JsonLdFilter() };
+        for (StructuredDataFilter filter : filters) {
+            filter.configure(new HashMap(),
+                    new ObjectMapper().readTree("{\"output\": \"" + output + "\"}"));
+            filter.filter(URL, HTML.getBytes("UTF-8"), fragment, metadata, null);
+        }
+        return fragment;
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        Metadata metadata = new Metadata();
+        DocumentFragment fragment = filter("record", metadata);
+        Assert.assertTrue(metadata.keySet().isEmpty());
+
+        byte[] record = (byte[]) fragment.getUserData(StructuredDataRecord.USER_DATA_KEY);
+        List<MicrodataItem> items = StructuredDataRecord.read(record);
+        Assert.assertEquals(2, items.size());
+
+        MicrodataItem product = items.get(0);
+        Assert.assertEquals("product", product.getShortType());
+        Assert.assertEquals(Arrays.<Object> asList("Dress"), product.getValues("name"));
+        Assert.assertEquals(Arrays.<Object> asList(new MicrodataItem.Link("/dress")),
+                product.getValues("url"));
+        List<Object> offers = product.getValues("offers");
+        Assert.assertEquals(2, offers.size());
+        MicrodataItem offer = (MicrodataItem) offers.get(0);
+        Assert.assertEquals("offer", offer.getShortType());
+        Assert.assertEquals(Arrays.<Object> asList("74.99"), offer.getValues("price"));
+        Assert.assertTrue(offer.getValues("validFrom").get(0) instanceof Date);
+        Assert.assertEquals(Arrays.<Object> asList("60"),
+                ((MicrodataItem) offers.get(1)).getValues("price"));
+
+        MicrodataItem organization = items.get(1);
+        Assert.assertEquals("organization", organization.getShortType());
+        Assert.assertEquals(Arrays.<Object> asList(1998L), organization.getValues("founded"));
+        Assert.assertEquals(Arrays.<Object> asList(-4.5), organization.getValues("rating"));
+        Assert.assertEquals(Arrays.<Object> asList(true), organization.getValues("verified"));
+    }
+
+    @Test
+    public void testBoth() throws Exception {
+        Metadata metadata = new Metadata();
+        DocumentFragment fragment = filter("both", metadata);
+        Assert.assertArrayEquals(new String[] { "74.99", "60" },
+                metadata.getValues("microdata.product.offers.price"));
+        Assert.assertEquals("1998", metadata.getFirstValue("microdata.organization.founded"));
+        Assert.assertEquals("true", metadata.getFirstValue("microdata.organization.verified"));
+
+        byte[] record = (byte[]) fragment.getUserData(StructuredDataRecord.USER_DATA_KEY);
+        Assert.assertEquals(2, StructuredDataRecord.read(record).size());
+        // the names are only written once
+        int metadataLength = 0;
+        for (String key : metadata.keySet()) {
+            for (String value : metadata.getValues(key)) {
+                metadataLength += key.length() + value.length();
+            }
+        }
+        Assert.assertTrue(record.length + " vs " + metadataLength, record.length < metadataLength);
+    }
+
+    @Test
+    public void testMetadataOnly() throws Exception {
+        DocumentFragment fragment = filter("metadata", new Metadata());
+        Assert.assertNull(fragment.getUserData(StructuredDataRecord.USER_DATA_KEY));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        byte[] record =
+                (byte[]) filter("record", new Metadata()).getUserData(
+                        StructuredDataRecord.USER_DATA_KEY);
+        for (int length = 0; length < record.length; length++) {
+            try {
+                StructuredDataRecord.read(Arrays.copyOf(record, length));
+                Assert.fail("Read a record truncated to " + length + " bytes");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}